@@ -0,0 +1,643 @@
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import components.sortingmachine.SortingMachine;
+import components.sortingmachine.SortingMachineSecondary;
+
+/**
+ * {@code SortingMachine} represented as a binary heap of {@code int} handles,
+ * with each entry's heap position tracked in a primitive array so that
+ * entries can be re-prioritized or removed in O(log n) through the handle
+ * returned when they were added.
+ *
+ * <p>
+ * A handle identifies its entry until that entry leaves the machine (through
+ * {@code removeFirst}, {@code remove}, {@code clear}, or {@code transferFrom});
+ * after that the handle may be reused for a later entry.
+ *
+ * @param <T>
+ *            type of {@code SortingMachine} entries
+ * @convention <pre>
+ * IS_TOTAL_PREORDER([relation computed by $this.machineOrder.compare method])  and
+ * 0 <= $this.size <= $this.handleLimit <= |$this.values|  and
+ * |$this.values| = |$this.position| = |$this.heap|  and
+ * for all i: integer
+ *     where (0 <= i  and  i < $this.size)
+ *   ($this.position[$this.heap[i]] = i  and
+ *    $this.values[$this.heap[i]] is not null)  and
+ * [the handles below $this.handleLimit that are not in $this.heap[0, $this.size)
+ *  are exactly $this.freeHandles[0, $this.freeCount), and have position -1
+ *  and a null value]  and
+ * if not $this.insertionMode then
+ *   [$this.heap[0, $this.size) is a heap according to the relation computed
+ *    by $this.machineOrder.compare on the corresponding $this.values]
+ * </pre>
+ * @correspondence <pre>
+ * this = ($this.insertionMode, $this.machineOrder,
+ *         [multiset of $this.values[$this.heap[i]] for 0 <= i < $this.size])
+ * </pre>
+ */
+public class AddressableSortingMachine<T> extends SortingMachineSecondary<T> {
+
+    /*
+     * Private members --------------------------------------------------------
+     */
+
+    /**
+     * Initial capacity of the representation arrays.
+     */
+    private static final int INITIAL_CAPACITY = 8;
+
+    /**
+     * Order.
+     */
+    private Comparator<T> machineOrder;
+
+    /**
+     * Insertion mode.
+     */
+    private boolean insertionMode;
+
+    /**
+     * Entry for each handle.
+     */
+    private Object[] values;
+
+    /**
+     * Position in {@code heap} of each handle, or -1 for a free handle.
+     */
+    private int[] position;
+
+    /**
+     * Handles, arranged as a heap in extraction mode.
+     */
+    private int[] heap;
+
+    /**
+     * Number of entries.
+     */
+    private int size;
+
+    /**
+     * Number of handles ever handed out by this representation.
+     */
+    private int handleLimit;
+
+    /**
+     * Stack of handles available for reuse.
+     */
+    private int[] freeHandles;
+
+    /**
+     * Number of handles in {@code freeHandles}.
+     */
+    private int freeCount;
+
+    /**
+     * Compares the entries with handles {@code h1} and {@code h2}.
+     *
+     * @param h1
+     *            one handle
+     * @param h2
+     *            the other handle
+     * @return the result of {@code machineOrder.compare} on the two entries
+     */
+    @SuppressWarnings("unchecked")
+    private int compare(int h1, int h2) {
+        return this.machineOrder.compare((T) this.values[h1],
+                (T) this.values[h2]);
+    }
+
+    /**
+     * Places handle {@code h} at heap position {@code i}.
+     *
+     * @param i
+     *            the heap position
+     * @param h
+     *            the handle
+     * @updates $this.heap, $this.position
+     * @ensures $this.heap[i] = h  and  $this.position[h] = i
+     */
+    private void place(int i, int h) {
+        this.heap[i] = h;
+        this.position[h] = i;
+    }
+
+    /**
+     * Moves the handle at position {@code i} up until its parent is not
+     * larger.
+     *
+     * @param i
+     *            the heap position to sift up from
+     * @updates $this.heap, $this.position
+     * @requires [$this.heap[0, $this.size) is a heap except that the entry at
+     *           position i may be smaller than its parent]
+     * @ensures [$this.heap[0, $this.size) is a heap]
+     */
+    private void siftUp(int i) {
+        int h = this.heap[i];
+        while (i > 0) {
+            int parent = (i - 1) / 2;
+            if (this.compare(h, this.heap[parent]) >= 0) {
+                break;
+            }
+            this.place(i, this.heap[parent]);
+            i = parent;
+        }
+        this.place(i, h);
+    }
+
+    /**
+     * Moves the handle at position {@code i} down until neither child is
+     * smaller.
+     *
+     * @param i
+     *            the heap position to sift down from
+     * @updates $this.heap, $this.position
+     * @requires [the subtrees of $this.heap[0, $this.size) rooted at the
+     *           children of i are heaps]
+     * @ensures [the subtree of $this.heap[0, $this.size) rooted at i is a
+     *          heap]
+     */
+    private void siftDown(int i) {
+        int h = this.heap[i];
+        int half = this.size / 2;
+        while (i < half) {
+            int child = 2 * i + 1;
+            int right = child + 1;
+            if (right < this.size
+                    && this.compare(this.heap[right], this.heap[child]) < 0) {
+                child = right;
+            }
+            if (this.compare(this.heap[child], h) >= 0) {
+                break;
+            }
+            this.place(i, this.heap[child]);
+            i = child;
+        }
+        this.place(i, h);
+    }
+
+    /**
+     * Restores the heap property around position {@code i} after the entry
+     * there changed.
+     *
+     * @param i
+     *            the heap position
+     * @updates $this.heap, $this.position
+     */
+    private void fix(int i) {
+        if (i > 0 && this.compare(this.heap[i], this.heap[(i - 1) / 2]) < 0) {
+            this.siftUp(i);
+        } else {
+            this.siftDown(i);
+        }
+    }
+
+    /**
+     * Returns a handle that is not in use, growing the representation if
+     * needed.
+     *
+     * @return the handle
+     * @updates $this
+     * @ensures [allocateHandle is a handle not in $this.heap[0, $this.size)
+     *          and below |$this.values|]
+     */
+    private int allocateHandle() {
+        int h;
+        if (this.freeCount > 0) {
+            this.freeCount--;
+            h = this.freeHandles[this.freeCount];
+        } else {
+            if (this.handleLimit == this.values.length) {
+                int capacity = 2 * this.values.length;
+                Object[] newValues = new Object[capacity];
+                int[] newPosition = new int[capacity];
+                int[] newHeap = new int[capacity];
+                int[] newFree = new int[capacity];
+                System.arraycopy(this.values, 0, newValues, 0,
+                        this.handleLimit);
+                System.arraycopy(this.position, 0, newPosition, 0,
+                        this.handleLimit);
+                System.arraycopy(this.heap, 0, newHeap, 0, this.size);
+                System.arraycopy(this.freeHandles, 0, newFree, 0,
+                        this.freeCount);
+                this.values = newValues;
+                this.position = newPosition;
+                this.heap = newHeap;
+                this.freeHandles = newFree;
+            }
+            h = this.handleLimit;
+            this.handleLimit++;
+        }
+        return h;
+    }
+
+    /**
+     * Removes the entry at heap position {@code i} and frees its handle.
+     *
+     * @param i
+     *            the heap position
+     * @return the removed entry
+     * @updates $this
+     * @requires 0 <= i < $this.size
+     * @ensures [the entry at position i of #$this.heap is removed and
+     *          returned; the convention still holds]
+     */
+    @SuppressWarnings("unchecked")
+    private T removeAt(int i) {
+        int h = this.heap[i];
+        T x = (T) this.values[h];
+        this.size--;
+        if (i < this.size) {
+            this.place(i, this.heap[this.size]);
+            if (!this.insertionMode) {
+                this.fix(i);
+            }
+        }
+        this.values[h] = null;
+        this.position[h] = -1;
+        this.freeHandles[this.freeCount] = h;
+        this.freeCount++;
+        return x;
+    }
+
+    /**
+     * Checks that the part of the convention repeated below holds for the
+     * current representation.
+     *
+     * @return true if the convention holds (or if assertion checking is off);
+     *         otherwise reports a violated assertion
+     * @convention <pre>
+     * 0 <= $this.size <= $this.handleLimit <= |$this.values|  and
+     * for all i: integer
+     *     where (0 <= i  and  i < $this.size)
+     *   ($this.position[$this.heap[i]] = i  and
+     *    $this.values[$this.heap[i]] is not null)  and
+     * $this.size + $this.freeCount = $this.handleLimit  and
+     * if not $this.insertionMode then
+     *   [$this.heap[0, $this.size) is a heap according to the relation computed
+     *    by $this.machineOrder.compare on the corresponding $this.values]
+     * </pre>
+     */
+    private boolean conventionHolds() {
+        assert 0 <= this.size : "Violation of: 0 <= $this.size";
+        assert this.size <= this.handleLimit : ""
+                + "Violation of: $this.size <= $this.handleLimit";
+        assert this.handleLimit <= this.values.length : ""
+                + "Violation of: $this.handleLimit <= |$this.values|";
+        assert this.size + this.freeCount == this.handleLimit : ""
+                + "Violation of: $this.size + $this.freeCount = $this.handleLimit";
+        for (int i = 0; i < this.size; i++) {
+            assert this.position[this.heap[i]] == i : ""
+                    + "Violation of: $this.position[$this.heap[i]] = i";
+            assert this.values[this.heap[i]] != null : ""
+                    + "Violation of: $this.values[$this.heap[i]] is not null";
+        }
+        if (!this.insertionMode) {
+            for (int i = 1; i < this.size; i++) {
+                assert this.compare(this.heap[(i - 1) / 2],
+                        this.heap[i]) <= 0 : ""
+                        + "Violation of: [$this.heap[0, $this.size) is a heap]";
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Creator of initial representation.
+     *
+     * @param order
+     *            total preorder for sorting
+     * @requires IS_TOTAL_PREORDER([relation computed by order.compare method]
+     * @ensures <pre>
+     * $this.insertionMode = true  and
+     * $this.machineOrder = order  and
+     * $this.size = 0  and
+     * $this.handleLimit = 0  and
+     * $this.freeCount = 0
+     * </pre>
+     */
+    private void createNewRep(Comparator<T> order) {
+        this.insertionMode = true;
+        this.machineOrder = order;
+        this.values = new Object[INITIAL_CAPACITY];
+        this.position = new int[INITIAL_CAPACITY];
+        this.heap = new int[INITIAL_CAPACITY];
+        this.freeHandles = new int[INITIAL_CAPACITY];
+        this.size = 0;
+        this.handleLimit = 0;
+        this.freeCount = 0;
+    }
+
+    /*
+     * Constructors -----------------------------------------------------------
+     */
+
+    /**
+     * Constructor from order.
+     *
+     * @param order
+     *            total preorder for sorting
+     */
+    public AddressableSortingMachine(Comparator<T> order) {
+        this.createNewRep(order);
+        assert this.conventionHolds();
+    }
+
+    /*
+     * Standard methods -------------------------------------------------------
+     */
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public final SortingMachine<T> newInstance() {
+        try {
+            return this.getClass().getConstructor(Comparator.class)
+                    .newInstance(this.machineOrder);
+        } catch (ReflectiveOperationException e) {
+            throw new AssertionError(
+                    "Cannot construct object of type " + this.getClass());
+        }
+    }
+
+    @Override
+    public final void clear() {
+        this.createNewRep(this.machineOrder);
+        assert this.conventionHolds();
+    }
+
+    @Override
+    public final void transferFrom(SortingMachine<T> source) {
+        assert source != null : "Violation of: source is not null";
+        assert source != this : "Violation of: source is not this";
+        assert source instanceof AddressableSortingMachine<?> : ""
+                + "Violation of: source is of dynamic type AddressableSortingMachine<?>";
+        /*
+         * This cast cannot fail since the assert above would have stopped
+         * execution in that case.
+         */
+        AddressableSortingMachine<T> localSource = (AddressableSortingMachine<T>) source;
+        this.insertionMode = localSource.insertionMode;
+        this.machineOrder = localSource.machineOrder;
+        this.values = localSource.values;
+        this.position = localSource.position;
+        this.heap = localSource.heap;
+        this.size = localSource.size;
+        this.handleLimit = localSource.handleLimit;
+        this.freeHandles = localSource.freeHandles;
+        this.freeCount = localSource.freeCount;
+        localSource.createNewRep(localSource.machineOrder);
+        assert this.conventionHolds();
+        assert localSource.conventionHolds();
+    }
+
+    /*
+     * Kernel methods ---------------------------------------------------------
+     */
+
+    @Override
+    public final void add(T x) {
+        assert x != null : "Violation of: x is not null";
+        assert this.isInInsertionMode() : "Violation of: this.insertion_mode";
+
+        this.addWithHandle(x);
+    }
+
+    @Override
+    public final void changeToExtractionMode() {
+        assert this.isInInsertionMode() : "Violation of: this.insertion_mode";
+
+        this.insertionMode = false;
+        for (int i = this.size / 2 - 1; i >= 0; i--) {
+            this.siftDown(i);
+        }
+
+        assert this.conventionHolds();
+    }
+
+    @Override
+    public final T removeFirst() {
+        assert !this
+                .isInInsertionMode() : "Violation of: not this.insertion_mode";
+        assert this.size() > 0 : "Violation of: this.contents /= {}";
+
+        T first = this.removeAt(0);
+
+        assert this.conventionHolds();
+
+        return first;
+    }
+
+    @Override
+    public final boolean isInInsertionMode() {
+        assert this.conventionHolds();
+        return this.insertionMode;
+    }
+
+    @Override
+    public final Comparator<T> order() {
+        assert this.conventionHolds();
+        return this.machineOrder;
+    }
+
+    @Override
+    public final int size() {
+        assert this.conventionHolds();
+        return this.size;
+    }
+
+    @Override
+    public final Iterator<T> iterator() {
+        return new AddressableSortingMachineIterator();
+    }
+
+    /*
+     * Other methods ----------------------------------------------------------
+     */
+
+    /**
+     * Adds {@code x} to the contents of {@code this} and returns a handle
+     * through which it can later be re-prioritized or removed. Unlike
+     * {@code add}, this may also be called in extraction mode.
+     *
+     * @param x
+     *            the element to be added
+     * @return the handle of {@code x}
+     * @aliases reference x
+     * @updates this.contents
+     * @ensures <pre>
+     * this.contents = #this.contents union {x}  and
+     * [addWithHandle identifies x in this until x leaves this]
+     * </pre>
+     */
+    public final int addWithHandle(T x) {
+        assert x != null : "Violation of: x is not null";
+
+        int h = this.allocateHandle();
+        this.values[h] = x;
+        this.place(this.size, h);
+        this.size++;
+        if (!this.insertionMode) {
+            this.siftUp(this.size - 1);
+        }
+
+        assert this.conventionHolds();
+
+        return h;
+    }
+
+    /**
+     * Reports whether {@code handle} identifies an entry of {@code this}.
+     *
+     * @param handle
+     *            the handle
+     * @return true iff {@code handle} identifies an entry of {@code this}
+     * @ensures contains = [handle identifies an entry of this]
+     */
+    public final boolean contains(int handle) {
+        return 0 <= handle && handle < this.handleLimit
+                && this.position[handle] >= 0;
+    }
+
+    /**
+     * Returns the entry identified by {@code handle}.
+     *
+     * @param handle
+     *            the handle
+     * @return the entry identified by {@code handle}
+     * @aliases reference returned value
+     * @requires this.contains(handle)
+     * @ensures get = [the entry identified by handle]
+     */
+    @SuppressWarnings("unchecked")
+    public final T get(int handle) {
+        assert this.contains(handle) : "Violation of: this.contains(handle)";
+
+        return (T) this.values[handle];
+    }
+
+    /**
+     * Restores the order of {@code this} after the priority of the entry
+     * identified by {@code handle} has changed (e.g., because the entry was
+     * mutated in a way that affects {@code this.order()}).
+     *
+     * @param handle
+     *            the handle of the changed entry
+     * @updates this
+     * @requires this.contains(handle)
+     * @ensures this = #this
+     */
+    public final void updatePriority(int handle) {
+        assert this.contains(handle) : "Violation of: this.contains(handle)";
+
+        if (!this.insertionMode) {
+            this.fix(this.position[handle]);
+        }
+
+        assert this.conventionHolds();
+    }
+
+    /**
+     * Replaces the entry identified by {@code handle} with {@code x} and
+     * restores the order of {@code this}; {@code handle} now identifies
+     * {@code x}.
+     *
+     * @param handle
+     *            the handle of the entry to replace
+     * @param x
+     *            the replacement entry
+     * @return the replaced entry
+     * @aliases reference x
+     * @updates this.contents
+     * @requires this.contains(handle)  and  x is not null
+     * @ensures <pre>
+     * replace = [the entry identified by handle in #this]  and
+     * this.contents = (#this.contents \ {replace}) union {x}
+     * </pre>
+     */
+    @SuppressWarnings("unchecked")
+    public final T replace(int handle, T x) {
+        assert this.contains(handle) : "Violation of: this.contains(handle)";
+        assert x != null : "Violation of: x is not null";
+
+        T old = (T) this.values[handle];
+        this.values[handle] = x;
+        this.updatePriority(handle);
+        return old;
+    }
+
+    /**
+     * Removes the entry identified by {@code handle} from {@code this}.
+     *
+     * @param handle
+     *            the handle of the entry to remove
+     * @return the removed entry
+     * @updates this.contents
+     * @requires this.contains(handle)
+     * @ensures <pre>
+     * remove = [the entry identified by handle in #this]  and
+     * this.contents = #this.contents \ {remove}
+     * </pre>
+     */
+    public final T remove(int handle) {
+        assert this.contains(handle) : "Violation of: this.contains(handle)";
+
+        T x = this.removeAt(this.position[handle]);
+
+        assert this.conventionHolds();
+
+        return x;
+    }
+
+    /**
+     * Implementation of {@code Iterator} interface for
+     * {@code AddressableSortingMachine}.
+     */
+    private final class AddressableSortingMachineIterator
+            implements Iterator<T> {
+
+        /**
+         * Next heap position to visit.
+         */
+        private int currentIndex;
+
+        /**
+         * No-argument constructor.
+         */
+        private AddressableSortingMachineIterator() {
+            this.currentIndex = 0;
+            assert AddressableSortingMachine.this.conventionHolds();
+        }
+
+        @Override
+        public boolean hasNext() {
+            return this.currentIndex < AddressableSortingMachine.this.size;
+        }
+
+        @SuppressWarnings("unchecked")
+        @Override
+        public T next() {
+            assert this.hasNext() : "Violation of: ~this.unseen /= <>";
+            if (!this.hasNext()) {
+                /*
+                 * Exception is supposed to be thrown in this case, but with
+                 * assertion-checking enabled it cannot happen because of assert
+                 * above.
+                 */
+                throw new NoSuchElementException();
+            }
+            T next = (T) AddressableSortingMachine.this.values[AddressableSortingMachine.this.heap[this.currentIndex]];
+            this.currentIndex++;
+            return next;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException(
+                    "remove operation not supported");
+        }
+
+    }
+}
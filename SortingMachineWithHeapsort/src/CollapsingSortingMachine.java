@@ -0,0 +1,481 @@
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import components.sortingmachine.SortingMachine;
+import components.sortingmachine.SortingMachineSecondary;
+
+/**
+ * {@code SortingMachine} that collapses entries comparing equal into a single
+ * slot with a primitive multiplicity count. Added entries are staged at the
+ * end of an array; whenever the array fills up the staged entries are sorted,
+ * runs of equal entries are collapsed, and the result is merged into a sorted
+ * prefix of distinct entries. Memory therefore grows with the number of
+ * distinct entries rather than the number added, and each duplicate costs
+ * comparisons only once per compaction. {@code removeFirst} returns the
+ * representative of the smallest class (the first of its entries to be added)
+ * until that class's count reaches zero.
+ *
+ * <p>
+ * Since equal entries are collapsed, {@code removeFirst} and the iterator
+ * return the representative in place of each later entry equal to it. If the
+ * machine is distinct-only, an entry equal to one already in the machine is
+ * discarded instead of counted.
+ *
+ * @param <T>
+ *            type of {@code SortingMachine} entries
+ * @convention <pre>
+ * 0 <= $this.cursor <= $this.distinct <= $this.length <= |$this.entries|  and
+ * |$this.counts| = |$this.entries|  and
+ * [$this.entries[$this.cursor, $this.length) are not null]  and
+ * [the other entries of $this.entries are null]  and
+ * for all i: integer
+ *     where ($this.cursor <= i  and  i < $this.length)
+ *   ($this.counts[i] > 0  and
+ *    ($this.distinctOnly  implies  $this.counts[i] = 1))  and
+ * for all i: integer
+ *     where ($this.cursor < i  and  i < $this.distinct)
+ *   ([relation computed by $this.machineOrder.compare method]
+ *      ($this.entries[i-1], $this.entries[i]) < 0)  and
+ * for all i: integer
+ *     where ($this.distinct <= i  and  i < $this.length)
+ *   ($this.counts[i] = 1)  and
+ * ($this.insertionMode  implies  $this.cursor = 0)  and
+ * (not $this.insertionMode  implies  $this.distinct = $this.length)  and
+ * $this.size = [sum of $this.counts[$this.cursor, $this.length)]
+ * </pre>
+ * @correspondence <pre>
+ * this = ($this.insertionMode, $this.machineOrder,
+ *         [multiset with, for each class of equal entries in
+ *          $this.entries[$this.cursor, $this.length), its earliest added entry
+ *          repeated 1 time if $this.distinctOnly and otherwise the sum of the
+ *          counts of the class's entries])
+ * </pre>
+ */
+public class CollapsingSortingMachine<T> extends SortingMachineSecondary<T> {
+
+    /*
+     * Private members --------------------------------------------------------
+     */
+
+    /**
+     * Initial capacity of the entry array.
+     */
+    private static final int INITIAL_CAPACITY = 16;
+
+    /**
+     * Order.
+     */
+    private Comparator<T> machineOrder;
+
+    /**
+     * Whether entries equal to one already in the machine are discarded.
+     */
+    private boolean distinctOnly;
+
+    /**
+     * Insertion mode.
+     */
+    private boolean insertionMode;
+
+    /**
+     * Sorted distinct entries followed by staged entries.
+     */
+    private T[] entries;
+
+    /**
+     * Multiplicity of each entry, parallel to {@code entries}.
+     */
+    private int[] counts;
+
+    /**
+     * Position of the first entry not yet removed.
+     */
+    private int cursor;
+
+    /**
+     * End of the sorted distinct prefix.
+     */
+    private int distinct;
+
+    /**
+     * End of the staged entries.
+     */
+    private int length;
+
+    /**
+     * Total multiplicity of the entries.
+     */
+    private int size;
+
+    /**
+     * Sorts and collapses the staged entries and merges them into the sorted
+     * distinct prefix, growing the arrays if the prefix then fills more than
+     * half of them.
+     *
+     * @updates $this.entries, $this.counts, $this.distinct, $this.length,
+     *          $this.size
+     * @requires $this.insertionMode
+     * @ensures $this.distinct = $this.length  and  this = #this
+     */
+    private void compact() {
+        Comparator<T> order = this.machineOrder;
+        T[] a = this.entries;
+        int[] c = this.counts;
+
+        /*
+         * Stable sort, so the earliest added entry of each run comes first and
+         * becomes its representative.
+         */
+        Arrays.sort(a, this.distinct, this.length, order);
+        int tail = this.distinct;
+        for (int r = this.distinct; r < this.length; r++) {
+            if (tail > this.distinct && order.compare(a[tail - 1], a[r]) == 0) {
+                if (!this.distinctOnly) {
+                    c[tail - 1] += c[r];
+                }
+            } else {
+                a[tail] = a[r];
+                c[tail] = c[r];
+                tail++;
+            }
+        }
+        Arrays.fill(a, tail, this.length, null);
+
+        int capacity = a.length;
+        while (tail > capacity / 2) {
+            capacity *= 2;
+        }
+        if (this.distinct == 0 && capacity == a.length) {
+            /*
+             * Nothing to merge with and no need to grow.
+             */
+            this.distinct = tail;
+        } else {
+            @SuppressWarnings("unchecked")
+            T[] mergedEntries = (T[]) new Object[capacity];
+            int[] mergedCounts = new int[capacity];
+            int i = 0;
+            int j = this.distinct;
+            int k = 0;
+            while (i < this.distinct && j < tail) {
+                int cmp = order.compare(a[i], a[j]);
+                if (cmp < 0) {
+                    mergedEntries[k] = a[i];
+                    mergedCounts[k] = c[i];
+                    i++;
+                } else if (cmp > 0) {
+                    mergedEntries[k] = a[j];
+                    mergedCounts[k] = c[j];
+                    j++;
+                } else {
+                    mergedEntries[k] = a[i];
+                    mergedCounts[k] = c[i];
+                    if (!this.distinctOnly) {
+                        mergedCounts[k] += c[j];
+                    }
+                    i++;
+                    j++;
+                }
+                k++;
+            }
+            int rest = this.distinct - i;
+            System.arraycopy(a, i, mergedEntries, k, rest);
+            System.arraycopy(c, i, mergedCounts, k, rest);
+            k += rest;
+            rest = tail - j;
+            System.arraycopy(a, j, mergedEntries, k, rest);
+            System.arraycopy(c, j, mergedCounts, k, rest);
+            k += rest;
+            this.entries = mergedEntries;
+            this.counts = mergedCounts;
+            this.distinct = k;
+        }
+        this.length = this.distinct;
+
+        int total = 0;
+        for (int i = 0; i < this.length; i++) {
+            total += this.counts[i];
+        }
+        this.size = total;
+    }
+
+    /**
+     * Checks that the part of the convention repeated below holds for the
+     * current representation.
+     *
+     * @return true if the convention holds (or if assertion checking is off);
+     *         otherwise reports a violated assertion
+     * @convention <pre>
+     * 0 <= $this.cursor <= $this.distinct <= $this.length <= |$this.entries|  and
+     * [$this.entries[$this.cursor, $this.distinct) is strictly increasing]  and
+     * ($this.insertionMode  implies  $this.cursor = 0)  and
+     * (not $this.insertionMode  implies  $this.distinct = $this.length)  and
+     * $this.size = [sum of $this.counts[$this.cursor, $this.length)]
+     * </pre>
+     */
+    private boolean conventionHolds() {
+        assert 0 <= this.cursor && this.cursor <= this.distinct
+                && this.distinct <= this.length
+                && this.length <= this.entries.length : ""
+                        + "Violation of: 0 <= $this.cursor <= $this.distinct"
+                        + " <= $this.length <= |$this.entries|";
+        for (int i = this.cursor + 1; i < this.distinct; i++) {
+            assert this.machineOrder.compare(this.entries[i - 1],
+                    this.entries[i]) < 0 : ""
+                            + "Violation of: [prefix is strictly increasing]";
+        }
+        assert !this.insertionMode || this.cursor == 0 : ""
+                + "Violation of: $this.insertionMode implies $this.cursor = 0";
+        assert this.insertionMode || this.distinct == this.length : ""
+                + "Violation of: not $this.insertionMode"
+                + " implies $this.distinct = $this.length";
+        int total = 0;
+        for (int i = this.cursor; i < this.length; i++) {
+            assert this.entries[i] != null && this.counts[i] > 0 : ""
+                    + "Violation of: [live entries are counted]";
+            total += this.counts[i];
+        }
+        assert total == this.size : ""
+                + "Violation of: $this.size = [sum of counts]";
+        return true;
+    }
+
+    /**
+     * Creator of initial representation.
+     *
+     * @param order
+     *            total preorder for sorting
+     * @param distinctOnly
+     *            whether entries equal to one already present are discarded
+     * @ensures <pre>
+     * $this.insertionMode = true  and  $this.machineOrder = order  and
+     * $this.distinctOnly = distinctOnly  and
+     * $this.cursor = 0  and  $this.distinct = 0  and  $this.length = 0
+     * </pre>
+     */
+    @SuppressWarnings("unchecked")
+    private void createNewRep(Comparator<T> order, boolean distinctOnly) {
+        this.machineOrder = order;
+        this.distinctOnly = distinctOnly;
+        this.insertionMode = true;
+        this.entries = (T[]) new Object[INITIAL_CAPACITY];
+        this.counts = new int[INITIAL_CAPACITY];
+        this.cursor = 0;
+        this.distinct = 0;
+        this.length = 0;
+        this.size = 0;
+    }
+
+    /*
+     * Constructors -----------------------------------------------------------
+     */
+
+    /**
+     * Constructor from order and distinct-only flag.
+     *
+     * @param order
+     *            total preorder for sorting
+     * @param distinctOnly
+     *            whether an entry equal to one already in the machine is
+     *            discarded instead of counted
+     */
+    public CollapsingSortingMachine(Comparator<T> order,
+            boolean distinctOnly) {
+        this.createNewRep(order, distinctOnly);
+        assert this.conventionHolds();
+    }
+
+    /*
+     * Standard methods -------------------------------------------------------
+     */
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public final SortingMachine<T> newInstance() {
+        try {
+            return this.getClass()
+                    .getConstructor(Comparator.class, boolean.class)
+                    .newInstance(this.machineOrder, this.distinctOnly);
+        } catch (ReflectiveOperationException e) {
+            throw new AssertionError(
+                    "Cannot construct object of type " + this.getClass());
+        }
+    }
+
+    @Override
+    public final void clear() {
+        this.createNewRep(this.machineOrder, this.distinctOnly);
+        assert this.conventionHolds();
+    }
+
+    @Override
+    public final void transferFrom(SortingMachine<T> source) {
+        assert source != null : "Violation of: source is not null";
+        assert source != this : "Violation of: source is not this";
+        assert source instanceof CollapsingSortingMachine<?> : ""
+                + "Violation of: source is of dynamic type CollapsingSortingMachine<?>";
+        /*
+         * This cast cannot fail since the assert above would have stopped
+         * execution in that case.
+         */
+        CollapsingSortingMachine<T> localSource = (CollapsingSortingMachine<T>) source;
+        this.machineOrder = localSource.machineOrder;
+        this.distinctOnly = localSource.distinctOnly;
+        this.insertionMode = localSource.insertionMode;
+        this.entries = localSource.entries;
+        this.counts = localSource.counts;
+        this.cursor = localSource.cursor;
+        this.distinct = localSource.distinct;
+        this.length = localSource.length;
+        this.size = localSource.size;
+        localSource.createNewRep(localSource.machineOrder,
+                localSource.distinctOnly);
+        assert this.conventionHolds();
+        assert localSource.conventionHolds();
+    }
+
+    /*
+     * Kernel methods ---------------------------------------------------------
+     */
+
+    @Override
+    public final void add(T x) {
+        assert x != null : "Violation of: x is not null";
+        assert this.isInInsertionMode() : "Violation of: this.insertion_mode";
+
+        if (this.length == this.entries.length) {
+            this.compact();
+        }
+        this.entries[this.length] = x;
+        this.counts[this.length] = 1;
+        this.length++;
+        this.size++;
+
+        assert this.conventionHolds();
+    }
+
+    @Override
+    public final void changeToExtractionMode() {
+        assert this.isInInsertionMode() : "Violation of: this.insertion_mode";
+
+        if (this.distinct < this.length) {
+            this.compact();
+        }
+        this.insertionMode = false;
+
+        assert this.conventionHolds();
+    }
+
+    @Override
+    public final T removeFirst() {
+        assert !this
+                .isInInsertionMode() : "Violation of: not this.insertion_mode";
+        assert this.size() > 0 : "Violation of: this.contents /= {}";
+
+        T first = this.entries[this.cursor];
+        this.counts[this.cursor]--;
+        if (this.counts[this.cursor] == 0) {
+            this.entries[this.cursor] = null;
+            this.cursor++;
+        }
+        this.size--;
+
+        assert this.conventionHolds();
+
+        return first;
+    }
+
+    @Override
+    public final boolean isInInsertionMode() {
+        assert this.conventionHolds();
+        return this.insertionMode;
+    }
+
+    @Override
+    public final Comparator<T> order() {
+        assert this.conventionHolds();
+        return this.machineOrder;
+    }
+
+    @Override
+    public final int size() {
+        if (this.distinctOnly && this.distinct < this.length) {
+            /*
+             * Staged duplicates are only discarded by compaction.
+             */
+            this.compact();
+        }
+        assert this.conventionHolds();
+        return this.size;
+    }
+
+    @Override
+    public final Iterator<T> iterator() {
+        if (this.distinctOnly && this.distinct < this.length) {
+            this.compact();
+        }
+        return new CollapsingSortingMachineIterator();
+    }
+
+    /**
+     * Implementation of {@code Iterator} interface for
+     * {@code CollapsingSortingMachine}. Each entry is returned as many times as
+     * its count.
+     */
+    private final class CollapsingSortingMachineIterator
+            implements Iterator<T> {
+
+        /**
+         * Position of the entry being returned.
+         */
+        private int currentIndex;
+
+        /**
+         * Number of times the entry at {@code currentIndex} has been returned.
+         */
+        private int returned;
+
+        /**
+         * No-argument constructor.
+         */
+        private CollapsingSortingMachineIterator() {
+            this.currentIndex = CollapsingSortingMachine.this.cursor;
+            this.returned = 0;
+            assert CollapsingSortingMachine.this.conventionHolds();
+        }
+
+        @Override
+        public boolean hasNext() {
+            return this.currentIndex < CollapsingSortingMachine.this.length;
+        }
+
+        @Override
+        public T next() {
+            assert this.hasNext() : "Violation of: ~this.unseen /= <>";
+            if (!this.hasNext()) {
+                /*
+                 * Exception is supposed to be thrown in this case, but with
+                 * assertion-checking enabled it cannot happen because of assert
+                 * above.
+                 */
+                throw new NoSuchElementException();
+            }
+            T next = CollapsingSortingMachine.this.entries[this.currentIndex];
+            this.returned++;
+            if (this.returned == CollapsingSortingMachine.this.counts[this.currentIndex]) {
+                this.currentIndex++;
+                this.returned = 0;
+            }
+            return next;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException(
+                    "remove operation not supported");
+        }
+
+    }
+}
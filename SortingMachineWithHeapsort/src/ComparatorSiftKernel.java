@@ -0,0 +1,45 @@
+import java.util.Comparator;
+
+/**
+ * {@code HeapSiftKernel} comparing through {@code order.compare}. This class is
+ * also the template that {@code HeapSiftKernels} copies once per comparator
+ * class, so it must stay self-contained: no nested classes and no references
+ * to other classes of this package.
+ */
+final class ComparatorSiftKernel implements HeapSiftKernel {
+
+    /**
+     * No-argument constructor.
+     */
+    ComparatorSiftKernel() {
+    }
+
+    @Override
+    public <T> void siftDown(T[] array, int top, int last,
+            Comparator<T> order) {
+        T x = array[top];
+        int hole = top;
+        int child = 2 * hole + 1;
+        while (child <= last) {
+            if (child < last
+                    && order.compare(array[child + 1], array[child]) <= 0) {
+                child++;
+            }
+            if (order.compare(array[child], x) >= 0) {
+                break;
+            }
+            array[hole] = array[child];
+            hole = child;
+            child = 2 * hole + 1;
+        }
+        array[hole] = x;
+    }
+
+    @Override
+    public <T> void heapify(T[] array, int last, Comparator<T> order) {
+        for (int i = (last - 1) / 2; i >= 0; i--) {
+            this.siftDown(array, i, last, order);
+        }
+    }
+
+}
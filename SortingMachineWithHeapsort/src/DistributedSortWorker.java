@@ -0,0 +1,417 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.ObjectInputFilter;
+import java.io.ObjectInputStream;
+import java.lang.invoke.SerializedLambda;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Comparator;
+
+/**
+ * Worker side of a {@code DistributedSortingMachine}. Each connection carries
+ * one worker's share of a batch: the coordinator sends the codec and the
+ * comparator serialized, streams the entries, and then reads them back sorted
+ * by a local {@code SortingMachine5a} on the connection's own thread, so the
+ * deserialized comparator is never called concurrently and each connection
+ * keeps one core busy. The codec and the comparator are deserialized through a
+ * filter that bounds their size and accepts only codecs, comparators, enums,
+ * boxed primitives, strings, and serializable lambdas, so a codec or comparator
+ * with fields of any other type is rejected. The filter narrows what a
+ * connection can make the worker deserialize but does not authenticate it, so a
+ * worker should still be reachable only by trusted coordinators.
+ *
+ * <p>
+ * Wire format, coordinator to worker: the serialized codec and the serialized
+ * comparator, each as an {@code int} length followed by the bytes; then a
+ * sequence of {@code ENTRY} tags, each followed by the encoding of an entry,
+ * and {@code LIST} tags; then {@code SORT}. Worker to coordinator: {@code 0}
+ * once the codec and comparator are decoded; for each {@code LIST}, the
+ * number of entries held as an {@code int}, then their encodings; and for
+ * {@code SORT}, the number of entries, then their encodings in sorted order.
+ * In place of any of these {@code int}s the worker may send {@code FAILED}
+ * followed by an error message (as {@code writeUTF}) and close the
+ * connection; a worker that fails while sending entries just closes it.
+ */
+public final class DistributedSortWorker {
+
+    /**
+     * Line printed on standard output once the worker is listening, followed
+     * by the port.
+     */
+    public static final String READY = "READY";
+
+    /**
+     * Tag asking the worker to sort and send back its entries.
+     */
+    static final byte SORT = 0;
+
+    /**
+     * Tag preceding an entry.
+     */
+    static final byte ENTRY = 1;
+
+    /**
+     * Tag asking the worker for a copy of its entries.
+     */
+    static final byte LIST = 2;
+
+    /**
+     * Sent in place of a count when the worker fails, followed by the error
+     * message.
+     */
+    static final int FAILED = -1;
+
+    /**
+     * Size of the stream buffers.
+     */
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /**
+     * Largest serialized codec or comparator accepted, in bytes.
+     */
+    static final int MAX_OBJECT_BYTES = 1 << 16;
+
+    /**
+     * Deepest object graph accepted for a codec or comparator.
+     */
+    private static final int MAX_OBJECT_DEPTH = 16;
+
+    /**
+     * Most object references accepted in a codec or comparator.
+     */
+    private static final int MAX_OBJECT_REFERENCES = 256;
+
+    /**
+     * Reports whether class {@code c} may appear in a serialized codec or
+     * comparator: codecs and comparators themselves, enums, boxed primitives
+     * and strings, and arrays of those or of primitives; and, for
+     * serializable lambdas, {@code SerializedLambda} with its {@code Object[]}
+     * of captured arguments, the class that declared the lambda (which has a
+     * {@code $deserializeLambda$} method), and the hidden class the lambda
+     * resolves to.
+     *
+     * @param c
+     *            the class
+     * @return true iff {@code c} is allowed
+     */
+    private static boolean allowed(Class<?> c) {
+        Class<?> element = c;
+        while (element.isArray()) {
+            element = element.getComponentType();
+        }
+        boolean result = element.isPrimitive()
+                || (element == Object.class && c.isArray())
+                || RecordCodec.class.isAssignableFrom(element)
+                || Comparator.class.isAssignableFrom(element)
+                || Enum.class.isAssignableFrom(element)
+                || element == String.class || element == Boolean.class
+                || element == Character.class
+                || (Number.class.isAssignableFrom(element)
+                        && element.getPackageName().equals("java.lang"))
+                || element == SerializedLambda.class || element.isHidden();
+        if (!result) {
+            try {
+                element.getDeclaredMethod("$deserializeLambda$",
+                        SerializedLambda.class);
+                result = true;
+            } catch (NoSuchMethodException e) {
+                // Not a class that declares serializable lambdas.
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Filter for deserializing a codec or comparator: accepts only the
+     * classes {@code allowed} accepts, within the size, depth, and reference
+     * limits above, so that a connection cannot make the worker build an
+     * arbitrary object graph.
+     *
+     * @param info
+     *            the object about to be deserialized
+     * @return the filter's decision
+     */
+    private static ObjectInputFilter.Status filter(
+            ObjectInputFilter.FilterInfo info) {
+        ObjectInputFilter.Status status;
+        if (info.depth() > MAX_OBJECT_DEPTH
+                || info.references() > MAX_OBJECT_REFERENCES
+                || info.streamBytes() > MAX_OBJECT_BYTES
+                || info.arrayLength() > MAX_OBJECT_REFERENCES) {
+            status = ObjectInputFilter.Status.REJECTED;
+        } else if (info.serialClass() == null) {
+            status = ObjectInputFilter.Status.UNDECIDED;
+        } else if (allowed(info.serialClass())) {
+            status = ObjectInputFilter.Status.ALLOWED;
+        } else {
+            status = ObjectInputFilter.Status.REJECTED;
+        }
+        return status;
+    }
+
+    /**
+     * Private constructor so this utility class cannot be instantiated.
+     */
+    private DistributedSortWorker() {
+    }
+
+    /**
+     * Reads an object serialized as a length followed by the bytes, through
+     * {@code filter}.
+     *
+     * @param in
+     *            the source
+     * @return the object
+     * @throws IOException
+     *             if {@code in} fails, the length is out of range, or the
+     *             object cannot be deserialized or is rejected by the filter
+     */
+    private static Object readObject(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0 || length > MAX_OBJECT_BYTES) {
+            throw new IOException("serialized object of " + length
+                    + " bytes, at most " + MAX_OBJECT_BYTES + " accepted");
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        Object x;
+        try (ObjectInputStream objects = new ObjectInputStream(
+                new ByteArrayInputStream(bytes))) {
+            objects.setObjectInputFilter(DistributedSortWorker::filter);
+            x = objects.readObject();
+        } catch (ClassNotFoundException e) {
+            throw new IOException("class not found: " + e.getMessage(), e);
+        }
+        return x;
+    }
+
+    /**
+     * Writes the number of entries of {@code m} to {@code out}, then the
+     * entries: in sorted order, removing them, if {@code m} is in extraction
+     * mode, and in no particular order otherwise.
+     *
+     * @param m
+     *            the entries
+     * @param codec
+     *            the codec
+     * @param out
+     *            the destination
+     * @throws IOException
+     *             if {@code out} fails
+     * @updates m
+     * @ensures <pre>
+     * if m.insertion_mode then m = #m else m.contents = {}
+     * </pre>
+     */
+    private static void writeEntries(SortingMachine5a<Object> m,
+            RecordCodec<Object> codec, DataOutputStream out)
+            throws IOException {
+        out.writeInt(m.size());
+        if (m.isInInsertionMode()) {
+            for (Object x : m) {
+                codec.write(x, out);
+            }
+        } else {
+            while (m.size() > 0) {
+                codec.write(m.removeFirst(), out);
+            }
+        }
+        out.flush();
+    }
+
+    /**
+     * Sorts the share sent over {@code socket} and sends it back. If anything
+     * fails, the error is reported on {@code System.err} and the connection
+     * is closed; if no reply was under way, the error is first sent to the
+     * coordinator in place of the next count it waits for.
+     *
+     * @param socket
+     *            the connection from the coordinator
+     */
+    @SuppressWarnings("unchecked")
+    private static void handle(Socket socket) {
+        try (Socket s = socket;
+                DataInputStream in = new DataInputStream(
+                        new BufferedInputStream(s.getInputStream(),
+                                BUFFER_SIZE));
+                DataOutputStream out = new DataOutputStream(
+                        new BufferedOutputStream(s.getOutputStream(),
+                                BUFFER_SIZE))) {
+            boolean replying = false;
+            try {
+                RecordCodec<Object> codec = (RecordCodec<Object>) readObject(
+                        in);
+                Comparator<Object> order = (Comparator<Object>) readObject(in);
+                out.writeInt(0);
+                out.flush();
+
+                SortingMachine5a<Object> m = new SortingMachine5a<>(order);
+                byte tag = in.readByte();
+                while (tag != SORT) {
+                    if (tag == ENTRY) {
+                        m.add(codec.read(in));
+                    } else if (tag == LIST) {
+                        replying = true;
+                        writeEntries(m, codec, out);
+                        replying = false;
+                    } else {
+                        throw new IOException("unknown tag " + tag);
+                    }
+                    tag = in.readByte();
+                }
+                m.changeToExtractionMode();
+                replying = true;
+                writeEntries(m, codec, out);
+            } catch (IOException | RuntimeException e) {
+                System.err.println("DistributedSortWorker: " + e);
+                /*
+                 * Within a reply the coordinator is reading entries, and
+                 * FAILED could pass for one, so the reply is only cut short;
+                 * the coordinator sees the end of the stream.
+                 */
+                if (!replying) {
+                    out.writeInt(FAILED);
+                    out.writeUTF(String.valueOf(e));
+                    out.flush();
+                }
+            }
+        } catch (IOException e) {
+            /*
+             * The connection itself failed, so there is no one to tell.
+             */
+            System.err.println("DistributedSortWorker: " + e);
+        }
+    }
+
+    /**
+     * Accepts connections on {@code server} until it is closed, sorting each
+     * one on its own thread.
+     *
+     * @param server
+     *            the listening socket
+     */
+    public static void serve(ServerSocket server) {
+        assert server != null : "Violation of: server is not null";
+
+        while (!server.isClosed()) {
+            Socket socket;
+            try {
+                socket = server.accept();
+            } catch (IOException e) {
+                /*
+                 * Closing the server socket is how a worker is stopped.
+                 */
+                return;
+            }
+            Thread t = new Thread(() -> handle(socket),
+                    "DistributedSortWorker-" + socket.getPort());
+            t.setDaemon(true);
+            t.start();
+        }
+    }
+
+    /**
+     * Handle on a worker running in a separate JVM on this host.
+     */
+    public static final class LocalProcess implements AutoCloseable {
+
+        /**
+         * The worker JVM.
+         */
+        private final Process process;
+
+        /**
+         * The address the worker listens on.
+         */
+        private final InetSocketAddress address;
+
+        /**
+         * Constructor from process and address.
+         *
+         * @param process
+         *            the worker JVM
+         * @param address
+         *            the address the worker listens on
+         */
+        private LocalProcess(Process process, InetSocketAddress address) {
+            this.process = process;
+            this.address = address;
+        }
+
+        /**
+         * Reports the address the worker listens on.
+         *
+         * @return the address
+         */
+        public InetSocketAddress address() {
+            return this.address;
+        }
+
+        @Override
+        public void close() {
+            this.process.destroy();
+        }
+
+    }
+
+    /**
+     * Starts a worker in a new JVM on this host, with the same class path as
+     * the current one, and waits until it is listening.
+     *
+     * @return the handle on the new worker
+     * @throws IOException
+     *             if the JVM cannot be started or exits before listening
+     */
+    public static LocalProcess startLocal() throws IOException {
+        String java = System.getProperty("java.home") + File.separator + "bin"
+                + File.separator + "java";
+        Process p = new ProcessBuilder(java, "-cp",
+                System.getProperty("java.class.path"),
+                DistributedSortWorker.class.getName())
+                        .redirectError(ProcessBuilder.Redirect.INHERIT).start();
+        BufferedReader stdout = new BufferedReader(new InputStreamReader(
+                p.getInputStream(), StandardCharsets.UTF_8));
+        String line = stdout.readLine();
+        if (line == null || !line.startsWith(READY + " ")) {
+            p.destroy();
+            throw new IOException("worker did not start: " + line);
+        }
+        int port = Integer.parseInt(line.substring(READY.length() + 1));
+        return new LocalProcess(p,
+                new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+    }
+
+    /**
+     * Main method: listens on the loopback interface, on the port given as
+     * the first argument or on any free port, and prints {@code READY} and
+     * the port once listening.
+     *
+     * @param args
+     *            the command line arguments
+     * @throws IOException
+     *             if the server socket cannot be opened
+     */
+    public static void main(String[] args) throws IOException {
+        int port = 0;
+        if (args.length > 0) {
+            port = Integer.parseInt(args[0]);
+        }
+        try (ServerSocket server = new ServerSocket(port, 0,
+                InetAddress.getLoopbackAddress())) {
+            System.out.println(READY + " " + server.getLocalPort());
+            System.out.flush();
+            serve(server);
+        }
+    }
+
+}
@@ -0,0 +1,734 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+
+import components.sortingmachine.SortingMachine;
+import components.sortingmachine.SortingMachineSecondary;
+
+/**
+ * {@code SortingMachine} that spreads its entries across
+ * {@code DistributedSortWorker}s, so a batch need not fit in one JVM. Entries
+ * are streamed to the workers round-robin as they are added, so every worker
+ * holds the same share whatever the order of the input (sorted or
+ * time-ordered input included). In extraction mode the workers sort their
+ * shares concurrently, each on a single thread, and {@code removeFirst}
+ * merges the sorted streams with a {@code LoserTreeMerge}, in about log2(k)
+ * comparisons per entry for k workers. Running about one worker per core
+ * keeps every core busy without oversubscribing any.
+ *
+ * <p>
+ * The comparator and the codec are sent to the workers serialized, so both must
+ * be {@code Serializable} (as {@code Comparator.naturalOrder()},
+ * {@code Comparator.reverseOrder()}, {@code String.CASE_INSENSITIVE_ORDER}, and
+ * lambdas cast to {@code Comparator<T> & Serializable} are), and the workers
+ * must have their classes on their class path. Each worker and the coordinator
+ * call their own copy of the comparator from one thread at a time, so it need
+ * not be thread-safe, but copies do not share state: a comparator whose results
+ * depend on state changed while sorting gives results that differ from worker
+ * to worker. A comparator that cannot be serialized is rejected by the
+ * constructor. Workers accept only small object graphs of codecs, comparators,
+ * enums, boxed primitives, strings, and serializable lambdas (see
+ * {@code DistributedSortWorker}).
+ *
+ * <p>
+ * Iteration fetches the entries back from the workers. A worker that fails
+ * (dies, refuses the connection, or cannot decode or sort its share) makes
+ * the next operation that talks to it throw {@code UncheckedIOException},
+ * with the worker's own error message when it could send one; the machine
+ * should then be cleared.
+ *
+ * @param <T>
+ *            type of {@code SortingMachine} entries
+ * @convention <pre>
+ * $this.size >= 0  and
+ * if $this.insertionMode then
+ *   ($this.partitions = null  and  $this.merge = null)
+ * else
+ *   ($this.merge /= null  and  [$this.merge merges $this.partitions])  and
+ * if $this.sockets = null then
+ *   [no entry of $this remains to be read from a worker]
+ * </pre>
+ * @correspondence <pre>
+ * this = ($this.insertionMode, $this.machineOrder,
+ *         [multiset of the entries streamed to the workers and not yet
+ *          removed])
+ * </pre>
+ */
+public class DistributedSortingMachine<T> extends SortingMachineSecondary<T> {
+
+    /*
+     * Private members --------------------------------------------------------
+     */
+
+    /**
+     * Size of the stream buffers.
+     */
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /**
+     * Order.
+     */
+    private Comparator<T> machineOrder;
+
+    /**
+     * Codec for the wire.
+     */
+    private RecordCodec<T> codec;
+
+    /**
+     * Serialized {@code codec}, sent to each worker.
+     */
+    private byte[] codecBytes;
+
+    /**
+     * Serialized {@code machineOrder}, sent to each worker.
+     */
+    private byte[] orderBytes;
+
+    /**
+     * Worker addresses, one share each.
+     */
+    private List<InetSocketAddress> workers;
+
+    /**
+     * Insertion mode.
+     */
+    private boolean insertionMode;
+
+    /**
+     * Connections to the workers, or {@code null} before the first entry is
+     * added and after the last one is received.
+     */
+    private Socket[] sockets;
+
+    /**
+     * Streams to the workers.
+     */
+    private DataOutputStream[] outs;
+
+    /**
+     * Streams from the workers.
+     */
+    private DataInputStream[] ins;
+
+    /**
+     * Worker the next entry is sent to.
+     */
+    private int next;
+
+    /**
+     * Sorted share of each worker, in extraction mode.
+     */
+    private List<Partition> partitions;
+
+    /**
+     * Merge of {@code partitions}, in extraction mode.
+     */
+    private LoserTreeMerge<T> merge;
+
+    /**
+     * Total number of entries.
+     */
+    private int size;
+
+    /**
+     * Returns the serialized form of {@code x}.
+     *
+     * @param x
+     *            the object to serialize
+     * @param what
+     *            what {@code x} is, for the error message
+     * @return the serialized form
+     * @throws IllegalArgumentException
+     *             if {@code x} cannot be serialized, or its serialized form
+     *             is larger than the workers accept
+     */
+    private static byte[] serialize(Object x, String what) {
+        if (!(x instanceof Serializable)) {
+            throw new IllegalArgumentException(what + " " + x.getClass()
+                    + " is not Serializable, so it cannot be sent to workers");
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(x);
+        } catch (IOException e) {
+            throw new IllegalArgumentException(
+                    what + " " + x.getClass() + " cannot be serialized", e);
+        }
+        if (bytes.size() > DistributedSortWorker.MAX_OBJECT_BYTES) {
+            throw new IllegalArgumentException(what + " " + x.getClass()
+                    + " serializes to " + bytes.size() + " bytes, at most "
+                    + DistributedSortWorker.MAX_OBJECT_BYTES
+                    + " accepted by workers");
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Returns an {@code UncheckedIOException} reporting that worker {@code p}
+     * failed, after closing every connection.
+     *
+     * @param p
+     *            the worker
+     * @param e
+     *            the cause
+     * @return the exception to throw
+     * @updates $this.sockets
+     */
+    private UncheckedIOException failed(int p, IOException e) {
+        this.closeConnections();
+        return new UncheckedIOException(
+                new IOException("worker " + this.workers.get(p) + " failed: "
+                        + e.getMessage(), e));
+    }
+
+    /**
+     * Reads the entry count that worker {@code p} sends before its entries,
+     * or the error it sends instead.
+     *
+     * @param p
+     *            the worker
+     * @return the entry count
+     * @throws IOException
+     *             if the connection fails or the worker reports an error
+     */
+    private int readCount(int p) throws IOException {
+        int count = this.ins[p].readInt();
+        if (count == DistributedSortWorker.FAILED) {
+            throw new IOException(this.ins[p].readUTF());
+        } else if (count < 0) {
+            throw new IOException("invalid entry count " + count);
+        }
+        return count;
+    }
+
+    /**
+     * Connects to every worker and sends it the codec and the comparator.
+     *
+     * @updates $this.sockets, $this.outs, $this.ins
+     * @requires $this.sockets = null
+     * @ensures $this.sockets /= null
+     */
+    private void connect() {
+        int k = this.workers.size();
+        this.sockets = new Socket[k];
+        this.outs = new DataOutputStream[k];
+        this.ins = new DataInputStream[k];
+        int p = 0;
+        try {
+            while (p < k) {
+                Socket s = new Socket();
+                this.sockets[p] = s;
+                s.connect(this.workers.get(p));
+                this.outs[p] = new DataOutputStream(new BufferedOutputStream(
+                        s.getOutputStream(), BUFFER_SIZE));
+                this.ins[p] = new DataInputStream(new BufferedInputStream(
+                        s.getInputStream(), BUFFER_SIZE));
+                this.outs[p].writeInt(this.codecBytes.length);
+                this.outs[p].write(this.codecBytes);
+                this.outs[p].writeInt(this.orderBytes.length);
+                this.outs[p].write(this.orderBytes);
+                this.outs[p].flush();
+                p++;
+            }
+            /*
+             * Each worker acknowledges once it has decoded both.
+             */
+            for (p = 0; p < k; p++) {
+                this.readCount(p);
+            }
+        } catch (IOException e) {
+            throw this.failed(p, e);
+        }
+        this.next = 0;
+    }
+
+    /**
+     * Closes every open worker connection.
+     *
+     * @updates $this.sockets
+     */
+    private void closeConnections() {
+        if (this.sockets != null) {
+            for (Socket s : this.sockets) {
+                if (s != null) {
+                    try {
+                        s.close();
+                    } catch (IOException e) {
+                        // Nothing more to release.
+                    }
+                }
+            }
+            this.sockets = null;
+            this.outs = null;
+            this.ins = null;
+        }
+    }
+
+    /**
+     * Sorted share of one worker, read from its connection as the merge
+     * needs it, or from a local copy once fetched.
+     */
+    private final class Partition implements Iterator<T> {
+
+        /**
+         * The worker.
+         */
+        private final int worker;
+
+        /**
+         * Entries not yet read from the connection.
+         */
+        private int unread;
+
+        /**
+         * Entries read ahead from the connection by {@code fetch}, or
+         * {@code null}.
+         */
+        private List<T> fetched;
+
+        /**
+         * Index of the next entry of {@code fetched}.
+         */
+        private int fetchedIndex;
+
+        /**
+         * Constructor from worker and entry count.
+         *
+         * @param worker
+         *            the worker
+         * @param count
+         *            the number of entries the worker sends
+         */
+        private Partition(int worker, int count) {
+            this.worker = worker;
+            this.unread = count;
+            this.fetched = null;
+            this.fetchedIndex = 0;
+        }
+
+        /**
+         * Reads every entry not yet read from the connection.
+         */
+        private void fetch() {
+            if (this.fetched == null) {
+                this.fetched = new ArrayList<>(this.unread);
+            }
+            while (this.unread > 0) {
+                this.fetched.add(this.read());
+            }
+        }
+
+        /**
+         * Returns the entries not yet returned by {@code next}.
+         *
+         * @return the remaining entries
+         * @requires [fetch has been called]
+         */
+        private List<T> remaining() {
+            return this.fetched.subList(this.fetchedIndex,
+                    this.fetched.size());
+        }
+
+        /**
+         * Reads the next entry from the connection.
+         *
+         * @return the entry
+         */
+        private T read() {
+            DistributedSortingMachine<T> machine = DistributedSortingMachine.this;
+            T x;
+            try {
+                x = machine.codec.read(machine.ins[this.worker]);
+            } catch (IOException e) {
+                throw machine.failed(this.worker, e);
+            } catch (RuntimeException e) {
+                throw machine.failed(this.worker, new IOException(
+                        "cannot decode entry: " + e, e));
+            }
+            this.unread--;
+            return x;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return this.unread > 0 || (this.fetched != null
+                    && this.fetchedIndex < this.fetched.size());
+        }
+
+        @Override
+        public T next() {
+            T x;
+            if (this.fetched != null
+                    && this.fetchedIndex < this.fetched.size()) {
+                x = this.fetched.get(this.fetchedIndex);
+                this.fetchedIndex++;
+            } else {
+                x = this.read();
+            }
+            return x;
+        }
+
+    }
+
+    /**
+     * Checks that the part of the convention repeated below holds for the
+     * current representation.
+     *
+     * @return true if the convention holds (or if assertion checking is off);
+     *         otherwise reports a violated assertion
+     * @convention <pre>
+     * $this.size >= 0  and
+     * if $this.insertionMode then
+     *   ($this.partitions = null  and  $this.merge = null)
+     * </pre>
+     */
+    private boolean conventionHolds() {
+        assert this.size >= 0 : "Violation of: $this.size >= 0";
+        assert !this.insertionMode
+                || (this.partitions == null && this.merge == null) : ""
+                        + "Violation of: if $this.insertionMode then"
+                        + " ($this.partitions = null  and"
+                        + "  $this.merge = null)";
+        return true;
+    }
+
+    /**
+     * Creator of initial representation.
+     *
+     * @param order
+     *            total preorder for sorting
+     * @param recordCodec
+     *            codec for the wire
+     * @param workerAddresses
+     *            worker addresses
+     * @ensures <pre>
+     * $this.insertionMode = true  and  $this.size = 0  and
+     * $this.sockets = null  and  $this.merge = null
+     * </pre>
+     */
+    private void createNewRep(Comparator<T> order, RecordCodec<T> recordCodec,
+            List<InetSocketAddress> workerAddresses) {
+        this.machineOrder = order;
+        this.codec = recordCodec;
+        this.workers = workerAddresses;
+        this.insertionMode = true;
+        this.sockets = null;
+        this.outs = null;
+        this.ins = null;
+        this.next = 0;
+        this.partitions = null;
+        this.merge = null;
+        this.size = 0;
+    }
+
+    /*
+     * Constructors -----------------------------------------------------------
+     */
+
+    /**
+     * Constructor from order, codec, and worker addresses.
+     *
+     * @param order
+     *            total preorder for sorting
+     * @param codec
+     *            codec for the wire
+     * @param workers
+     *            addresses of the {@code DistributedSortWorker}s, one share
+     *            each
+     * @throws IllegalArgumentException
+     *             if {@code order} or {@code codec} cannot be serialized
+     * @requires |workers| > 0
+     */
+    public DistributedSortingMachine(Comparator<T> order, RecordCodec<T> codec,
+            List<InetSocketAddress> workers) {
+        assert order != null : "Violation of: order is not null";
+        assert codec != null : "Violation of: codec is not null";
+        assert workers != null : "Violation of: workers is not null";
+        assert workers.size() > 0 : "Violation of: |workers| > 0";
+
+        this.orderBytes = serialize(order, "comparator");
+        this.codecBytes = serialize(codec, "codec");
+        this.createNewRep(order, codec, List.copyOf(workers));
+        assert this.conventionHolds();
+    }
+
+    /*
+     * Standard methods -------------------------------------------------------
+     */
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public final SortingMachine<T> newInstance() {
+        try {
+            return this.getClass()
+                    .getConstructor(Comparator.class, RecordCodec.class,
+                            List.class)
+                    .newInstance(this.machineOrder, this.codec, this.workers);
+        } catch (ReflectiveOperationException e) {
+            throw new AssertionError(
+                    "Cannot construct object of type " + this.getClass());
+        }
+    }
+
+    @Override
+    public final void clear() {
+        this.closeConnections();
+        this.createNewRep(this.machineOrder, this.codec, this.workers);
+        assert this.conventionHolds();
+    }
+
+    @Override
+    public final void transferFrom(SortingMachine<T> source) {
+        assert source != null : "Violation of: source is not null";
+        assert source != this : "Violation of: source is not this";
+        assert source instanceof DistributedSortingMachine<?> : ""
+                + "Violation of: source is of dynamic type DistributedSortingMachine<?>";
+        /*
+         * This cast cannot fail since the assert above would have stopped
+         * execution in that case.
+         */
+        DistributedSortingMachine<T> localSource = (DistributedSortingMachine<T>) source;
+        this.closeConnections();
+        this.machineOrder = localSource.machineOrder;
+        this.codec = localSource.codec;
+        this.codecBytes = localSource.codecBytes;
+        this.orderBytes = localSource.orderBytes;
+        this.workers = localSource.workers;
+        this.insertionMode = localSource.insertionMode;
+        this.sockets = localSource.sockets;
+        this.outs = localSource.outs;
+        this.ins = localSource.ins;
+        this.next = localSource.next;
+        this.size = localSource.size;
+        /*
+         * The partitions read through the enclosing machine's connections, so
+         * they are rebuilt around this one; the entries the merge had already
+         * taken from them become one more partition, sorted.
+         */
+        this.partitions = null;
+        this.merge = null;
+        if (localSource.merge != null) {
+            Partition pending = new Partition(-1, 0);
+            pending.fetched = localSource.merge.pendingHeads();
+            pending.fetched.sort(this.machineOrder);
+            this.partitions = new ArrayList<>();
+            this.partitions.add(pending);
+            for (DistributedSortingMachine<T>.Partition old : localSource.partitions) {
+                Partition moved = new Partition(old.worker, old.unread);
+                if (old.fetched != null) {
+                    moved.fetched = old.remaining();
+                }
+                this.partitions.add(moved);
+            }
+            this.merge = new LoserTreeMerge<>(this.partitions,
+                    this.machineOrder);
+        }
+        localSource.sockets = null;
+        localSource.createNewRep(localSource.machineOrder, localSource.codec,
+                localSource.workers);
+        assert this.conventionHolds();
+        assert localSource.conventionHolds();
+    }
+
+    /*
+     * Kernel methods ---------------------------------------------------------
+     */
+
+    @Override
+    public final void add(T x) {
+        assert x != null : "Violation of: x is not null";
+        assert this.isInInsertionMode() : "Violation of: this.insertion_mode";
+
+        if (this.sockets == null) {
+            this.connect();
+        }
+        int p = this.next;
+        try {
+            this.outs[p].writeByte(DistributedSortWorker.ENTRY);
+            this.codec.write(x, this.outs[p]);
+        } catch (IOException e) {
+            throw this.failed(p, e);
+        }
+        this.next = (p + 1) % this.outs.length;
+        this.size++;
+
+        assert this.conventionHolds();
+    }
+
+    @Override
+    public final void changeToExtractionMode() {
+        assert this.isInInsertionMode() : "Violation of: this.insertion_mode";
+
+        this.insertionMode = false;
+        if (this.size > 0) {
+            int k = this.outs.length;
+            int p = 0;
+            try {
+                /*
+                 * Ask every worker to sort before reading from any, so that
+                 * the workers sort concurrently.
+                 */
+                for (p = 0; p < k; p++) {
+                    this.outs[p].writeByte(DistributedSortWorker.SORT);
+                    this.outs[p].flush();
+                }
+                this.partitions = new ArrayList<>(k);
+                int total = 0;
+                for (p = 0; p < k; p++) {
+                    int count = this.readCount(p);
+                    total += count;
+                    this.partitions.add(new Partition(p, count));
+                }
+                if (total != this.size) {
+                    p = 0;
+                    throw new IOException("workers returned " + total
+                            + " entries, expected " + this.size);
+                }
+            } catch (IOException e) {
+                throw this.failed(p, e);
+            }
+            this.merge = new LoserTreeMerge<>(this.partitions,
+                    this.machineOrder);
+        } else {
+            this.closeConnections();
+            this.partitions = new ArrayList<>();
+            this.merge = new LoserTreeMerge<>(this.partitions,
+                    this.machineOrder);
+        }
+
+        assert this.conventionHolds();
+    }
+
+    @Override
+    public final T removeFirst() {
+        assert !this
+                .isInInsertionMode() : "Violation of: not this.insertion_mode";
+        assert this.size() > 0 : "Violation of: this.contents /= {}";
+
+        T first = this.merge.next();
+        this.size--;
+        if (this.size == 0) {
+            this.closeConnections();
+        }
+
+        assert this.conventionHolds();
+
+        return first;
+    }
+
+    @Override
+    public final boolean isInInsertionMode() {
+        assert this.conventionHolds();
+        return this.insertionMode;
+    }
+
+    @Override
+    public final Comparator<T> order() {
+        assert this.conventionHolds();
+        return this.machineOrder;
+    }
+
+    @Override
+    public final int size() {
+        assert this.conventionHolds();
+        return this.size;
+    }
+
+    /**
+     * Returns an iterator over the entries of {@code this}. The entries are
+     * fetched from the workers: in insertion mode the workers send a copy of
+     * what they hold, and in extraction mode the rest of every sorted share
+     * is read ahead and kept locally for the following {@code removeFirst}s.
+     *
+     * @return the iterator
+     */
+    @Override
+    public final Iterator<T> iterator() {
+        List<T> contents = new ArrayList<>(this.size);
+        if (this.insertionMode) {
+            if (this.sockets != null) {
+                int k = this.outs.length;
+                int p = 0;
+                try {
+                    for (p = 0; p < k; p++) {
+                        this.outs[p].writeByte(DistributedSortWorker.LIST);
+                        this.outs[p].flush();
+                    }
+                    for (p = 0; p < k; p++) {
+                        int count = this.readCount(p);
+                        for (int i = 0; i < count; i++) {
+                            contents.add(this.codec.read(this.ins[p]));
+                        }
+                    }
+                } catch (IOException e) {
+                    throw this.failed(p, e);
+                } catch (RuntimeException e) {
+                    throw this.failed(p,
+                            new IOException("cannot decode entry: " + e, e));
+                }
+            }
+        } else {
+            contents.addAll(this.merge.pendingHeads());
+            for (Partition partition : this.partitions) {
+                partition.fetch();
+                contents.addAll(partition.remaining());
+            }
+            this.closeConnections();
+        }
+        return new DistributedSortingMachineIterator(contents.iterator());
+    }
+
+    /**
+     * Implementation of {@code Iterator} interface for
+     * {@code DistributedSortingMachine}, over the entries fetched from the
+     * workers.
+     */
+    private final class DistributedSortingMachineIterator
+            implements Iterator<T> {
+
+        /**
+         * Iterator over the fetched entries.
+         */
+        private final Iterator<T> fetched;
+
+        /**
+         * Constructor from the iterator over the fetched entries.
+         *
+         * @param fetched
+         *            iterator over the fetched entries
+         */
+        private DistributedSortingMachineIterator(Iterator<T> fetched) {
+            this.fetched = fetched;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return this.fetched.hasNext();
+        }
+
+        @Override
+        public T next() {
+            return this.fetched.next();
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException(
+                    "remove operation not supported");
+        }
+
+    }
+}
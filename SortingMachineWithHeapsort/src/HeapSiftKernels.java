@@ -0,0 +1,117 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.invoke.MethodHandles;
+import java.util.Comparator;
+
+/**
+ * Factory of {@code HeapSiftKernel}s specialized per order. The JIT profiles
+ * the {@code compare} call in a sift loop per copy of the loop's bytecode, so
+ * when many machines with different comparators share one loop that call site
+ * goes megamorphic and is no longer inlined. Here each comparator class gets
+ * its own copy of {@code ComparatorSiftKernel}, defined as a hidden class from
+ * the template's bytes, so each copy's call site only ever sees one receiver
+ * class. Machines using {@code Comparator.naturalOrder()} instead get a copy of
+ * {@code NaturalOrderSiftKernel} per entry class, which calls
+ * {@code compareTo} directly. If a copy cannot be defined (e.g., the class
+ * file is not available as a resource), the shared template instance is used
+ * instead, which is correct but not specialized.
+ */
+public final class HeapSiftKernels {
+
+    /**
+     * Shared, unspecialized comparator kernel.
+     */
+    private static final HeapSiftKernel SHARED_COMPARATOR_KERNEL = new ComparatorSiftKernel();
+
+    /**
+     * Shared, unspecialized natural-order kernel.
+     */
+    private static final HeapSiftKernel SHARED_NATURAL_ORDER_KERNEL = new NaturalOrderSiftKernel();
+
+    /**
+     * Comparator kernel copies, by comparator class.
+     */
+    private static final ClassValue<HeapSiftKernel> BY_COMPARATOR_CLASS = new ClassValue<HeapSiftKernel>() {
+        @Override
+        protected HeapSiftKernel computeValue(Class<?> type) {
+            return copyOf(ComparatorSiftKernel.class, SHARED_COMPARATOR_KERNEL);
+        }
+    };
+
+    /**
+     * Natural-order kernel copies, by entry class.
+     */
+    private static final ClassValue<HeapSiftKernel> BY_ENTRY_CLASS = new ClassValue<HeapSiftKernel>() {
+        @Override
+        protected HeapSiftKernel computeValue(Class<?> type) {
+            return copyOf(NaturalOrderSiftKernel.class,
+                    SHARED_NATURAL_ORDER_KERNEL);
+        }
+    };
+
+    /**
+     * Private constructor so this utility class cannot be instantiated.
+     */
+    private HeapSiftKernels() {
+    }
+
+    /**
+     * Returns a new instance of a fresh hidden class with the bytecode of
+     * {@code template}, or {@code fallback} if one cannot be defined.
+     *
+     * @param template
+     *            the kernel class to copy
+     * @param fallback
+     *            the kernel to return on failure
+     * @return the new kernel, or {@code fallback}
+     */
+    private static HeapSiftKernel copyOf(
+            Class<? extends HeapSiftKernel> template,
+            HeapSiftKernel fallback) {
+        HeapSiftKernel kernel = fallback;
+        try (InputStream in = template
+                .getResourceAsStream(template.getSimpleName() + ".class")) {
+            if (in != null) {
+                byte[] bytes = in.readAllBytes();
+                Class<?> copy = MethodHandles.lookup()
+                        .defineHiddenClass(bytes, true).lookupClass();
+                kernel = (HeapSiftKernel) copy.getDeclaredConstructor()
+                        .newInstance();
+            }
+        } catch (IOException | ReflectiveOperationException
+                | RuntimeException | LinkageError e) {
+            kernel = fallback;
+        }
+        return kernel;
+    }
+
+    /**
+     * Returns the kernel for {@code order}. For
+     * {@code Comparator.naturalOrder()}, {@code entryClass} (the class of the
+     * entries, if known, or {@code null}) selects the copy.
+     *
+     * @param order
+     *            the order of the heap
+     * @param entryClass
+     *            the class of the heap's entries, or {@code null}
+     * @return a kernel for {@code order}
+     * @ensures [forOrder sifts according to order]
+     */
+    public static HeapSiftKernel forOrder(Comparator<?> order,
+            Class<?> entryClass) {
+        assert order != null : "Violation of: order is not null";
+
+        HeapSiftKernel kernel;
+        if (order == Comparator.naturalOrder()) {
+            if (entryClass == null) {
+                kernel = SHARED_NATURAL_ORDER_KERNEL;
+            } else {
+                kernel = BY_ENTRY_CLASS.get(entryClass);
+            }
+        } else {
+            kernel = BY_COMPARATOR_CLASS.get(order.getClass());
+        }
+        return kernel;
+    }
+
+}
@@ -0,0 +1,49 @@
+import java.util.Comparator;
+import java.util.function.IntFunction;
+
+/**
+ * Total preorder on the indices of an external data source (e.g., the rows of
+ * a set of columns), used by {@code IndexSortingMachine} to order indices
+ * without materializing the records they refer to.
+ */
+@FunctionalInterface
+public interface IndexOrder {
+
+    /**
+     * Compares the records at indices {@code i} and {@code j}.
+     *
+     * @param i
+     *            an index
+     * @param j
+     *            another index
+     * @return a negative integer, zero, or a positive integer as the record at
+     *         {@code i} is less than, equivalent to, or greater than the record
+     *         at {@code j}
+     */
+    int compare(int i, int j);
+
+    /**
+     * Returns the {@code IndexOrder} comparing the records of {@code records}
+     * with {@code order}.
+     *
+     * @param <R>
+     *            type of records
+     * @param records
+     *            the record at each index
+     * @param order
+     *            total preorder on records
+     * @return the induced order on indices
+     * @ensures <pre>
+     * [over(records, order).compare(i, j) =
+     *  order.compare(records.apply(i), records.apply(j))]
+     * </pre>
+     */
+    static <R> IndexOrder over(IntFunction<? extends R> records,
+            Comparator<? super R> order) {
+        assert records != null : "Violation of: records is not null";
+        assert order != null : "Violation of: order is not null";
+
+        return (i, j) -> order.compare(records.apply(i), records.apply(j));
+    }
+
+}
@@ -0,0 +1,339 @@
+import java.util.Arrays;
+import java.util.function.IntFunction;
+
+/**
+ * Sorting machine over {@code int} indices into an external data source,
+ * ordered by an {@code IndexOrder}. It has the same insertion/extraction
+ * lifecycle as a {@code SortingMachine}, but its heap is an {@code int[]}
+ * permutation: sifts move 4-byte indices instead of references, the records
+ * themselves never move, and several machines with different orders can sort
+ * the same dataset side by side. {@code removeFirst} returns the next index,
+ * and {@code removeFirstRecord} the record at that index.
+ *
+ * @mathmodel <pre>
+ * type IndexSortingMachine is modeled by (
+ *   insertion_mode: boolean,
+ *   ordering: binary relation on integer,
+ *   contents: finite multiset of integer
+ *  )
+ *  exemplar m
+ *  constraint
+ *   [m.ordering is a total preorder]
+ * </pre>
+ * @convention <pre>
+ * 0 <= $this.heapSize <= |$this.heap|  and
+ * if not $this.insertionMode then
+ *   SUBTREE_IS_HEAP($this.heap, 0, $this.heapSize - 1,
+ *     [relation computed by $this.machineOrder.compare method])
+ * </pre>
+ * @correspondence <pre>
+ * this = ($this.insertionMode, [relation computed by
+ *         $this.machineOrder.compare method],
+ *         multiset_entries($this.heap[0, $this.heapSize)))
+ * </pre>
+ */
+public class IndexSortingMachine {
+
+    /*
+     * Private members --------------------------------------------------------
+     */
+
+    /**
+     * Initial capacity of the heap.
+     */
+    private static final int DEFAULT_CAPACITY = 8;
+
+    /**
+     * Order.
+     */
+    private final IndexOrder machineOrder;
+
+    /**
+     * Insertion mode.
+     */
+    private boolean insertionMode;
+
+    /**
+     * Array of indices; a heap in extraction mode.
+     */
+    private int[] heap;
+
+    /**
+     * Number of indices in the machine.
+     */
+    private int heapSize;
+
+    /**
+     * Makes room for at least {@code n} more indices.
+     *
+     * @param n
+     *            number of indices about to be added
+     * @ensures |$this.heap| >= $this.heapSize + n
+     */
+    private void ensureCapacity(int n) {
+        int needed = this.heapSize + n;
+        if (needed > this.heap.length) {
+            int length = Math.max(needed, 2 * this.heap.length);
+            this.heap = Arrays.copyOf(this.heap, length);
+        }
+    }
+
+    /**
+     * Given an array that represents a complete binary tree and an index
+     * referring to the root of a subtree that would be a heap except for its
+     * root, sifts the root down to turn that whole subtree into a heap.
+     *
+     * @param array
+     *            the complete binary tree
+     * @param top
+     *            the index of the root of the "subtree"
+     * @param last
+     *            the index of the last entry in the heap
+     * @param order
+     *            total preorder for sorting
+     * @updates array
+     * @requires <pre>
+     * 0 <= top  and  last < |array|  and
+     * SUBTREE_IS_HEAP(array, 2 * top + 1, last,
+     *     [relation computed by order.compare method])  and
+     * SUBTREE_IS_HEAP(array, 2 * top + 2, last,
+     *     [relation computed by order.compare method])
+     * </pre>
+     * @ensures <pre>
+     * SUBTREE_IS_HEAP(array, top, last,
+     *     [relation computed by order.compare method])  and
+     * perms(array, #array)
+     * </pre>
+     */
+    private static void siftDown(int[] array, int top, int last,
+            IndexOrder order) {
+        int x = array[top];
+        int hole = top;
+        int child = 2 * hole + 1;
+        while (child <= last) {
+            if (child < last
+                    && order.compare(array[child + 1], array[child]) <= 0) {
+                child++;
+            }
+            if (order.compare(array[child], x) >= 0) {
+                break;
+            }
+            array[hole] = array[child];
+            hole = child;
+            child = 2 * hole + 1;
+        }
+        array[hole] = x;
+    }
+
+    /**
+     * Checks that the part of the convention repeated below holds for the
+     * current representation.
+     *
+     * @return true if the convention holds (or if assertion checking is off);
+     *         otherwise reports a violated assertion
+     * @convention <pre>
+     * 0 <= $this.heapSize <= |$this.heap|  and
+     * if not $this.insertionMode then
+     *   SUBTREE_IS_HEAP($this.heap, 0, $this.heapSize - 1,
+     *     [relation computed by $this.machineOrder.compare method])
+     * </pre>
+     */
+    private boolean conventionHolds() {
+        boolean holds = 0 <= this.heapSize
+                && this.heapSize <= this.heap.length;
+        if (holds && !this.insertionMode) {
+            for (int i = 1; holds && i < this.heapSize; i++) {
+                holds = this.machineOrder.compare(this.heap[(i - 1) / 2],
+                        this.heap[i]) <= 0;
+            }
+        }
+        return holds;
+    }
+
+    /*
+     * Constructors -----------------------------------------------------------
+     */
+
+    /**
+     * Constructor from order.
+     *
+     * @param order
+     *            total preorder on indices
+     */
+    public IndexSortingMachine(IndexOrder order) {
+        assert order != null : "Violation of: order is not null";
+
+        this.machineOrder = order;
+        this.insertionMode = true;
+        this.heap = new int[DEFAULT_CAPACITY];
+        this.heapSize = 0;
+        assert this.conventionHolds();
+    }
+
+    /*
+     * Standard methods -------------------------------------------------------
+     */
+
+    /**
+     * Resets {@code this} to an empty machine in insertion mode with the same
+     * order.
+     *
+     * @clears this
+     */
+    public final void clear() {
+        this.insertionMode = true;
+        this.heapSize = 0;
+        assert this.conventionHolds();
+    }
+
+    /*
+     * Kernel methods ---------------------------------------------------------
+     */
+
+    /**
+     * Adds {@code i} to the contents of {@code this}.
+     *
+     * @param i
+     *            the index to be added
+     * @updates this.contents
+     * @requires this.insertion_mode
+     * @ensures this.contents = #this.contents union {i}
+     */
+    public final void add(int i) {
+        assert this.isInInsertionMode() : "Violation of: this.insertion_mode";
+
+        this.ensureCapacity(1);
+        this.heap[this.heapSize] = i;
+        this.heapSize++;
+        assert this.conventionHolds();
+    }
+
+    /**
+     * Adds every index in {@code [start, stop)} to the contents of
+     * {@code this}, e.g., every row of a dataset.
+     *
+     * @param start
+     *            the first index to be added
+     * @param stop
+     *            one past the last index to be added
+     * @updates this.contents
+     * @requires this.insertion_mode  and  start <= stop
+     * @ensures <pre>
+     * this.contents = #this.contents union {i: integer
+     *     where (start <= i  and  i < stop) (i)}
+     * </pre>
+     */
+    public final void addRange(int start, int stop) {
+        assert this.isInInsertionMode() : "Violation of: this.insertion_mode";
+        assert start <= stop : "Violation of: start <= stop";
+
+        this.ensureCapacity(stop - start);
+        for (int i = start; i < stop; i++) {
+            this.heap[this.heapSize] = i;
+            this.heapSize++;
+        }
+        assert this.conventionHolds();
+    }
+
+    /**
+     * Changes the mode of {@code this} from insertion to extraction.
+     *
+     * @updates this.insertion_mode
+     * @requires this.insertion_mode
+     * @ensures not this.insertion_mode
+     */
+    public final void changeToExtractionMode() {
+        assert this.isInInsertionMode() : "Violation of: this.insertion_mode";
+
+        this.insertionMode = false;
+        int last = this.heapSize - 1;
+        for (int i = (last - 1) / 2; i >= 0; i--) {
+            siftDown(this.heap, i, last, this.machineOrder);
+        }
+        assert this.conventionHolds();
+    }
+
+    /**
+     * Removes and returns some "first" ("smallest") index from the contents
+     * of {@code this}.
+     *
+     * @return the index removed
+     * @updates this.contents
+     * @requires not this.insertion_mode  and  this.contents /= {}
+     * @ensures <pre>
+     * removeFirst is in #this.contents  and
+     * for all i: integer where (i is in #this.contents)
+     *   ([relation computed by this.ordering] (removeFirst, i))  and
+     * this.contents = #this.contents \ {removeFirst}
+     * </pre>
+     */
+    public final int removeFirst() {
+        assert !this
+                .isInInsertionMode() : "Violation of: not this.insertion_mode";
+        assert this.size() > 0 : "Violation of: this.contents /= {}";
+
+        int first = this.heap[0];
+        this.heapSize--;
+        if (this.heapSize > 0) {
+            this.heap[0] = this.heap[this.heapSize];
+            siftDown(this.heap, 0, this.heapSize - 1, this.machineOrder);
+        }
+        assert this.conventionHolds();
+        return first;
+    }
+
+    /**
+     * Removes some "first" ("smallest") index from the contents of
+     * {@code this} and returns the record at that index.
+     *
+     * @param <R>
+     *            type of records
+     * @param records
+     *            the record at each index
+     * @return the record at the index removed
+     * @updates this.contents
+     * @requires not this.insertion_mode  and  this.contents /= {}
+     * @ensures <pre>
+     * [removeFirstRecord = records.apply(i), where i is the index that
+     *  removeFirst would have removed]  and
+     * this.contents = #this.contents \ {i}
+     * </pre>
+     */
+    public final <R> R removeFirstRecord(IntFunction<? extends R> records) {
+        assert records != null : "Violation of: records is not null";
+
+        return records.apply(this.removeFirst());
+    }
+
+    /**
+     * Reports whether {@code this} is in insertion mode.
+     *
+     * @return true iff {@code this} is in insertion mode
+     * @ensures isInInsertionMode = this.insertion_mode
+     */
+    public final boolean isInInsertionMode() {
+        return this.insertionMode;
+    }
+
+    /**
+     * Reports the {@code IndexOrder} used by {@code this}.
+     *
+     * @return the order used by {@code this}
+     * @ensures [order is the relation computed by order.compare] =
+     *          this.ordering
+     */
+    public final IndexOrder order() {
+        return this.machineOrder;
+    }
+
+    /**
+     * Reports the number of indices in {@code this}.
+     *
+     * @return the (multiset) size of {@code this.contents}
+     * @ensures size = |this.contents|
+     */
+    public final int size() {
+        return this.heapSize;
+    }
+
+}
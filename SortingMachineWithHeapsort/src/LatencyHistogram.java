@@ -0,0 +1,352 @@
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Histogram of non-negative {@code long} values (e.g., latencies in
+ * nanoseconds) with log-linear buckets: values below {@code 2 * SUB_BUCKETS}
+ * are counted exactly, and every larger power-of-two range is split into
+ * {@code SUB_BUCKETS} equal buckets, so every recorded value is reported with a
+ * relative error below {@code 1 / SUB_BUCKETS} while the histogram stays a
+ * fixed-size array of counts no matter how long it records. A histogram is
+ * not thread-safe; give each thread its own and combine them with
+ * {@code add}.
+ */
+public class LatencyHistogram {
+
+    /*
+     * Private members --------------------------------------------------------
+     */
+
+    /**
+     * log2 of {@code SUB_BUCKETS}.
+     */
+    private static final int SUB_BUCKET_BITS = 7;
+
+    /**
+     * Number of buckets each power-of-two range is split into.
+     */
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    /**
+     * Number of buckets: the exact range, then one group per power of two up
+     * to {@code Long.MAX_VALUE}.
+     */
+    private static final int BUCKETS = 2 * SUB_BUCKETS
+            + (Long.SIZE - 1 - (SUB_BUCKET_BITS + 1)) * SUB_BUCKETS;
+
+    /**
+     * Number of percentile rows per halving of the remaining distance to 100
+     * in {@code outputPercentileDistribution}.
+     */
+    private static final int TICKS_PER_HALF = 5;
+
+    /**
+     * Counts per bucket.
+     */
+    private final long[] counts;
+
+    /**
+     * Number of recorded values.
+     */
+    private long totalCount;
+
+    /**
+     * Smallest recorded value.
+     */
+    private long min;
+
+    /**
+     * Largest recorded value.
+     */
+    private long max;
+
+    /**
+     * Sum of the recorded values.
+     */
+    private double sum;
+
+    /**
+     * Sum of the squares of the recorded values.
+     */
+    private double sumOfSquares;
+
+    /**
+     * Returns the index of the bucket counting {@code value}.
+     *
+     * @param value
+     *            the value
+     * @return the bucket index
+     * @requires value >= 0
+     * @ensures 0 <= bucketIndex < BUCKETS
+     */
+    private static int bucketIndex(long value) {
+        int index;
+        if (value < 2 * SUB_BUCKETS) {
+            index = (int) value;
+        } else {
+            int msb = Long.SIZE - 1 - Long.numberOfLeadingZeros(value);
+            int shift = msb - SUB_BUCKET_BITS;
+            int sub = (int) (value >>> shift) - SUB_BUCKETS;
+            index = 2 * SUB_BUCKETS + (shift - 1) * SUB_BUCKETS + sub;
+        }
+        return index;
+    }
+
+    /**
+     * Returns the largest value counted by bucket {@code index}.
+     *
+     * @param index
+     *            the bucket index
+     * @return the largest value of the bucket
+     * @requires 0 <= index < BUCKETS
+     * @ensures bucketIndex(highestEquivalentValue) = index
+     */
+    private static long highestEquivalentValue(int index) {
+        long value;
+        if (index < 2 * SUB_BUCKETS) {
+            value = index;
+        } else {
+            int shift = (index - 2 * SUB_BUCKETS) / SUB_BUCKETS + 1;
+            long sub = (index - 2 * SUB_BUCKETS) % SUB_BUCKETS;
+            long low = (SUB_BUCKETS + sub) << shift;
+            value = low + ((1L << shift) - 1);
+        }
+        return value;
+    }
+
+    /**
+     * Returns the 1-based rank of the value at {@code percentile} among
+     * {@code count} values. The product is taken before dividing by 100, so
+     * that the rank is exact whenever percentile/100 * count is an integer;
+     * dividing first can land just above it and round up to the next rank.
+     *
+     * @param percentile
+     *            the percentile
+     * @param count
+     *            the number of values
+     * @return the rank
+     * @requires 0 <= percentile <= 100  and  count > 0
+     * @ensures rank = max(1, ceil(percentile * count / 100))
+     */
+    private static long rank(double percentile, long count) {
+        return Math.max(1, (long) Math.ceil(percentile * count / 100));
+    }
+
+    /*
+     * Constructors -----------------------------------------------------------
+     */
+
+    /**
+     * No-argument constructor.
+     */
+    public LatencyHistogram() {
+        this.counts = new long[BUCKETS];
+        this.reset();
+    }
+
+    /*
+     * Public methods ---------------------------------------------------------
+     */
+
+    /**
+     * Records {@code value}.
+     *
+     * @param value
+     *            the value to record
+     * @requires value >= 0
+     */
+    public final void record(long value) {
+        assert value >= 0 : "Violation of: value >= 0";
+
+        this.counts[bucketIndex(value)]++;
+        this.totalCount++;
+        this.min = Math.min(this.min, value);
+        this.max = Math.max(this.max, value);
+        double v = value;
+        this.sum += v;
+        this.sumOfSquares += v * v;
+    }
+
+    /**
+     * Adds every value recorded by {@code other} to {@code this}.
+     *
+     * @param other
+     *            the histogram to add
+     */
+    public final void add(LatencyHistogram other) {
+        assert other != null : "Violation of: other is not null";
+
+        for (int i = 0; i < BUCKETS; i++) {
+            this.counts[i] += other.counts[i];
+        }
+        this.totalCount += other.totalCount;
+        this.min = Math.min(this.min, other.min);
+        this.max = Math.max(this.max, other.max);
+        this.sum += other.sum;
+        this.sumOfSquares += other.sumOfSquares;
+    }
+
+    /**
+     * Forgets every recorded value.
+     */
+    public final void reset() {
+        Arrays.fill(this.counts, 0);
+        this.totalCount = 0;
+        this.min = Long.MAX_VALUE;
+        this.max = 0;
+        this.sum = 0;
+        this.sumOfSquares = 0;
+    }
+
+    /**
+     * Reports the number of recorded values.
+     *
+     * @return the number of recorded values
+     */
+    public final long totalCount() {
+        return this.totalCount;
+    }
+
+    /**
+     * Reports the smallest recorded value, or 0 if none.
+     *
+     * @return the smallest recorded value
+     */
+    public final long min() {
+        long min = 0;
+        if (this.totalCount > 0) {
+            min = this.min;
+        }
+        return min;
+    }
+
+    /**
+     * Reports the largest recorded value, or 0 if none.
+     *
+     * @return the largest recorded value
+     */
+    public final long max() {
+        return this.max;
+    }
+
+    /**
+     * Reports the mean of the recorded values, or 0 if none.
+     *
+     * @return the mean
+     */
+    public final double mean() {
+        double mean = 0;
+        if (this.totalCount > 0) {
+            mean = this.sum / this.totalCount;
+        }
+        return mean;
+    }
+
+    /**
+     * Reports the standard deviation of the recorded values, or 0 if none.
+     *
+     * @return the standard deviation
+     */
+    public final double standardDeviation() {
+        double sd = 0;
+        if (this.totalCount > 0) {
+            double mean = this.mean();
+            double variance = this.sumOfSquares / this.totalCount
+                    - mean * mean;
+            sd = Math.sqrt(Math.max(variance, 0));
+        }
+        return sd;
+    }
+
+    /**
+     * Reports the value at {@code percentile}: the smallest recorded value (up
+     * to bucket resolution) such that {@code percentile} percent of the
+     * recorded values are at most it. Returns 0 if nothing is recorded.
+     *
+     * @param percentile
+     *            the percentile
+     * @return the value at {@code percentile}
+     * @requires 0 <= percentile <= 100
+     */
+    public final long valueAtPercentile(double percentile) {
+        assert 0 <= percentile
+                && percentile <= 100 : "Violation of: 0 <= percentile <= 100";
+
+        long value = 0;
+        if (this.totalCount > 0) {
+            long rank = rank(percentile, this.totalCount);
+            long seen = 0;
+            int i = 0;
+            while (seen + this.counts[i] < rank) {
+                seen += this.counts[i];
+                i++;
+            }
+            value = Math.min(highestEquivalentValue(i), this.max);
+        }
+        return value;
+    }
+
+    /**
+     * Prints the percentile distribution of {@code this} to {@code out} in the
+     * text format of HdrHistogram's {@code .hgrm} files, dividing every value
+     * by {@code unitRatio} (e.g., 1000 to print nanoseconds as microseconds).
+     *
+     * @param out
+     *            the stream to print to
+     * @param unitRatio
+     *            the divisor applied to every value
+     * @requires unitRatio > 0
+     */
+    public final void outputPercentileDistribution(PrintStream out,
+            double unitRatio) {
+        assert out != null : "Violation of: out is not null";
+        assert unitRatio > 0 : "Violation of: unitRatio > 0";
+
+        out.println(String.format(Locale.ROOT, "%12s %14s %10s %14s%n",
+                "Value", "Percentile", "TotalCount", "1/(1-Percentile)"));
+        if (this.totalCount > 0) {
+            long seen = 0;
+            int i = 0;
+            int tick = 0;
+            double percentile = 0;
+            while (percentile < 100) {
+                long rank = rank(percentile, this.totalCount);
+                while (seen + this.counts[i] < rank) {
+                    seen += this.counts[i];
+                    i++;
+                }
+                long value = Math.min(highestEquivalentValue(i), this.max);
+                out.println(String.format(Locale.ROOT,
+                        "%12.3f %2.12f %10d %14.2f", value / unitRatio,
+                        percentile / 100, seen + this.counts[i],
+                        1 / (1 - percentile / 100)));
+                /*
+                 * TICKS_PER_HALF rows for each halving of the distance to 100.
+                 */
+                tick++;
+                int half = tick / TICKS_PER_HALF;
+                double base = 100 - 100 / Math.pow(2, half);
+                double next = 100 - 100 / Math.pow(2, half + 1);
+                percentile = base
+                        + (next - base) * (tick % TICKS_PER_HALF) / TICKS_PER_HALF;
+                if (seen + this.counts[i] == this.totalCount
+                        && value == this.max) {
+                    percentile = 100;
+                }
+            }
+            out.println(String.format(Locale.ROOT, "%12.3f %2.12f %10d",
+                    this.max / unitRatio, 1.0, this.totalCount));
+        }
+        out.println(String.format(Locale.ROOT,
+                "#[Mean    = %12.3f, StdDeviation   = %12.3f]",
+                this.mean() / unitRatio, this.standardDeviation() / unitRatio));
+        out.println(String.format(Locale.ROOT,
+                "#[Max     = %12.3f, Total count    = %12d]",
+                this.max / unitRatio, this.totalCount));
+        out.println(String.format(Locale.ROOT,
+                "#[Buckets = %12d, SubBuckets     = %12d]", BUCKETS,
+                SUB_BUCKETS));
+    }
+
+}
@@ -0,0 +1,208 @@
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * {@code Iterator} merging {@code k} sorted iterators with a tournament
+ * (loser) tree. Each internal node of the tree holds the source that lost the
+ * match played there, and the overall winner is kept apart, so after the
+ * winner's source advances only the matches on its path to the root are
+ * replayed: about log2(k) comparisons per entry, and no comparisons between
+ * siblings as in a binary heap. Entries that compare equal come out in the
+ * order of their sources, so the merge is stable.
+ *
+ * @param <T>
+ *            type of merged entries
+ */
+public class LoserTreeMerge<T> implements Iterator<T> {
+
+    /*
+     * Private members --------------------------------------------------------
+     */
+
+    /**
+     * Sorted sources.
+     */
+    private final List<Iterator<? extends T>> sources;
+
+    /**
+     * Order of the sources.
+     */
+    private final Comparator<? super T> order;
+
+    /**
+     * Current entry of each source, or {@code null} once it is exhausted.
+     */
+    private final Object[] heads;
+
+    /**
+     * {@code tree[0]} is the source with the smallest head; {@code tree[i]}
+     * for {@code 0 < i < k} is the loser of the match at node {@code i}, whose
+     * children are nodes (or, past {@code k - 1}, the sources {@code j - k})
+     * {@code 2i} and {@code 2i + 1}.
+     */
+    private final int[] tree;
+
+    /**
+     * Reports whether source {@code a} wins its match against source
+     * {@code b}: an exhausted source always loses, and ties go to the source
+     * with the smaller index.
+     *
+     * @param a
+     *            one source
+     * @param b
+     *            the other source
+     * @return true iff {@code a} beats {@code b}
+     */
+    @SuppressWarnings("unchecked")
+    private boolean beats(int a, int b) {
+        boolean result;
+        if (this.heads[a] == null) {
+            result = false;
+        } else if (this.heads[b] == null) {
+            result = true;
+        } else {
+            int cmp = this.order.compare((T) this.heads[a], (T) this.heads[b]);
+            result = cmp < 0 || (cmp == 0 && a < b);
+        }
+        return result;
+    }
+
+    /**
+     * Moves source {@code i} to its next entry.
+     *
+     * @param i
+     *            the source
+     */
+    private void advance(int i) {
+        Iterator<? extends T> source = this.sources.get(i);
+        if (source.hasNext()) {
+            T next = source.next();
+            assert next != null : "Violation of: entries are not null";
+            this.heads[i] = next;
+        } else {
+            this.heads[i] = null;
+        }
+    }
+
+    /*
+     * Constructors -----------------------------------------------------------
+     */
+
+    /**
+     * Constructor from sources and order.
+     *
+     * @param sources
+     *            the iterators to merge; the merge takes them over
+     * @param order
+     *            the order of every source
+     * @requires <pre>
+     * [every source returns non-null entries in non-decreasing order
+     *  according to the relation computed by order.compare method]
+     * </pre>
+     */
+    public LoserTreeMerge(List<? extends Iterator<? extends T>> sources,
+            Comparator<? super T> order) {
+        assert sources != null : "Violation of: sources is not null";
+        assert order != null : "Violation of: order is not null";
+
+        int k = sources.size();
+        this.sources = new ArrayList<>(sources);
+        this.order = order;
+        this.heads = new Object[k];
+        this.tree = new int[Math.max(k, 1)];
+        for (int i = 0; i < k; i++) {
+            this.advance(i);
+        }
+
+        /*
+         * Play the initial tournament bottom-up; winner[j] is the winner of
+         * the subtree rooted at node j, with sources at nodes k to 2k - 1.
+         */
+        int[] winner = new int[2 * k];
+        for (int i = 0; i < k; i++) {
+            winner[k + i] = i;
+        }
+        for (int node = k - 1; node >= 1; node--) {
+            int a = winner[2 * node];
+            int b = winner[2 * node + 1];
+            if (this.beats(a, b)) {
+                winner[node] = a;
+                this.tree[node] = b;
+            } else {
+                winner[node] = b;
+                this.tree[node] = a;
+            }
+        }
+        if (k > 0) {
+            this.tree[0] = winner[1];
+        }
+    }
+
+    /*
+     * Iterator methods -------------------------------------------------------
+     */
+
+    @Override
+    public final boolean hasNext() {
+        return this.heads.length > 0 && this.heads[this.tree[0]] != null;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public final T next() {
+        assert this.hasNext() : "Violation of: ~this.unseen /= <>";
+        if (!this.hasNext()) {
+            /*
+             * Exception is supposed to be thrown in this case, but with
+             * assertion-checking enabled it cannot happen because of assert
+             * above.
+             */
+            throw new NoSuchElementException();
+        }
+
+        int k = this.heads.length;
+        int w = this.tree[0];
+        T next = (T) this.heads[w];
+        this.advance(w);
+        for (int node = (w + k) / 2; node >= 1; node /= 2) {
+            if (this.beats(this.tree[node], w)) {
+                int loser = w;
+                w = this.tree[node];
+                this.tree[node] = loser;
+            }
+        }
+        this.tree[0] = w;
+        return next;
+    }
+
+    @Override
+    public final void remove() {
+        throw new UnsupportedOperationException(
+                "remove operation not supported");
+    }
+
+    /*
+     * Other methods ----------------------------------------------------------
+     */
+
+    /**
+     * Returns the entries already taken from the sources but not yet returned
+     * by {@code next}, in no particular order.
+     *
+     * @return the pending entries
+     */
+    @SuppressWarnings("unchecked")
+    public final List<T> pendingHeads() {
+        List<T> pending = new ArrayList<>();
+        for (Object head : this.heads) {
+            if (head != null) {
+                pending.add((T) head);
+            }
+        }
+        return pending;
+    }
+
+}
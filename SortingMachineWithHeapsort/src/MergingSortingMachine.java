@@ -0,0 +1,336 @@
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+
+import components.sortingmachine.SortingMachine;
+import components.sortingmachine.SortingMachineSecondary;
+
+/**
+ * {@code SortingMachine} that merges already-sorted sources instead of
+ * re-sorting them. Besides the usual {@code add}, insertion mode accepts whole
+ * machines already in extraction mode through {@code addSorted}; their
+ * entries are not touched until extraction. Switching to extraction mode only
+ * sorts the individually added entries, and then {@code removeFirst} takes
+ * the smallest remaining entry across all sources with a
+ * {@code LoserTreeMerge}, in about log2(k) comparisons for k sources.
+ *
+ * @param <T>
+ *            type of {@code SortingMachine} entries
+ * @convention <pre>
+ * $this.staged.order() = $this.machineOrder  and
+ * [every machine in $this.sources is in extraction mode with order
+ *  $this.machineOrder]  and
+ * if $this.insertionMode then
+ *   ($this.staged.insertion_mode  and  $this.merge = null)
+ * else
+ *   (not $this.staged.insertion_mode  and  $this.merge /= null  and
+ *    [$this.merge merges $this.staged and $this.sources])  and
+ * $this.size = |$this.staged.contents| +
+ *   [sum of the sizes of the machines in $this.sources] +
+ *   [number of entries pending in $this.merge]
+ * </pre>
+ * @correspondence <pre>
+ * this = ($this.insertionMode, $this.machineOrder,
+ *         $this.staged.contents union
+ *         [union of the contents of the machines in $this.sources] union
+ *         [entries pending in $this.merge])
+ * </pre>
+ */
+public class MergingSortingMachine<T> extends SortingMachineSecondary<T> {
+
+    /*
+     * Private members --------------------------------------------------------
+     */
+
+    /**
+     * Order.
+     */
+    private Comparator<T> machineOrder;
+
+    /**
+     * Insertion mode.
+     */
+    private boolean insertionMode;
+
+    /**
+     * Individually added entries.
+     */
+    private SortingMachine5a<T> staged;
+
+    /**
+     * Sorted sources, in extraction mode.
+     */
+    private List<SortingMachine<T>> sources;
+
+    /**
+     * Merge of {@code staged} and {@code sources}, in extraction mode.
+     */
+    private LoserTreeMerge<T> merge;
+
+    /**
+     * Number of entries.
+     */
+    private int size;
+
+    /**
+     * {@code Iterator} draining a machine in extraction mode with
+     * {@code removeFirst}.
+     *
+     * @param <T>
+     *            type of entries
+     */
+    private static final class Drain<T> implements Iterator<T> {
+
+        /**
+         * The machine.
+         */
+        private final SortingMachine<T> machine;
+
+        /**
+         * Constructor from machine.
+         *
+         * @param machine
+         *            the machine, in extraction mode
+         */
+        private Drain(SortingMachine<T> machine) {
+            this.machine = machine;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return this.machine.size() > 0;
+        }
+
+        @Override
+        public T next() {
+            return this.machine.removeFirst();
+        }
+
+    }
+
+    /**
+     * Creator of initial representation.
+     *
+     * @param order
+     *            total preorder for sorting
+     * @ensures <pre>
+     * $this.insertionMode = true  and  $this.machineOrder = order  and
+     * $this.staged = (true, order, {})  and  $this.sources = <>  and
+     * $this.merge = null  and  $this.size = 0
+     * </pre>
+     */
+    private void createNewRep(Comparator<T> order) {
+        this.machineOrder = order;
+        this.insertionMode = true;
+        this.staged = new SortingMachine5a<>(order);
+        this.sources = new ArrayList<>();
+        this.merge = null;
+        this.size = 0;
+    }
+
+    /*
+     * Constructors -----------------------------------------------------------
+     */
+
+    /**
+     * Constructor from order.
+     *
+     * @param order
+     *            total preorder for sorting
+     */
+    public MergingSortingMachine(Comparator<T> order) {
+        this.createNewRep(order);
+    }
+
+    /*
+     * Standard methods -------------------------------------------------------
+     */
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public final SortingMachine<T> newInstance() {
+        try {
+            return this.getClass().getConstructor(Comparator.class)
+                    .newInstance(this.machineOrder);
+        } catch (ReflectiveOperationException e) {
+            throw new AssertionError(
+                    "Cannot construct object of type " + this.getClass());
+        }
+    }
+
+    @Override
+    public final void clear() {
+        this.createNewRep(this.machineOrder);
+    }
+
+    @Override
+    public final void transferFrom(SortingMachine<T> source) {
+        assert source != null : "Violation of: source is not null";
+        assert source != this : "Violation of: source is not this";
+        assert source instanceof MergingSortingMachine<?> : ""
+                + "Violation of: source is of dynamic type MergingSortingMachine<?>";
+        /*
+         * This cast cannot fail since the assert above would have stopped
+         * execution in that case.
+         */
+        MergingSortingMachine<T> localSource = (MergingSortingMachine<T>) source;
+        this.machineOrder = localSource.machineOrder;
+        this.insertionMode = localSource.insertionMode;
+        this.staged = localSource.staged;
+        this.sources = localSource.sources;
+        this.merge = localSource.merge;
+        this.size = localSource.size;
+        localSource.createNewRep(localSource.machineOrder);
+    }
+
+    /*
+     * Other methods ----------------------------------------------------------
+     */
+
+    /**
+     * Adds the entries of {@code sorted} to {@code this} without sorting them
+     * again: they are merged with the other entries during extraction.
+     *
+     * @param sorted
+     *            the machine whose entries are added
+     * @updates this.contents
+     * @clears sorted
+     * @requires <pre>
+     * this.insertion_mode  and  sorted /= this  and
+     * not sorted.insertion_mode  and
+     * [sorted.ordering and this.ordering are the same relation]
+     * </pre>
+     * @ensures <pre>
+     * this.contents = #this.contents union #sorted.contents
+     * </pre>
+     */
+    public final void addSorted(SortingMachine<T> sorted) {
+        assert sorted != null : "Violation of: sorted is not null";
+        assert sorted != this : "Violation of: sorted is not this";
+        assert this.isInInsertionMode() : "Violation of: this.insertion_mode";
+        assert !sorted
+                .isInInsertionMode() : "Violation of: not sorted.insertion_mode";
+
+        if (sorted.size() > 0) {
+            SortingMachine<T> source = sorted.newInstance();
+            source.transferFrom(sorted);
+            this.size += source.size();
+            this.sources.add(source);
+        } else {
+            sorted.clear();
+        }
+    }
+
+    /*
+     * Kernel methods ---------------------------------------------------------
+     */
+
+    @Override
+    public final void add(T x) {
+        assert x != null : "Violation of: x is not null";
+        assert this.isInInsertionMode() : "Violation of: this.insertion_mode";
+
+        this.staged.add(x);
+        this.size++;
+    }
+
+    @Override
+    public final void changeToExtractionMode() {
+        assert this.isInInsertionMode() : "Violation of: this.insertion_mode";
+
+        this.insertionMode = false;
+        this.staged.changeToExtractionMode();
+        List<Iterator<T>> drains = new ArrayList<>();
+        drains.add(new Drain<>(this.staged));
+        for (SortingMachine<T> source : this.sources) {
+            drains.add(new Drain<>(source));
+        }
+        this.merge = new LoserTreeMerge<>(drains, this.machineOrder);
+    }
+
+    @Override
+    public final T removeFirst() {
+        assert !this
+                .isInInsertionMode() : "Violation of: not this.insertion_mode";
+        assert this.size() > 0 : "Violation of: this.contents /= {}";
+
+        this.size--;
+        return this.merge.next();
+    }
+
+    @Override
+    public final boolean isInInsertionMode() {
+        return this.insertionMode;
+    }
+
+    @Override
+    public final Comparator<T> order() {
+        return this.machineOrder;
+    }
+
+    @Override
+    public final int size() {
+        return this.size;
+    }
+
+    @Override
+    public final Iterator<T> iterator() {
+        /*
+         * The contents are spread over several machines plus the merge's
+         * pending entries; iterate over a snapshot of all of them.
+         */
+        List<T> contents = new ArrayList<>(this.size);
+        if (this.merge != null) {
+            contents.addAll(this.merge.pendingHeads());
+        }
+        for (T x : this.staged) {
+            contents.add(x);
+        }
+        for (SortingMachine<T> source : this.sources) {
+            for (T x : source) {
+                contents.add(x);
+            }
+        }
+        return new MergingSortingMachineIterator(contents.iterator());
+    }
+
+    /**
+     * Implementation of {@code Iterator} interface for
+     * {@code MergingSortingMachine}.
+     */
+    private final class MergingSortingMachineIterator implements Iterator<T> {
+
+        /**
+         * Iterator over the snapshot of the contents.
+         */
+        private final Iterator<T> snapshot;
+
+        /**
+         * Constructor from snapshot iterator.
+         *
+         * @param snapshot
+         *            iterator over the snapshot of the contents
+         */
+        private MergingSortingMachineIterator(Iterator<T> snapshot) {
+            this.snapshot = snapshot;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return this.snapshot.hasNext();
+        }
+
+        @Override
+        public T next() {
+            return this.snapshot.next();
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException(
+                    "remove operation not supported");
+        }
+
+    }
+}
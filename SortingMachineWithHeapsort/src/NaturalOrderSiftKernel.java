@@ -0,0 +1,60 @@
+import java.util.Comparator;
+
+/**
+ * {@code HeapSiftKernel} for {@code Comparator.naturalOrder()}: entries are
+ * compared with {@code compareTo} directly, skipping the comparator. This
+ * class is also the template that {@code HeapSiftKernels} copies once per
+ * entry class, so it must stay self-contained: no nested classes and no
+ * references to other classes of this package.
+ */
+final class NaturalOrderSiftKernel implements HeapSiftKernel {
+
+    /**
+     * No-argument constructor.
+     */
+    NaturalOrderSiftKernel() {
+    }
+
+    /**
+     * Reports the result of {@code x.compareTo(y)}.
+     *
+     * @param x
+     *            an entry
+     * @param y
+     *            another entry
+     * @return the result of {@code x.compareTo(y)}
+     * @requires [x is Comparable to y]
+     */
+    @SuppressWarnings("unchecked")
+    private static int compare(Object x, Object y) {
+        return ((Comparable<Object>) x).compareTo(y);
+    }
+
+    @Override
+    public <T> void siftDown(T[] array, int top, int last,
+            Comparator<T> order) {
+        T x = array[top];
+        int hole = top;
+        int child = 2 * hole + 1;
+        while (child <= last) {
+            if (child < last && compare(array[child + 1], array[child]) <= 0) {
+                child++;
+            }
+            if (compare(array[child], x) >= 0) {
+                break;
+            }
+            array[hole] = array[child];
+            hole = child;
+            child = 2 * hole + 1;
+        }
+        array[hole] = x;
+    }
+
+    @Override
+    public <T> void heapify(T[] array, int last, Comparator<T> order) {
+        for (int i = (last - 1) / 2; i >= 0; i--) {
+            this.siftDown(array, i, last, order);
+        }
+    }
+
+}
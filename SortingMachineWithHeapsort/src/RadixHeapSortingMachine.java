@@ -0,0 +1,482 @@
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.function.ToLongFunction;
+
+import components.sortingmachine.SortingMachine;
+import components.sortingmachine.SortingMachineSecondary;
+
+/**
+ * {@code SortingMachine} represented as a radix heap over {@code long}
+ * priorities, for workloads whose extracted priorities never decrease (e.g.,
+ * Dijkstra-style searches). Besides the usual add/removeFirst lifecycle,
+ * entries may be inserted in extraction mode with {@code insert} as long as
+ * their priority is not smaller than that of the last extracted entry. Insert
+ * is O(1) and removeFirst is O(log C) amortized, where C is the spread of the
+ * priorities.
+ *
+ * @param <T>
+ *            type of {@code SortingMachine} entries
+ * @mathdefinitions <pre>
+ * UKEY (
+ *   k: integer
+ *  ) : integer is
+ *  [k with its sign bit flipped, interpreted as an unsigned 64-bit integer,
+ *   so that unsigned order on UKEY agrees with signed order on k]
+ *
+ * BUCKET (
+ *   u: integer,
+ *   last: integer
+ *  ) : integer is
+ *  [0 if u = last, otherwise one plus the position of the most significant
+ *   bit in which u and last differ]
+ * </pre>
+ * @convention <pre>
+ * |$this.bucketEntries| = |$this.bucketKeys| = |$this.bucketSizes| = 65  and
+ * for all b: integer
+ *     where (0 <= b  and  b < 65)
+ *   (for all i: integer
+ *       where (0 <= i  and  i < $this.bucketSizes[b])
+ *     ($this.bucketEntries[b][i] is not null  and
+ *      $this.bucketKeys[b][i] = UKEY($this.key.applyAsLong(
+ *                                    $this.bucketEntries[b][i]))  and
+ *      BUCKET($this.bucketKeys[b][i], $this.last) = b))  and
+ * $this.size = [sum of $this.bucketSizes]  and
+ * if $this.insertionMode then
+ *   $this.last = 0
+ * </pre>
+ * @correspondence <pre>
+ * this = ($this.insertionMode, [relation comparing $this.key values],
+ *         [multiset of the first $this.bucketSizes[b] entries of
+ *          $this.bucketEntries[b], over all buckets b])
+ * </pre>
+ */
+public class RadixHeapSortingMachine<T> extends SortingMachineSecondary<T> {
+
+    /*
+     * Private members --------------------------------------------------------
+     */
+
+    /**
+     * Number of buckets: one for keys equal to {@code last} and one per bit
+     * position in which a key can first differ from {@code last}.
+     */
+    private static final int BUCKETS = Long.SIZE + 1;
+
+    /**
+     * Initial capacity of each bucket.
+     */
+    private static final int INITIAL_BUCKET_CAPACITY = 4;
+
+    /**
+     * Priority of each entry.
+     */
+    private ToLongFunction<T> key;
+
+    /**
+     * Order induced by {@code key}.
+     */
+    private Comparator<T> machineOrder;
+
+    /**
+     * Insertion mode.
+     */
+    private boolean insertionMode;
+
+    /**
+     * Entries of each bucket.
+     */
+    private Object[][] bucketEntries;
+
+    /**
+     * Unsigned keys of each bucket, parallel to {@code bucketEntries}.
+     */
+    private long[][] bucketKeys;
+
+    /**
+     * Number of entries in each bucket.
+     */
+    private int[] bucketSizes;
+
+    /**
+     * Unsigned key of the last extracted entry.
+     */
+    private long last;
+
+    /**
+     * Total number of entries.
+     */
+    private int size;
+
+    /**
+     * Maps a signed priority to an unsigned key with the same order.
+     *
+     * @param k
+     *            the priority
+     * @return UKEY(k)
+     */
+    private static long unsignedKey(long k) {
+        return k ^ Long.MIN_VALUE;
+    }
+
+    /**
+     * Returns the bucket an unsigned key belongs in, relative to {@code last}.
+     *
+     * @param u
+     *            the unsigned key
+     * @param last
+     *            the unsigned key of the last extracted entry
+     * @return BUCKET(u, last)
+     */
+    private static int bucketOf(long u, long last) {
+        return Long.SIZE - Long.numberOfLeadingZeros(u ^ last);
+    }
+
+    /**
+     * Appends an entry with the given unsigned key to bucket {@code b}.
+     *
+     * @param b
+     *            the bucket
+     * @param x
+     *            the entry
+     * @param u
+     *            UKEY of the entry's priority
+     * @updates $this.bucketEntries, $this.bucketKeys, $this.bucketSizes
+     * @requires 0 <= b < 65
+     * @ensures [x with key u is appended to bucket b]
+     */
+    private void append(int b, Object x, long u) {
+        int n = this.bucketSizes[b];
+        if (n == this.bucketEntries[b].length) {
+            int capacity = 2 * n;
+            Object[] entries = new Object[capacity];
+            long[] keys = new long[capacity];
+            System.arraycopy(this.bucketEntries[b], 0, entries, 0, n);
+            System.arraycopy(this.bucketKeys[b], 0, keys, 0, n);
+            this.bucketEntries[b] = entries;
+            this.bucketKeys[b] = keys;
+        }
+        this.bucketEntries[b][n] = x;
+        this.bucketKeys[b][n] = u;
+        this.bucketSizes[b] = n + 1;
+    }
+
+    /**
+     * Advances {@code last} to the smallest key present and redistributes the
+     * bucket holding it, so that bucket 0 becomes non-empty.
+     *
+     * @updates $this
+     * @requires $this.size > 0  and  $this.bucketSizes[0] = 0
+     * @ensures <pre>
+     * $this.bucketSizes[0] > 0  and
+     * [$this.last is the smallest unsigned key present]
+     * </pre>
+     */
+    private void refill() {
+        int b = 1;
+        while (this.bucketSizes[b] == 0) {
+            b++;
+        }
+        Object[] entries = this.bucketEntries[b];
+        long[] keys = this.bucketKeys[b];
+        int n = this.bucketSizes[b];
+
+        long min = keys[0];
+        for (int i = 1; i < n; i++) {
+            if (Long.compareUnsigned(keys[i], min) < 0) {
+                min = keys[i];
+            }
+        }
+        this.last = min;
+
+        /*
+         * Every key in bucket b agrees with the new last above bit b - 1, so
+         * each one lands in a strictly smaller bucket.
+         */
+        this.bucketSizes[b] = 0;
+        for (int i = 0; i < n; i++) {
+            this.append(bucketOf(keys[i], min), entries[i], keys[i]);
+            entries[i] = null;
+        }
+    }
+
+    /**
+     * Checks that the part of the convention repeated below holds for the
+     * current representation.
+     *
+     * @return true if the convention holds (or if assertion checking is off);
+     *         otherwise reports a violated assertion
+     * @convention <pre>
+     * $this.size = [sum of $this.bucketSizes]  and
+     * if $this.insertionMode then
+     *   $this.last = 0
+     * </pre>
+     */
+    private boolean conventionHolds() {
+        int total = 0;
+        for (int b = 0; b < BUCKETS; b++) {
+            total += this.bucketSizes[b];
+        }
+        assert total == this.size : ""
+                + "Violation of: $this.size = [sum of $this.bucketSizes]";
+        assert !this.insertionMode || this.last == 0 : ""
+                + "Violation of: if $this.insertionMode then $this.last = 0";
+        return true;
+    }
+
+    /**
+     * Creator of initial representation.
+     *
+     * @param priority
+     *            priority of each entry
+     * @ensures <pre>
+     * $this.insertionMode = true  and
+     * $this.key = priority  and
+     * $this.size = 0  and
+     * $this.last = 0
+     * </pre>
+     */
+    private void createNewRep(ToLongFunction<T> priority) {
+        this.key = priority;
+        this.machineOrder = Comparator.comparingLong(priority);
+        this.insertionMode = true;
+        this.bucketEntries = new Object[BUCKETS][INITIAL_BUCKET_CAPACITY];
+        this.bucketKeys = new long[BUCKETS][INITIAL_BUCKET_CAPACITY];
+        this.bucketSizes = new int[BUCKETS];
+        this.last = 0;
+        this.size = 0;
+    }
+
+    /*
+     * Constructors -----------------------------------------------------------
+     */
+
+    /**
+     * Constructor from priority function.
+     *
+     * @param priority
+     *            priority of each entry; smaller priorities are removed first
+     */
+    public RadixHeapSortingMachine(ToLongFunction<T> priority) {
+        this.createNewRep(priority);
+        assert this.conventionHolds();
+    }
+
+    /*
+     * Standard methods -------------------------------------------------------
+     */
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public final SortingMachine<T> newInstance() {
+        try {
+            return this.getClass().getConstructor(ToLongFunction.class)
+                    .newInstance(this.key);
+        } catch (ReflectiveOperationException e) {
+            throw new AssertionError(
+                    "Cannot construct object of type " + this.getClass());
+        }
+    }
+
+    @Override
+    public final void clear() {
+        this.createNewRep(this.key);
+        assert this.conventionHolds();
+    }
+
+    @Override
+    public final void transferFrom(SortingMachine<T> source) {
+        assert source != null : "Violation of: source is not null";
+        assert source != this : "Violation of: source is not this";
+        assert source instanceof RadixHeapSortingMachine<?> : ""
+                + "Violation of: source is of dynamic type RadixHeapSortingMachine<?>";
+        /*
+         * This cast cannot fail since the assert above would have stopped
+         * execution in that case.
+         */
+        RadixHeapSortingMachine<T> localSource = (RadixHeapSortingMachine<T>) source;
+        this.key = localSource.key;
+        this.machineOrder = localSource.machineOrder;
+        this.insertionMode = localSource.insertionMode;
+        this.bucketEntries = localSource.bucketEntries;
+        this.bucketKeys = localSource.bucketKeys;
+        this.bucketSizes = localSource.bucketSizes;
+        this.last = localSource.last;
+        this.size = localSource.size;
+        localSource.createNewRep(localSource.key);
+        assert this.conventionHolds();
+        assert localSource.conventionHolds();
+    }
+
+    /*
+     * Kernel methods ---------------------------------------------------------
+     */
+
+    @Override
+    public final void add(T x) {
+        assert x != null : "Violation of: x is not null";
+        assert this.isInInsertionMode() : "Violation of: this.insertion_mode";
+
+        long u = unsignedKey(this.key.applyAsLong(x));
+        this.append(bucketOf(u, this.last), x, u);
+        this.size++;
+
+        assert this.conventionHolds();
+    }
+
+    @Override
+    public final void changeToExtractionMode() {
+        assert this.isInInsertionMode() : "Violation of: this.insertion_mode";
+
+        /*
+         * The buckets are already relative to the smallest possible key, so
+         * there is nothing to build.
+         */
+        this.insertionMode = false;
+
+        assert this.conventionHolds();
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public final T removeFirst() {
+        assert !this
+                .isInInsertionMode() : "Violation of: not this.insertion_mode";
+        assert this.size() > 0 : "Violation of: this.contents /= {}";
+
+        if (this.bucketSizes[0] == 0) {
+            this.refill();
+        }
+        int n = this.bucketSizes[0] - 1;
+        T first = (T) this.bucketEntries[0][n];
+        this.bucketEntries[0][n] = null;
+        this.bucketSizes[0] = n;
+        this.size--;
+
+        assert this.conventionHolds();
+
+        return first;
+    }
+
+    @Override
+    public final boolean isInInsertionMode() {
+        assert this.conventionHolds();
+        return this.insertionMode;
+    }
+
+    @Override
+    public final Comparator<T> order() {
+        assert this.conventionHolds();
+        return this.machineOrder;
+    }
+
+    @Override
+    public final int size() {
+        assert this.conventionHolds();
+        return this.size;
+    }
+
+    @Override
+    public final Iterator<T> iterator() {
+        return new RadixHeapSortingMachineIterator();
+    }
+
+    /*
+     * Other methods ----------------------------------------------------------
+     */
+
+    /**
+     * Inserts {@code x} in either mode. In extraction mode the priority of
+     * {@code x} must not be smaller than that of the last extracted entry.
+     *
+     * @param x
+     *            the element to be inserted
+     * @updates this.contents
+     * @requires <pre>
+     * x is not null  and
+     * if not this.insertion_mode then
+     *   [priority of x >= priority of the last entry removed from this]
+     * </pre>
+     * @ensures this.contents = #this.contents union {x}
+     */
+    public final void insert(T x) {
+        assert x != null : "Violation of: x is not null";
+
+        long u = unsignedKey(this.key.applyAsLong(x));
+        assert Long.compareUnsigned(u, this.last) >= 0 : ""
+                + "Violation of: priority of x >= priority of the last entry"
+                + " removed from this";
+        this.append(bucketOf(u, this.last), x, u);
+        this.size++;
+
+        assert this.conventionHolds();
+    }
+
+    /**
+     * Implementation of {@code Iterator} interface for
+     * {@code RadixHeapSortingMachine}.
+     */
+    private final class RadixHeapSortingMachineIterator implements Iterator<T> {
+
+        /**
+         * Current bucket.
+         */
+        private int bucket;
+
+        /**
+         * Position in the current bucket.
+         */
+        private int index;
+
+        /**
+         * No-argument constructor.
+         */
+        private RadixHeapSortingMachineIterator() {
+            this.bucket = 0;
+            this.index = 0;
+            this.skipEmpty();
+            assert RadixHeapSortingMachine.this.conventionHolds();
+        }
+
+        /**
+         * Advances past exhausted buckets.
+         */
+        private void skipEmpty() {
+            while (this.bucket < BUCKETS
+                    && this.index >= RadixHeapSortingMachine.this.bucketSizes[this.bucket]) {
+                this.bucket++;
+                this.index = 0;
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return this.bucket < BUCKETS;
+        }
+
+        @SuppressWarnings("unchecked")
+        @Override
+        public T next() {
+            assert this.hasNext() : "Violation of: ~this.unseen /= <>";
+            if (!this.hasNext()) {
+                /*
+                 * Exception is supposed to be thrown in this case, but with
+                 * assertion-checking enabled it cannot happen because of assert
+                 * above.
+                 */
+                throw new NoSuchElementException();
+            }
+            T next = (T) RadixHeapSortingMachine.this.bucketEntries[this.bucket][this.index];
+            this.index++;
+            this.skipEmpty();
+            return next;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException(
+                    "remove operation not supported");
+        }
+
+    }
+}
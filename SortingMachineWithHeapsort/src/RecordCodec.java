@@ -0,0 +1,47 @@
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.Serializable;
+
+/**
+ * Binary encoding of entries exchanged between a
+ * {@code DistributedSortingMachine} and its {@code DistributedSortWorker}s.
+ * The codec is sent to the workers serialized, so implementations must be
+ * serializable, and their classes must be on the workers' class path.
+ *
+ * @param <T>
+ *            type of encoded entries
+ */
+public interface RecordCodec<T> extends Serializable {
+
+    /**
+     * Writes {@code x} to {@code out}.
+     *
+     * @param x
+     *            the entry to write
+     * @param out
+     *            the destination
+     * @throws IOException
+     *             if {@code out} fails
+     * @updates out
+     * @requires x is not null
+     * @ensures [the encoding of x is appended to out]
+     */
+    void write(T x, DataOutput out) throws IOException;
+
+    /**
+     * Reads the next entry from {@code in}.
+     *
+     * @param in
+     *            the source
+     * @return the decoded entry
+     * @throws IOException
+     *             if {@code in} fails or is exhausted
+     * @updates in
+     * @requires [in starts with the encoding of an entry]
+     * @ensures [read is the entry whose encoding was removed from the front
+     *          of in]
+     */
+    T read(DataInput in) throws IOException;
+
+}
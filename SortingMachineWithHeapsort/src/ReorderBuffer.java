@@ -0,0 +1,315 @@
+import java.util.function.ToLongFunction;
+
+import components.queue.Queue;
+
+/**
+ * Bounded event-time reorder buffer. Unlike a {@code SortingMachine}, it has
+ * no separate insertion and extraction modes: entries are added continuously
+ * and {@code pollUpTo(watermark)} releases, in event-time order, every entry
+ * at or before the watermark. Both operations are O(log n) per entry, and the
+ * number of buffered entries never exceeds the capacity fixed at
+ * construction.
+ *
+ * @param <T>
+ *            type of buffered entries
+ * @convention <pre>
+ * 0 <= $this.size <= |$this.heap| = |$this.times| = $this.capacity  and
+ * for all i: integer
+ *     where (0 <= i  and  i < $this.size)
+ *   ($this.heap[i] is not null  and
+ *    $this.times[i] = $this.eventTime.applyAsLong($this.heap[i]))  and
+ * [$this.times[0, $this.size) is a heap ordered by <=]
+ * </pre>
+ * @correspondence <pre>
+ * this = ([multiset of $this.heap[0, $this.size)], $this.watermark)
+ * </pre>
+ */
+public class ReorderBuffer<T> {
+
+    /*
+     * Private members --------------------------------------------------------
+     */
+
+    /**
+     * Event time of each entry.
+     */
+    private final ToLongFunction<T> eventTime;
+
+    /**
+     * Buffered entries, arranged as a heap on {@code times}.
+     */
+    private final Object[] heap;
+
+    /**
+     * Event times, parallel to {@code heap}.
+     */
+    private final long[] times;
+
+    /**
+     * Number of buffered entries.
+     */
+    private int size;
+
+    /**
+     * Largest watermark passed to {@code pollUpTo} so far.
+     */
+    private long watermark;
+
+    /**
+     * Moves the entry at position {@code i} up until its parent is not later.
+     *
+     * @param i
+     *            the heap position to sift up from
+     * @param x
+     *            the entry to place
+     * @param t
+     *            the event time of {@code x}
+     * @updates $this.heap, $this.times
+     */
+    private void siftUp(int i, Object x, long t) {
+        while (i > 0) {
+            int parent = (i - 1) / 2;
+            if (this.times[parent] <= t) {
+                break;
+            }
+            this.heap[i] = this.heap[parent];
+            this.times[i] = this.times[parent];
+            i = parent;
+        }
+        this.heap[i] = x;
+        this.times[i] = t;
+    }
+
+    /**
+     * Moves the given entry down from position {@code i} until neither child
+     * is earlier.
+     *
+     * @param i
+     *            the heap position to sift down from
+     * @param x
+     *            the entry to place
+     * @param t
+     *            the event time of {@code x}
+     * @updates $this.heap, $this.times
+     */
+    private void siftDown(int i, Object x, long t) {
+        int half = this.size / 2;
+        while (i < half) {
+            int child = 2 * i + 1;
+            int right = child + 1;
+            if (right < this.size && this.times[right] < this.times[child]) {
+                child = right;
+            }
+            if (this.times[child] >= t) {
+                break;
+            }
+            this.heap[i] = this.heap[child];
+            this.times[i] = this.times[child];
+            i = child;
+        }
+        this.heap[i] = x;
+        this.times[i] = t;
+    }
+
+    /**
+     * Removes and returns the earliest entry.
+     *
+     * @return the earliest entry
+     * @updates $this
+     * @requires $this.size > 0
+     */
+    @SuppressWarnings("unchecked")
+    private T removeEarliest() {
+        T first = (T) this.heap[0];
+        this.size--;
+        Object x = this.heap[this.size];
+        long t = this.times[this.size];
+        this.heap[this.size] = null;
+        if (this.size > 0) {
+            this.siftDown(0, x, t);
+        }
+        return first;
+    }
+
+    /**
+     * Checks that the part of the convention repeated below holds for the
+     * current representation.
+     *
+     * @return true if the convention holds (or if assertion checking is off);
+     *         otherwise reports a violated assertion
+     * @convention <pre>
+     * 0 <= $this.size <= |$this.heap|  and
+     * [$this.times[0, $this.size) is a heap ordered by <=]
+     * </pre>
+     */
+    private boolean conventionHolds() {
+        assert 0 <= this.size : "Violation of: 0 <= $this.size";
+        assert this.size <= this.heap.length : ""
+                + "Violation of: $this.size <= |$this.heap|";
+        for (int i = 1; i < this.size; i++) {
+            assert this.times[(i - 1) / 2] <= this.times[i] : ""
+                    + "Violation of: [$this.times[0, $this.size) is a heap]";
+        }
+        return true;
+    }
+
+    /*
+     * Constructors -----------------------------------------------------------
+     */
+
+    /**
+     * Constructor from event-time function and capacity.
+     *
+     * @param eventTime
+     *            event time of each entry
+     * @param capacity
+     *            maximum number of entries buffered at once
+     * @requires capacity > 0
+     * @ensures this = ({}, -infinity)
+     */
+    public ReorderBuffer(ToLongFunction<T> eventTime, int capacity) {
+        assert eventTime != null : "Violation of: eventTime is not null";
+        assert capacity > 0 : "Violation of: capacity > 0";
+
+        this.eventTime = eventTime;
+        this.heap = new Object[capacity];
+        this.times = new long[capacity];
+        this.size = 0;
+        this.watermark = Long.MIN_VALUE;
+        assert this.conventionHolds();
+    }
+
+    /*
+     * Public methods ---------------------------------------------------------
+     */
+
+    /**
+     * Adds {@code x} to the buffer. An entry that {@code isLate} is still
+     * accepted, and is released by the next call to {@code pollUpTo}.
+     *
+     * @param x
+     *            the entry to add
+     * @aliases reference x
+     * @updates this.contents
+     * @requires x is not null  and  this.remainingCapacity() > 0
+     * @ensures this.contents = #this.contents union {x}
+     */
+    public final void add(T x) {
+        assert x != null : "Violation of: x is not null";
+        assert this.size < this.heap.length : ""
+                + "Violation of: this.remainingCapacity() > 0";
+
+        this.size++;
+        this.siftUp(this.size - 1, x, this.eventTime.applyAsLong(x));
+
+        assert this.conventionHolds();
+    }
+
+    /**
+     * Releases, in event-time order, every buffered entry whose event time is
+     * at or before {@code watermark}, and advances the watermark.
+     *
+     * @param watermark
+     *            the new watermark
+     * @param released
+     *            the queue the released entries are appended to
+     * @return the number of entries released
+     * @updates this, released
+     * @ensures <pre>
+     * released = #released * [entries of #this.contents with event time
+     *                         <= watermark, in event-time order]  and
+     * this.contents = [entries of #this.contents with event time > watermark]
+     * and  this.watermark = max(#this.watermark, watermark)
+     * </pre>
+     */
+    public final int pollUpTo(long watermark, Queue<T> released) {
+        assert released != null : "Violation of: released is not null";
+
+        int count = 0;
+        while (this.size > 0 && this.times[0] <= watermark) {
+            released.enqueue(this.removeEarliest());
+            count++;
+        }
+        if (watermark > this.watermark) {
+            this.watermark = watermark;
+        }
+
+        assert this.conventionHolds();
+
+        return count;
+    }
+
+    /**
+     * Releases every buffered entry in event-time order, e.g., at end of
+     * stream.
+     *
+     * @param released
+     *            the queue the released entries are appended to
+     * @return the number of entries released
+     * @updates released
+     * @clears this.contents
+     * @ensures <pre>
+     * released = #released * [entries of #this.contents, in event-time order]
+     * </pre>
+     */
+    public final int pollAll(Queue<T> released) {
+        assert released != null : "Violation of: released is not null";
+
+        int count = this.size;
+        while (this.size > 0) {
+            released.enqueue(this.removeEarliest());
+        }
+
+        assert this.conventionHolds();
+
+        return count;
+    }
+
+    /**
+     * Reports whether {@code x} is at or before the current watermark, i.e.,
+     * whether entries after it in event-time order may already have been
+     * released.
+     *
+     * @param x
+     *            the entry to check
+     * @return true iff {@code x} is late
+     * @ensures isLate = [event time of x <= this.watermark]
+     */
+    public final boolean isLate(T x) {
+        assert x != null : "Violation of: x is not null";
+
+        return this.eventTime.applyAsLong(x) <= this.watermark;
+    }
+
+    /**
+     * Reports the current watermark.
+     *
+     * @return the current watermark, or {@code Long.MIN_VALUE} if
+     *         {@code pollUpTo} has not been called
+     * @ensures watermark = this.watermark
+     */
+    public final long watermark() {
+        return this.watermark;
+    }
+
+    /**
+     * Reports the number of buffered entries.
+     *
+     * @return the number of buffered entries
+     * @ensures size = |this.contents|
+     */
+    public final int size() {
+        return this.size;
+    }
+
+    /**
+     * Reports how many more entries can be added before the buffer is full.
+     *
+     * @return the remaining capacity
+     * @ensures remainingCapacity = [capacity] - |this.contents|
+     */
+    public final int remainingCapacity() {
+        return this.heap.length - this.size;
+    }
+
+}
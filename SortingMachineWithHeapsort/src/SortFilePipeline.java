@@ -0,0 +1,447 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Comparator;
+import java.util.Locale;
+
+/**
+ * Sorts the lines of a UTF-8 text file into another file with a
+ * {@code SortingMachine5a}. The input is memory-mapped one window at a time
+ * and its lines are decoded straight from the mapping and handed to the
+ * machine in batches through {@code addAll}. The sorted lines are encoded
+ * into a large direct buffer that is written with {@code FileChannel.write},
+ * so there is neither a {@code Reader} nor a {@code Writer} in the pipeline.
+ * Lines end with {@code '\n'}; a {@code '\r'} before it is dropped, and the
+ * output always ends every line with {@code '\n'}. Input that is not valid
+ * UTF-8 is reported rather than replaced, so the output differs from the
+ * input only in the order of its lines (and in line endings).
+ *
+ * <p>
+ * {@code String.compareTo} compares UTF-16 code units, which puts
+ * supplementary characters before {@code U+E000} to {@code U+FFFF}.
+ * {@code CODE_POINT_ORDER} compares code points instead, which is the order
+ * of the UTF-8 encodings as unsigned bytes (that of {@code LC_ALL=C sort}).
+ */
+public final class SortFilePipeline {
+
+    /**
+     * Order of strings by code point, which is the order of their UTF-8
+     * encodings compared as unsigned bytes.
+     */
+    public static final Comparator<String> CODE_POINT_ORDER = SortFilePipeline::compareCodePoints;
+
+    /**
+     * Default size of the input mapping window.
+     */
+    public static final int DEFAULT_WINDOW_SIZE = 1 << 28;
+
+    /**
+     * Size of the direct output buffer.
+     */
+    private static final int OUTPUT_BUFFER_SIZE = 1 << 20;
+
+    /**
+     * Number of lines handed to the machine per {@code addAll}.
+     */
+    private static final int BATCH_SIZE = 4096;
+
+    /**
+     * Bytes per megabyte, for throughput reports.
+     */
+    private static final double BYTES_PER_MB = 1 << 20;
+
+    /**
+     * Private constructor so this utility class cannot be instantiated.
+     */
+    private SortFilePipeline() {
+    }
+
+    /**
+     * Outcome of one sort.
+     */
+    public static final class Report {
+
+        /**
+         * Size of the input, in bytes.
+         */
+        private final long bytes;
+
+        /**
+         * Number of lines sorted.
+         */
+        private final long lines;
+
+        /**
+         * Elapsed time, in nanoseconds.
+         */
+        private final long nanos;
+
+        /**
+         * Constructor from counts.
+         *
+         * @param bytes
+         *            size of the input, in bytes
+         * @param lines
+         *            number of lines sorted
+         * @param nanos
+         *            elapsed time, in nanoseconds
+         */
+        private Report(long bytes, long lines, long nanos) {
+            this.bytes = bytes;
+            this.lines = lines;
+            this.nanos = nanos;
+        }
+
+        /**
+         * Reports the size of the input.
+         *
+         * @return the size of the input, in bytes
+         */
+        public long bytes() {
+            return this.bytes;
+        }
+
+        /**
+         * Reports the number of lines sorted.
+         *
+         * @return the number of lines
+         */
+        public long lines() {
+            return this.lines;
+        }
+
+        /**
+         * Reports the elapsed time.
+         *
+         * @return the elapsed time, in seconds
+         */
+        public double seconds() {
+            return this.nanos / 1e9;
+        }
+
+        /**
+         * Reports the throughput.
+         *
+         * @return the input size divided by the elapsed time, in MB/s
+         */
+        public double megabytesPerSecond() {
+            return this.bytes / BYTES_PER_MB / Math.max(this.seconds(), 1e-9);
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT,
+                    "%d lines, %.1f MB in %.3f s (%.1f MB/s)", this.lines,
+                    this.bytes / BYTES_PER_MB, this.seconds(),
+                    this.megabytesPerSecond());
+        }
+
+    }
+
+    /**
+     * Compares {@code a} and {@code b} by code point. The first code units
+     * that differ decide, as for {@code String.compareTo}, except that
+     * surrogates rank above every other code unit, as the supplementary code
+     * points they encode do.
+     *
+     * @param a
+     *            one string
+     * @param b
+     *            the other string
+     * @return negative, zero, or positive as {@code a} is before, equal to,
+     *         or after {@code b} in code point order
+     */
+    private static int compareCodePoints(String a, String b) {
+        int n = Math.min(a.length(), b.length());
+        int i = 0;
+        while (i < n && a.charAt(i) == b.charAt(i)) {
+            i++;
+        }
+        int result;
+        if (i == n) {
+            result = Integer.compare(a.length(), b.length());
+        } else {
+            result = Integer.compare(rank(a.charAt(i)), rank(b.charAt(i)));
+        }
+        return result;
+    }
+
+    /**
+     * Returns the rank of code unit {@code c} in code point order: its value,
+     * raised above every other code unit if it is a surrogate.
+     *
+     * @param c
+     *            the code unit
+     * @return the rank
+     */
+    private static int rank(char c) {
+        int rank = c;
+        if (Character.isSurrogate(c)) {
+            rank += Character.MAX_VALUE + 1;
+        }
+        return rank;
+    }
+
+    /**
+     * Decodes the line {@code window[start, end)}, dropping a final
+     * {@code '\r'}.
+     *
+     * @param window
+     *            the mapped window
+     * @param start
+     *            the index of the first byte of the line
+     * @param end
+     *            the index of the line's {@code '\n'}, or the end of the input
+     * @param scratch
+     *            buffer of at least {@code end - start} bytes
+     * @param line
+     *            the number of the line, from 1, for the error message
+     * @return the line
+     * @throws IOException
+     *             if the line is not valid UTF-8
+     */
+    private static String decode(MappedByteBuffer window, int start, int end,
+            byte[] scratch, long line) throws IOException {
+        int length = end - start;
+        if (length > 0 && window.get(end - 1) == '\r') {
+            length--;
+        }
+        window.get(start, scratch, 0, length);
+        String decoded = new String(scratch, 0, length, StandardCharsets.UTF_8);
+        /*
+         * The fast decoder replaces malformed input with U+FFFD, so only
+         * lines containing it need the strict decoder.
+         */
+        if (decoded.indexOf('\uFFFD') >= 0) {
+            try {
+                StandardCharsets.UTF_8.newDecoder()
+                        .onMalformedInput(CodingErrorAction.REPORT)
+                        .onUnmappableCharacter(CodingErrorAction.REPORT)
+                        .decode(ByteBuffer.wrap(scratch, 0, length));
+            } catch (CharacterCodingException e) {
+                throw new IOException("line " + line + " is not valid UTF-8",
+                        e);
+            }
+        }
+        return decoded;
+    }
+
+    /**
+     * Reads every line of {@code in} into {@code m}.
+     *
+     * @param in
+     *            the input channel
+     * @param m
+     *            the machine
+     * @param windowSize
+     *            size of the mapping window; doubled for any line that does
+     *            not fit
+     * @return the number of lines read
+     * @throws IOException
+     *             if the input cannot be read or is not valid UTF-8
+     * @updates m
+     * @requires m.insertion_mode  and  windowSize > 0
+     */
+    private static long readLines(FileChannel in, SortingMachine5a<String> m,
+            int windowSize) throws IOException {
+        long size = in.size();
+        long position = 0;
+        long lines = 0;
+        int window = windowSize;
+        byte[] scratch = new byte[Math.min(window, (int) Math.min(size,
+                Integer.MAX_VALUE))];
+        String[] batch = new String[BATCH_SIZE];
+        int batched = 0;
+        while (position < size) {
+            int length = (int) Math.min(window, size - position);
+            boolean atEnd = position + length == size;
+            MappedByteBuffer mapped = in.map(FileChannel.MapMode.READ_ONLY,
+                    position, length);
+            int lineStart = 0;
+            for (int i = 0; i < length; i++) {
+                if (mapped.get(i) == '\n') {
+                    batch[batched] = decode(mapped, lineStart, i, scratch,
+                            lines + 1);
+                    batched++;
+                    if (batched == BATCH_SIZE) {
+                        m.addAll(batch, 0, batched);
+                        batched = 0;
+                    }
+                    lines++;
+                    lineStart = i + 1;
+                }
+            }
+            if (atEnd) {
+                if (lineStart < length) {
+                    /*
+                     * Last line without a final newline.
+                     */
+                    batch[batched] = decode(mapped, lineStart, length,
+                            scratch, lines + 1);
+                    batched++;
+                    lines++;
+                }
+                position = size;
+            } else if (lineStart == 0) {
+                /*
+                 * A line longer than the window: retry with a larger one.
+                 */
+                window = (int) Math.min(2L * window, Integer.MAX_VALUE);
+                if (scratch.length < window) {
+                    scratch = new byte[window];
+                }
+            } else {
+                position += lineStart;
+            }
+        }
+        m.addAll(batch, 0, batched);
+        return lines;
+    }
+
+    /**
+     * Writes the lines removed from {@code m} to {@code out}.
+     *
+     * @param m
+     *            the machine
+     * @param out
+     *            the output channel
+     * @throws IOException
+     *             if the output cannot be written
+     * @clears m
+     * @requires not m.insertion_mode
+     */
+    private static void writeLines(SortingMachine5a<String> m, FileChannel out)
+            throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(OUTPUT_BUFFER_SIZE);
+        CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder();
+        while (m.size() > 0) {
+            CharBuffer line = CharBuffer.wrap(m.removeFirst());
+            encoder.reset();
+            CoderResult result = encoder.encode(line, buffer, true);
+            while (result.isOverflow()) {
+                buffer.flip();
+                while (buffer.hasRemaining()) {
+                    out.write(buffer);
+                }
+                buffer.clear();
+                result = encoder.encode(line, buffer, true);
+            }
+            if (result.isError()) {
+                result.throwException();
+            }
+            encoder.flush(buffer);
+            if (!buffer.hasRemaining()) {
+                buffer.flip();
+                while (buffer.hasRemaining()) {
+                    out.write(buffer);
+                }
+                buffer.clear();
+            }
+            buffer.put((byte) '\n');
+        }
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            out.write(buffer);
+        }
+    }
+
+    /**
+     * Sorts the lines of {@code input} according to {@code order} into
+     * {@code output}, replacing any existing file.
+     *
+     * @param input
+     *            the file to sort
+     * @param output
+     *            the file to write
+     * @param order
+     *            the order of the lines
+     * @param windowSize
+     *            size of the input mapping window, in bytes
+     * @return the report of the sort
+     * @throws IOException
+     *             if a file cannot be read or written, or the input is not
+     *             valid UTF-8
+     * @requires <pre>
+     * input /= output  and  windowSize > 0  and
+     * [order.compare may be called concurrently]
+     * </pre>
+     */
+    public static Report sort(Path input, Path output,
+            Comparator<String> order, int windowSize) throws IOException {
+        assert input != null : "Violation of: input is not null";
+        assert output != null : "Violation of: output is not null";
+        assert order != null : "Violation of: order is not null";
+        assert windowSize > 0 : "Violation of: windowSize > 0";
+
+        long begin = System.nanoTime();
+        SortingMachine5a<String> m = new SortingMachine5a<>(order);
+        long bytes;
+        long lines;
+        try (FileChannel in = FileChannel.open(input,
+                StandardOpenOption.READ)) {
+            bytes = in.size();
+            lines = readLines(in, m, windowSize);
+        }
+        m.changeToExtractionMode(Runtime.getRuntime().availableProcessors());
+        try (FileChannel out = FileChannel.open(output,
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            writeLines(m, out);
+        }
+        return new Report(bytes, lines, System.nanoTime() - begin);
+    }
+
+    /**
+     * Sorts the lines of {@code input} according to {@code order} into
+     * {@code output}, replacing any existing file.
+     *
+     * @param input
+     *            the file to sort
+     * @param output
+     *            the file to write
+     * @param order
+     *            the order of the lines
+     * @return the report of the sort
+     * @throws IOException
+     *             if a file cannot be read or written, or the input is not
+     *             valid UTF-8
+     * @requires <pre>
+     * input /= output  and  [order.compare may be called concurrently]
+     * </pre>
+     */
+    public static Report sort(Path input, Path output,
+            Comparator<String> order) throws IOException {
+        return sort(input, output, order, DEFAULT_WINDOW_SIZE);
+    }
+
+    /**
+     * Main method: sorts the file named by the first argument into the file
+     * named by the second, in {@code CODE_POINT_ORDER}, and prints the
+     * report.
+     *
+     * @param args
+     *            the command line arguments: input and output file names
+     * @throws IOException
+     *             if a file cannot be read or written
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.err.println("usage: SortFilePipeline input output");
+            return;
+        }
+        Report report = sort(Paths.get(args[0]), Paths.get(args[1]),
+                CODE_POINT_ORDER);
+        System.out.println(report);
+    }
+
+}
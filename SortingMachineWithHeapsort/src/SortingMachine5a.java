@@ -1,15 +1,53 @@
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
 import java.util.Comparator;
 import java.util.Iterator;
 import java.util.NoSuchElementException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
 
-import components.queue.Queue;
-import components.queue.Queue2;
 import components.sortingmachine.SortingMachine;
 import components.sortingmachine.SortingMachineSecondary;
 
 /**
- * {@code SortingMachine} represented as a {@code Queue} and an array (using an
- * embedding of heap sort), with implementations of primary methods.
+ * {@code SortingMachine} represented as an array (using an embedding of heap
+ * sort), with implementations of primary methods. In insertion mode the array
+ * stages the entries in insertion order; switching to extraction mode
+ * heapifies it in place.
+ *
+ * <p>
+ * Besides the heap, extraction mode has two other layouts. A partitioned
+ * build ({@code changeToExtractionMode(int)}) sorts the array in reverse so
+ * that entries are removed from its end. A lazy build
+ * ({@code changeToLazyExtractionMode()}) switches modes in constant time and
+ * then runs an incremental quicksort, mirrored so that entries are also
+ * removed from the end: each {@code removeFirst} partitions only the part of
+ * the array that can still hold the smallest entry, so removing the first
+ * {@code k} of {@code n} entries costs expected O(n + k log k).
+ *
+ * <p>
+ * The heap itself can also be built in slices
+ * ({@code changeToIncrementalExtractionMode(int)}): the switch does at most a
+ * given number of sift-downs, and each later {@code size} or
+ * {@code continueHeapConstruction} does at most that many more. Since the
+ * smallest entry is not known until every entry has been compared,
+ * {@code removeFirst} completes whatever construction remains.
+ *
+ * <p>
+ * A machine constructed with an explicit capacity keeps its array across
+ * {@code clear}, so a machine that is reused (e.g., through a
+ * {@code SortingMachine5aPool}) stops allocating once its array is large
+ * enough.
+ *
+ * <p>
+ * Once {@code enableSnapshots} has been called, {@code snapshotIterator} may
+ * be called from other threads while one thread uses the machine, e.g., by
+ * monitoring threads while a worker extracts. It never blocks the worker:
+ * every change of the array bumps a sequence number that the snapshot
+ * validates against, and a change while a snapshot is still being iterated
+ * copies the array instead of changing the one the snapshot reads. Machines
+ * that never enable snapshots skip all of this.
  *
  * @param <T>
  *            type of {@code SortingMachine} entries
@@ -42,22 +80,34 @@ import components.sortingmachine.SortingMachineSecondary;
  * </pre>
  * @convention <pre>
  * IS_TOTAL_PREORDER([relation computed by $this.machineOrder.compare method]  and
+ * 0 <= $this.heapSize <= |$this.heap|  and
+ * for all i: integer
+ *     where (0 <= i  and  i < |$this.heap|)
+ *   ([entry at position i in $this.heap is not null] iff i < $this.heapSize)  and
  * if $this.insertionMode then
- *   $this.heapSize = 0
+ *   ($this.layout = HEAP  and  $this.buildCursor = -1)
+ * else if $this.layout = HEAP then
+ *   (-1 <= $this.buildCursor < $this.heapSize  and
+ *    for all i: integer
+ *        where ($this.buildCursor < i  and  i < $this.heapSize)
+ *      SUBTREE_IS_HEAP($this.heap, i, $this.heapSize - 1,
+ *        [relation computed by $this.machineOrder.compare method]))
+ * else if $this.layout = DESCENDING then
+ *   [$this.heap[0, $this.heapSize) is in non-increasing order according
+ *    to the relation computed by $this.machineOrder.compare method]
  * else
- *   $this.entries = <>  and
- *   for all i: integer
- *       where (0 <= i  and  i < |$this.heap|)
- *     ([entry at position i in $this.heap is not null])  and
- *   SUBTREE_IS_HEAP($this.heap, 0, $this.heapSize - 1,
- *     [relation computed by $this.machineOrder.compare method])  and
- *   0 <= $this.heapSize <= |$this.heap|
+ *   ($this.lazyStack[0] = -1  and
+ *    [$this.lazyStack[0, $this.lazyTop] is strictly increasing]  and
+ *    $this.lazyStack[$this.lazyTop] < $this.heapSize  and
+ *    for all k: integer
+ *        where (0 < k  and  k <= $this.lazyTop)
+ *      [every entry of $this.heap[$this.lazyStack[k], $this.heapSize) is
+ *       at most every entry of $this.heap[0, $this.lazyStack[k]) according
+ *       to the relation computed by $this.machineOrder.compare method])
  * </pre>
  * @correspondence <pre>
- * if $this.insertionMode then
- *   this = (true, $this.machineOrder, multiset_entries($this.entries))
- * else
- *   this = (false, $this.machineOrder, multiset_entries($this.heap[0, $this.heapSize)))
+ * this = ($this.insertionMode, $this.machineOrder,
+ *         multiset_entries($this.heap[0, $this.heapSize)))
  * </pre>
  *
  * @author Ben Walls, Matt Chandran
@@ -80,12 +130,7 @@ public class SortingMachine5a<T> extends SortingMachineSecondary<T> {
     private boolean insertionMode;
 
     /**
-     * Entries.
-     */
-    private Queue<T> entries;
-
-    /**
-     * Heap.
+     * Heap (staged entries, in insertion mode).
      */
     private T[] heap;
 
@@ -94,6 +139,226 @@ public class SortingMachine5a<T> extends SortingMachineSecondary<T> {
      */
     private int heapSize;
 
+    /**
+     * Arrangement of the array in extraction mode.
+     */
+    private enum Layout {
+        /**
+         * Binary heap with the smallest entry at index 0.
+         */
+        HEAP,
+
+        /**
+         * Sorted in non-increasing order; the smallest entry is last.
+         */
+        DESCENDING,
+
+        /**
+         * Incremental quicksort in progress; the smallest entry is last once
+         * the partitioning reaches it.
+         */
+        LAZY
+    }
+
+    /**
+     * Arrangement of the array.
+     */
+    private Layout layout;
+
+    /**
+     * Positions of the entries already in their final sorted place, above the
+     * sentinel -1 (only meaningful if {@code layout} is {@code LAZY}). Once
+     * allocated it is kept across {@code clear}, for the next lazy build.
+     */
+    private int[] lazyStack;
+
+    /**
+     * Index of the top of {@code lazyStack}.
+     */
+    private int lazyTop;
+
+    /**
+     * Initial capacity of {@code lazyStack}.
+     */
+    private static final int LAZY_STACK_CAPACITY = 16;
+
+    /**
+     * Number of sampled entries per partition when choosing splitters.
+     */
+    private static final int OVERSAMPLING = 32;
+
+    /**
+     * Smallest number of entries per partition worth a parallel build.
+     */
+    private static final int MIN_PARTITION_SIZE = 4096;
+
+    /**
+     * Capacity of the array of a machine constructed without one.
+     */
+    private static final int DEFAULT_CAPACITY = 8;
+
+    /**
+     * Whether {@code clear} keeps the array. This is a property of the
+     * object, not of its value, so {@code transferFrom} does not move it.
+     */
+    private boolean retainStorage;
+
+    /**
+     * Sift loop specialized for {@code machineOrder} (see
+     * {@code HeapSiftKernels}).
+     */
+    private HeapSiftKernel kernel;
+
+    /**
+     * Position of the next entry to sift down while the heap is built in
+     * slices (counting down to the root), or -1 once it is built.
+     */
+    private int buildCursor;
+
+    /**
+     * Number of sift-downs per slice of heap construction.
+     */
+    private int buildBudget;
+
+    /**
+     * State shared with snapshot readers; null unless snapshots are enabled,
+     * so that a machine that never takes snapshots pays one null check per
+     * change. This is a property of the object, not of its value, so
+     * {@code transferFrom} does not move it.
+     */
+    private Snapshots snapshots;
+
+    /**
+     * State of a machine whose snapshots are enabled.
+     */
+    private static final class Snapshots {
+
+        /**
+         * Write sequence number, odd while {@code heap} or {@code heapSize}
+         * is being changed, so that a snapshot can tell a consistent pair
+         * from a torn one.
+         */
+        private volatile int version;
+
+        /**
+         * Number of snapshots that may still be reading the current array.
+         * The array is copied before it is next changed only if this is
+         * positive; the copy then gets a fresh counter, and readers of the
+         * old array keep decrementing the old one.
+         */
+        private volatile AtomicInteger readers = new AtomicInteger();
+
+    }
+
+    /**
+     * Marks the start of a change of {@code $this.heap} or
+     * {@code $this.heapSize}, copying the array first if a snapshot is still
+     * reading it. Only the thread using the machine calls it, and calls do
+     * not nest.
+     *
+     * @updates $this.snapshots, $this.heap
+     * @ensures <pre>
+     * $this.heap = #$this.heap  and
+     * [$this.heap is not the array read by any unfinished snapshot]
+     * </pre>
+     */
+    private void beginWrite() {
+        Snapshots s = this.snapshots;
+        if (s != null) {
+            s.version++;
+            if (s.readers.get() > 0) {
+                s.readers = new AtomicInteger();
+                this.heap = this.heap.clone();
+            }
+        }
+    }
+
+    /**
+     * Marks the start of a change that replaces {@code $this.heap} by another
+     * array without changing the current one, which snapshots may therefore
+     * keep reading.
+     *
+     * @updates $this.snapshots
+     */
+    private void beginReplace() {
+        Snapshots s = this.snapshots;
+        if (s != null) {
+            s.version++;
+            s.readers = new AtomicInteger();
+        }
+    }
+
+    /**
+     * Marks the end of a change begun by {@code beginWrite} or
+     * {@code beginReplace}.
+     *
+     * @updates $this.snapshots
+     */
+    private void endWrite() {
+        Snapshots s = this.snapshots;
+        if (s != null) {
+            assert (s.version & 1) == 1 : ""
+                    + "Violation of: $this.snapshots.version is odd";
+            s.version++;
+        }
+    }
+
+    /**
+     * Picks the sift kernel for the entry class when the order is the natural
+     * one.
+     *
+     * @updates $this.kernel
+     */
+    private void selectKernel() {
+        if (this.heapSize > 0
+                && this.machineOrder == Comparator.naturalOrder()) {
+            this.kernel = HeapSiftKernels.forOrder(this.machineOrder,
+                    this.heap[0].getClass());
+        }
+    }
+
+    /**
+     * Performs up to {@code budget} of the sift-downs that remain in the
+     * construction of the heap.
+     *
+     * @param budget
+     *            the maximum number of sift-downs
+     * @updates $this.heap, $this.buildCursor
+     * @requires $this.layout = HEAP  and  budget > 0
+     * @ensures <pre>
+     * perms($this.heap, #$this.heap)  and
+     * $this.buildCursor = max(-1, #$this.buildCursor - budget)
+     * </pre>
+     */
+    private void buildSlice(int budget) {
+        int stop = Math.max(-1, this.buildCursor - budget);
+        int last = this.heapSize - 1;
+        for (int i = this.buildCursor; i > stop; i--) {
+            this.kernel.siftDown(this.heap, i, last, this.machineOrder);
+        }
+        this.buildCursor = stop;
+    }
+
+    /**
+     * Turns {@code $this.heap[0, $this.heapSize)} into a heap, first picking
+     * the sift kernel for the entry class when the order is the natural one.
+     *
+     * @updates $this.heap, $this.kernel, $this.buildCursor
+     * @ensures <pre>
+     * SUBTREE_IS_HEAP($this.heap, 0, $this.heapSize - 1,
+     *   [relation computed by $this.machineOrder.compare method])  and
+     * perms($this.heap, #$this.heap)
+     * </pre>
+     */
+    private void buildHeap() {
+        this.selectKernel();
+        if (this.heapSize > 0) {
+            this.kernel.heapify(this.heap, this.heapSize - 1,
+                    this.machineOrder);
+        }
+        this.buildCursor = -1;
+    }
+
     /**
      * Exchanges entries at indices {@code i} and {@code j} of {@code array}.
      *
@@ -122,155 +387,30 @@ public class SortingMachine5a<T> extends SortingMachineSecondary<T> {
     }
 
     /**
-     * Given an array that represents a complete binary tree and an index
-     * referring to the root of a subtree that would be a heap except for its
-     * root, sifts the root down to turn that whole subtree into a heap.
-     *
-     * @param <T>
-     *            type of array entries
-     * @param array
-     *            the complete binary tree
-     * @param top
-     *            the index of the root of the "subtree"
-     * @param last
-     *            the index of the last entry in the heap
-     * @param order
-     *            total preorder for sorting
-     * @updates array
-     * @requires <pre>
-     * 0 <= top  and  last < |array|  and
-     * for all i: integer
-     *     where (0 <= i  and  i < |array|)
-     *   ([entry at position i in array is not null])  and
-     * [subtree rooted at {@code top} is a complete binary tree]  and
-     * SUBTREE_IS_HEAP(array, 2 * top + 1, last,
-     *     [relation computed by order.compare method])  and
-     * SUBTREE_IS_HEAP(array, 2 * top + 2, last,
-     *     [relation computed by order.compare method])  and
-     * IS_TOTAL_PREORDER([relation computed by order.compare method])
-     * </pre>
-     * @ensures <pre>
-     * SUBTREE_IS_HEAP(array, top, last,
-     *     [relation computed by order.compare method])  and
-     * perms(array, #array)  and
-     * SUBTREE_ARRAY_ENTRIES(array, top, last) =
-     *  SUBTREE_ARRAY_ENTRIES(#array, top, last)  and
-     * [the other entries in array are the same as in #array]
-     * </pre>
-     */
-    private static <T> void siftDown(T[] array, int top, int last,
-            Comparator<T> order) {
-        int left = 2 * top + 1;
-        int right = 2 * top + 2;
-
-        if (right <= last) {
-            int minIndex = left;
-            if (order.compare(array[right], array[left]) <= 0) {
-                minIndex = right;
-            }
-            if (order.compare(array[minIndex], array[top]) < 0) {
-                exchangeEntries(array, top, minIndex);
-                siftDown(array, minIndex, last, order);
-            }
-        } else if (left <= last && order.compare(array[left], array[top]) < 0) {
-            exchangeEntries(array, top, left);
-            siftDown(array, left, last, order);
-        }
-    }
-
-    /**
-     * Heapifies the subtree of the given array rooted at the given {@code top}.
+     * Ensures {@code array} can hold at least {@code capacity} entries,
+     * returning either {@code array} itself or a larger copy of it.
      *
      * @param <T>
      *            type of array entries
      * @param array
-     *            the complete binary tree
-     * @param top
-     *            the index of the root of the "subtree" to heapify
-     * @param order
-     *            the total preorder for sorting
-     * @updates array
-     * @requires <pre>
-     * 0 <= top  and
-     * for all i: integer
-     *     where (0 <= i  and  i < |array|)
-     *   ([entry at position i in array is not null])  and
-     * [subtree rooted at {@code top} is a complete binary tree]  and
-     * IS_TOTAL_PREORDER([relation computed by order.compare method])
-     * </pre>
-     * @ensures <pre>
-     * SUBTREE_IS_HEAP(array, top, |array| - 1,
-     *     [relation computed by order.compare method])  and
-     * perms(array, #array)
-     * </pre>
-     */
-    private static <T> void heapify(T[] array, int top, Comparator<T> order) {
-        assert array != null : "Violation of: array is not null";
-        assert order != null : "Violation of: order is not null";
-        assert 0 <= top : "Violation of: 0 <= top";
-        for (int i = 0; i < array.length; i++) {
-            assert array[i] != null : ""
-                    + "Violation of: all entries in array are not null";
-        }
-
-        int left = 2 * top + 1;
-        int right = 2 * top + 2;
-
-        if (left < array.length) {
-            heapify(array, left, order);
-        }
-        if (right < array.length) {
-            heapify(array, right, order);
-        }
-
-        siftDown(array, top, array.length - 1, order);
-    }
-
-    /**
-     * Constructs and returns an array representing a heap with the entries from
-     * the given {@code Queue}.
-     *
-     * @param <T>
-     *            type of {@code Queue} and array entries
-     * @param q
-     *            the {@code Queue} with the entries for the heap
-     * @param order
-     *            the total preorder for sorting
-     * @return the array representation of a heap
-     * @clears q
-     * @requires IS_TOTAL_PREORDER([relation computed by order.compare method])
+     *            the array
+     * @param capacity
+     *            the number of entries needed
+     * @return an array with at least {@code capacity} entries whose prefix is
+     *         {@code array}
      * @ensures <pre>
-     * SUBTREE_IS_HEAP(buildHeap, 0, |buildHeap| - 1)  and
-     * perms(buildHeap, #q)  and
-     * for all i: integer
-     *     where (0 <= i  and  i < |buildHeap|)
-     *   ([entry at position i in buildHeap is not null])  and
+     * |ensureCapacity| >= capacity  and
+     * ensureCapacity[0, |array|) = array  and
+     * [the other entries of ensureCapacity are null]
      * </pre>
      */
-    @SuppressWarnings("unchecked")
-    private static <T> T[] buildHeap(Queue<T> q, Comparator<T> order) {
-        assert q != null : "Violation of: q is not null";
-        assert order != null : "Violation of: order is not null";
-        /*
-         * Impractical to check the requires clause.
-         */
-        /*
-         * With "new T[...]" in place of "new Object[...]" it does not compile;
-         * as shown, it results in a warning about an unchecked cast, though it
-         * cannot fail.
-         */
-        T[] heap = (T[]) (new Object[q.length()]);
-
-        int index = 0;
-        while (q.length() > 0) {
-            T entry = q.dequeue();
-            heap[index] = entry;
-            index++;
+    private static <T> T[] ensureCapacity(T[] array, int capacity) {
+        T[] result = array;
+        if (capacity > array.length) {
+            result = Arrays.copyOf(array,
+                    Math.max(capacity, 2 * array.length));
         }
-
-        heapify(heap, 0, order);
-
-        return heap;
+        return result;
     }
 
     /**
@@ -292,7 +432,7 @@ public class SortingMachine5a<T> extends SortingMachineSecondary<T> {
      * @requires <pre>
      * 0 <= top  and  last < |array|  and
      * for all i: integer
-     *     where (0 <= i  and  i < |array|)
+     *     where (0 <= i  and  i <= last)
      *   ([entry at position i in array is not null])  and
      * [subtree rooted at {@code top} is a complete binary tree]
      * </pre>
@@ -306,7 +446,7 @@ public class SortingMachine5a<T> extends SortingMachineSecondary<T> {
         assert array != null : "Violation of: array is not null";
         assert 0 <= top : "Violation of: 0 <= top";
         assert last < array.length : "Violation of: last < |array|";
-        for (int i = 0; i < array.length; i++) {
+        for (int i = 0; i <= last; i++) {
             assert array[i] != null : ""
                     + "Violation of: all entries in array are not null";
         }
@@ -330,94 +470,610 @@ public class SortingMachine5a<T> extends SortingMachineSecondary<T> {
     }
 
     /**
-     * Checks that the part of the convention repeated below holds for the
-     * current representation.
+     * Sorts {@code array[0, n)} into non-increasing order according to
+     * {@code order}, by sampling {@code partitions - 1} splitters, scattering
+     * the entries into that many contiguous buckets, and sorting the buckets
+     * in parallel on the common {@code ForkJoinPool}.
      *
-     * @return true if the convention holds (or if assertion checking is off);
-     *         otherwise reports a violated assertion
-     * @convention <pre>
-     * if $this.insertionMode then
-     *   $this.heapSize = 0
-     * else
-     *   $this.entries = <>  and
-     *   for all i: integer
-     *       where (0 <= i  and  i < |$this.heap|)
-     *     ([entry at position i in $this.heap is not null])  and
-     *   SUBTREE_IS_HEAP($this.heap, 0, $this.heapSize - 1,
-     *     [relation computed by $this.machineOrder.compare method])  and
-     *   0 <= $this.heapSize <= |$this.heap|
+     * @param <T>
+     *            type of array entries
+     * @param array
+     *            the array whose prefix is sorted
+     * @param n
+     *            the number of entries to sort
+     * @param partitions
+     *            the number of buckets
+     * @param order
+     *            total preorder for sorting
+     * @updates array
+     * @requires <pre>
+     * partitions > 1  and  0 < n <= |array|  and
+     * for all i: integer
+     *     where (0 <= i  and  i < n)
+     *   ([entry at position i in array is not null])  and
+     * IS_TOTAL_PREORDER([relation computed by order.compare method])  and
+     * [order.compare may be called concurrently]
+     * </pre>
+     * @ensures <pre>
+     * perms(array[0, n), #array[0, n))  and
+     * [array[0, n) is in non-increasing order according to the relation
+     *  computed by order.compare method]  and
+     * [the other entries in array are the same as in #array]
      * </pre>
      */
-    private boolean conventionHolds() {
-        if (this.insertionMode) {
-            assert this.heapSize == 0 : ""
-                    + "Violation of: if $this.insertionMode then $this.heapSize = 0";
-        } else {
-            assert this.entries.length() == 0 : ""
-                    + "Violation of: if not $this.insertionMode then $this.entries = <>";
-            assert 0 <= this.heapSize : ""
-                    + "Violation of: if not $this.insertionMode then 0 <= $this.heapSize";
-            assert this.heapSize <= this.heap.length : ""
-                    + "Violation of: if not $this.insertionMode then"
-                    + " $this.heapSize <= |$this.heap|";
-            for (int i = 0; i < this.heap.length; i++) {
-                assert this.heap[i] != null : ""
-                        + "Violation of: if not $this.insertionMode then"
-                        + " all entries in $this.heap are not null";
+    @SuppressWarnings("unchecked")
+    private static <T> void partitionedSort(T[] array, int n, int partitions,
+            Comparator<T> order) {
+        assert array != null : "Violation of: array is not null";
+        assert partitions > 1 : "Violation of: partitions > 1";
+        assert 0 < n : "Violation of: 0 < n";
+        assert n <= array.length : "Violation of: n <= |array|";
+        assert order != null : "Violation of: order is not null";
+
+        Comparator<T> reverse = order.reversed();
+
+        /*
+         * Choose evenly spaced splitters from a sorted random sample.
+         */
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        T[] sample = (T[]) (new Object[partitions * OVERSAMPLING]);
+        for (int i = 0; i < sample.length; i++) {
+            sample[i] = array[random.nextInt(n)];
+        }
+        Arrays.sort(sample, reverse);
+        T[] splitters = (T[]) (new Object[partitions - 1]);
+        for (int i = 0; i < splitters.length; i++) {
+            splitters[i] = sample[(i + 1) * OVERSAMPLING];
+        }
+
+        /*
+         * Classifying is where the comparisons are, so do it in parallel; the
+         * counting and scattering that follow are cheap linear passes.
+         */
+        int[] bucketOf = new int[n];
+        IntStream.range(0, n).parallel().forEach(i -> {
+            int low = 0;
+            int high = splitters.length;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (reverse.compare(array[i], splitters[mid]) < 0) {
+                    high = mid;
+                } else {
+                    low = mid + 1;
+                }
             }
-            assert isHeap(this.heap, 0, this.heapSize - 1,
-                    this.machineOrder) : ""
-                            + "Violation of: if not $this.insertionMode then"
-                            + " SUBTREE_IS_HEAP($this.heap, 0, $this.heapSize - 1,"
-                            + " [relation computed by $this.machineOrder.compare"
-                            + " method])";
+            bucketOf[i] = low;
+        });
+        int[] start = new int[partitions + 1];
+        for (int i = 0; i < n; i++) {
+            start[bucketOf[i] + 1]++;
         }
-        return true;
+        for (int b = 0; b < partitions; b++) {
+            start[b + 1] += start[b];
+        }
+        int[] next = Arrays.copyOf(start, partitions);
+        T[] scattered = (T[]) (new Object[n]);
+        for (int i = 0; i < n; i++) {
+            scattered[next[bucketOf[i]]] = array[i];
+            next[bucketOf[i]]++;
+        }
+        System.arraycopy(scattered, 0, array, 0, n);
+
+        IntStream.range(0, partitions).parallel().forEach(
+                b -> Arrays.sort(array, start[b], start[b + 1], reverse));
     }
 
     /**
-     * Creator of initial representation.
+     * Checks if the given {@code array} is in non-increasing order through
+     * index {@code last}.
      *
+     * @param <T>
+     *            type of array entries
+     * @param array
+     *            the array
+     * @param last
+     *            the index of the last entry to check
      * @param order
      *            total preorder for sorting
-     * @requires IS_TOTAL_PREORDER([relation computed by order.compare method]
+     * @return true if {@code array[0, last]} is in non-increasing order
+     * @requires last < |array|
      * @ensures <pre>
-     * $this.insertionMode = true  and
-     * $this.machineOrder = order  and
-     * $this.entries = <>  and
-     * $this.heapSize = 0
+     * isNonIncreasing = [array[0, last] is in non-increasing order according
+     *   to the relation computed by order.compare method]
      * </pre>
      */
-    private void createNewRep(Comparator<T> order) {
-
-        this.insertionMode = true;
-        this.machineOrder = order;
-        this.entries = new Queue2<>();
-        this.heapSize = 0;
+    private static <T> boolean isNonIncreasing(T[] array, int last,
+            Comparator<T> order) {
+        boolean result = true;
+        for (int i = 1; i <= last && result; i++) {
+            result = order.compare(array[i - 1], array[i]) >= 0;
+        }
+        return result;
     }
 
-    /*
-     * Constructors -----------------------------------------------------------
-     */
-
     /**
-     * Constructor from order.
+     * Checks that every pivot position on {@code stack} splits
+     * {@code array[0, n)} into a part of larger entries followed by a part of
+     * smaller ones.
      *
+     * @param <T>
+     *            type of array entries
+     * @param array
+     *            the array
+     * @param n
+     *            the number of entries to check
+     * @param stack
+     *            the pivot positions, above a sentinel
+     * @param top
+     *            the index of the top of {@code stack}
      * @param order
      *            total preorder for sorting
+     * @return true if every pivot position splits {@code array[0, n)}
+     * @requires <pre>
+     * 0 <= top < |stack|  and  n <= |array|  and
+     * [stack[1, top] are in [0, n)]
+     * </pre>
+     * @ensures <pre>
+     * isSplitBy = for all k: integer
+     *     where (0 < k  and  k <= top)
+     *   [every entry of array[stack[k], n) is at most every entry of
+     *    array[0, stack[k]) according to the relation computed by
+     *    order.compare method]
+     * </pre>
      */
-    public SortingMachine5a(Comparator<T> order) {
-        this.createNewRep(order);
-        assert this.conventionHolds();
-    }
-
-    /*
+    @SuppressWarnings("unchecked")
+    private static <T> boolean isSplitBy(T[] array, int n, int[] stack,
+            int top, Comparator<T> order) {
+        /*
+         * largestAfter[i] is a largest entry of array[i, n).
+         */
+        T[] largestAfter = (T[]) (new Object[n + 1]);
+        for (int i = n - 1; i >= 0; i--) {
+            if (i == n - 1
+                    || order.compare(array[i], largestAfter[i + 1]) > 0) {
+                largestAfter[i] = array[i];
+            } else {
+                largestAfter[i] = largestAfter[i + 1];
+            }
+        }
+        boolean result = true;
+        T smallestBefore = null;
+        int k = 1;
+        for (int i = 0; i < n && k <= top && result; i++) {
+            if (i == stack[k]) {
+                result = smallestBefore == null || order
+                        .compare(largestAfter[i], smallestBefore) <= 0;
+                k++;
+            }
+            if (smallestBefore == null
+                    || order.compare(array[i], smallestBefore) < 0) {
+                smallestBefore = array[i];
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the entry that would be at index {@code k} of {@code array[0, n)}
+     * if it were sorted, rearranging {@code array[0, n)} by quickselect with
+     * random pivots and three-way partitions (expected O(n) comparisons).
+     *
+     * @param <T>
+     *            type of array entries
+     * @param array
+     *            the array
+     * @param n
+     *            the number of entries to select from
+     * @param k
+     *            the rank of the entry to select
+     * @param order
+     *            total preorder for sorting
+     * @return the entry of rank {@code k}
+     * @updates array
+     * @requires <pre>
+     * 0 <= k < n <= |array|  and  [entries array[0, n) are not null]
+     * </pre>
+     * @ensures <pre>
+     * perms(array[0, n), #array[0, n))  and
+     * [select is the entry at index k of #array[0, n) sorted according to the
+     *  relation computed by order.compare method]
+     * </pre>
+     */
+    private static <T> T select(T[] array, int n, int k,
+            Comparator<T> order) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int lo = 0;
+        int hi = n - 1;
+        T result = null;
+        while (result == null) {
+            T pivot = array[lo + random.nextInt(hi - lo + 1)];
+            /*
+             * Invariant: a[lo, lt) < pivot, a[lt, i) = pivot, a(gt, hi] >
+             * pivot.
+             */
+            int lt = lo;
+            int i = lo;
+            int gt = hi;
+            while (i <= gt) {
+                int cmp = order.compare(array[i], pivot);
+                if (cmp < 0) {
+                    exchangeEntries(array, lt, i);
+                    lt++;
+                    i++;
+                } else if (cmp > 0) {
+                    exchangeEntries(array, i, gt);
+                    gt--;
+                } else {
+                    i++;
+                }
+            }
+            if (k < lt) {
+                hi = lt - 1;
+            } else if (k > gt) {
+                lo = gt + 1;
+            } else {
+                result = pivot;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the entry of rank {@code k} of the heap {@code $this.heap} by a
+     * best-first walk from the root, keeping the frontier in a heap of
+     * positions (O(k log k) comparisons).
+     *
+     * @param k
+     *            the rank of the entry to find
+     * @return the entry of rank {@code k}
+     * @requires <pre>
+     * $this.layout = HEAP  and  $this.buildCursor = -1  and
+     * 0 <= k < $this.heapSize
+     * </pre>
+     * @ensures <pre>
+     * [kthOfHeap is the entry at index k of $this.heap[0, $this.heapSize)
+     *  sorted according to the relation computed by
+     *  $this.machineOrder.compare method]
+     * </pre>
+     */
+    private T kthOfHeap(int k) {
+        T[] a = this.heap;
+        Comparator<T> order = this.machineOrder;
+        int[] frontier = new int[k + 2];
+        frontier[0] = 0;
+        int size = 1;
+        for (int r = 0; r < k; r++) {
+            /*
+             * Replace the smallest position with its children.
+             */
+            int top = frontier[0];
+            size--;
+            int moved = frontier[size];
+            int hole = 0;
+            int child = 1;
+            while (child < size) {
+                if (child + 1 < size && order.compare(a[frontier[child + 1]],
+                        a[frontier[child]]) < 0) {
+                    child++;
+                }
+                if (order.compare(a[frontier[child]], a[moved]) >= 0) {
+                    break;
+                }
+                frontier[hole] = frontier[child];
+                hole = child;
+                child = 2 * hole + 1;
+            }
+            if (size > 0) {
+                frontier[hole] = moved;
+            }
+            for (int c = 2 * top + 1; c <= 2 * top + 2
+                    && c < this.heapSize; c++) {
+                hole = size;
+                size++;
+                while (hole > 0 && order.compare(a[c],
+                        a[frontier[(hole - 1) / 2]]) < 0) {
+                    frontier[hole] = frontier[(hole - 1) / 2];
+                    hole = (hole - 1) / 2;
+                }
+                frontier[hole] = c;
+            }
+        }
+        return a[frontier[0]];
+    }
+
+    /**
+     * Pushes {@code position} onto {@code $this.lazyStack}, growing it if
+     * needed.
+     *
+     * @param position
+     *            the pivot position
+     * @updates $this.lazyStack, $this.lazyTop
+     * @requires position > $this.lazyStack[$this.lazyTop]
+     * @ensures <pre>
+     * $this.lazyTop = #$this.lazyTop + 1  and
+     * $this.lazyStack[0, $this.lazyTop) = #$this.lazyStack[0, #$this.lazyTop]  and
+     * $this.lazyStack[$this.lazyTop] = position
+     * </pre>
+     */
+    private void pushPivot(int position) {
+        this.lazyTop++;
+        if (this.lazyTop == this.lazyStack.length) {
+            this.lazyStack = Arrays.copyOf(this.lazyStack,
+                    2 * this.lazyStack.length);
+        }
+        this.lazyStack[this.lazyTop] = position;
+    }
+
+    /**
+     * Partitions the part of {@code $this.heap} after the top pivot position
+     * until the top pivot position is the last entry, which is then a
+     * smallest entry. Each round is a three-way partition around a random
+     * pivot with larger entries moved to the front. Every entry equal to the
+     * pivot is then in its final position, so all of their positions are
+     * pushed and such entries are never partitioned again.
+     *
+     * @updates $this.heap, $this.lazyStack, $this.lazyTop
+     * @requires $this.layout = LAZY  and  $this.heapSize > 0
+     * @ensures <pre>
+     * perms($this.heap, #$this.heap)  and
+     * $this.lazyStack[$this.lazyTop] = $this.heapSize - 1
+     * </pre>
+     */
+    private void partitionToLast() {
+        T[] a = this.heap;
+        Comparator<T> order = this.machineOrder;
+        int hi = this.heapSize - 1;
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        while (this.lazyStack[this.lazyTop] < hi) {
+            int lo = this.lazyStack[this.lazyTop] + 1;
+            T pivot = a[lo + random.nextInt(hi - lo + 1)];
+            /*
+             * Invariant: a[lo, lt) > pivot, a[lt, i) = pivot, a(gt, hi] <
+             * pivot.
+             */
+            int lt = lo;
+            int i = lo;
+            int gt = hi;
+            while (i <= gt) {
+                int cmp = order.compare(a[i], pivot);
+                if (cmp > 0) {
+                    exchangeEntries(a, lt, i);
+                    lt++;
+                    i++;
+                } else if (cmp < 0) {
+                    exchangeEntries(a, i, gt);
+                    gt--;
+                } else {
+                    i++;
+                }
+            }
+            for (int k = lt; k <= gt; k++) {
+                this.pushPivot(k);
+            }
+        }
+    }
+
+    /**
+     * Checks that the part of the convention repeated below holds for the
+     * current representation.
+     *
+     * @return true if the convention holds (or if assertion checking is off);
+     *         otherwise reports a violated assertion
+     * @convention <pre>
+     * 0 <= $this.heapSize <= |$this.heap|  and
+     * for all i: integer
+     *     where (0 <= i  and  i < |$this.heap|)
+     *   ([entry at position i in $this.heap is not null] iff i < $this.heapSize)  and
+     * if $this.insertionMode then
+     *   ($this.layout = HEAP  and  $this.buildCursor = -1)
+     * else if $this.layout = HEAP then
+     *   (-1 <= $this.buildCursor < $this.heapSize  and
+     *    for all i: integer
+     *        where ($this.buildCursor < i  and  i < $this.heapSize)
+     *      SUBTREE_IS_HEAP($this.heap, i, $this.heapSize - 1,
+     *        [relation computed by $this.machineOrder.compare method]))
+     * else if $this.layout = DESCENDING then
+     *   [$this.heap[0, $this.heapSize) is in non-increasing order according
+     *    to the relation computed by $this.machineOrder.compare method]
+     * else
+     *   ($this.lazyStack[0] = -1  and
+     *    [$this.lazyStack[0, $this.lazyTop] is strictly increasing]  and
+     *    $this.lazyStack[$this.lazyTop] < $this.heapSize  and
+     *    for all k: integer
+     *        where (0 < k  and  k <= $this.lazyTop)
+     *      [every entry of $this.heap[$this.lazyStack[k], $this.heapSize) is
+     *       at most every entry of $this.heap[0, $this.lazyStack[k]) according
+     *       to the relation computed by $this.machineOrder.compare method])
+     * </pre>
+     */
+    private boolean conventionHolds() {
+        assert 0 <= this.heapSize : "Violation of: 0 <= $this.heapSize";
+        assert this.heapSize <= this.heap.length : ""
+                + "Violation of: $this.heapSize <= |$this.heap|";
+        for (int i = 0; i < this.heap.length; i++) {
+            assert (this.heap[i] != null) == (i < this.heapSize) : ""
+                    + "Violation of: [entry at position i in $this.heap is"
+                    + " not null] iff i < $this.heapSize";
+        }
+        if (this.insertionMode) {
+            assert this.layout == Layout.HEAP && this.buildCursor == -1 : ""
+                    + "Violation of: if $this.insertionMode then"
+                    + " ($this.layout = HEAP  and  $this.buildCursor = -1)";
+        } else if (this.layout == Layout.HEAP && this.buildCursor < 0) {
+            assert isHeap(this.heap, 0, this.heapSize - 1,
+                    this.machineOrder) : ""
+                            + "Violation of: if $this.layout = HEAP then"
+                            + " SUBTREE_IS_HEAP($this.heap, 0, $this.heapSize - 1,"
+                            + " [relation computed by $this.machineOrder.compare"
+                            + " method])";
+        } else if (this.layout == Layout.HEAP) {
+            assert this.buildCursor < this.heapSize : ""
+                    + "Violation of: $this.buildCursor < $this.heapSize";
+            for (int i = 2 * this.buildCursor + 3; i < this.heapSize; i++) {
+                assert this.machineOrder.compare(this.heap[(i - 1) / 2],
+                        this.heap[i]) <= 0 : ""
+                                + "Violation of: [subtrees after"
+                                + " $this.buildCursor are heaps]";
+            }
+        } else if (this.layout == Layout.DESCENDING) {
+            assert isNonIncreasing(this.heap, this.heapSize - 1,
+                    this.machineOrder) : ""
+                            + "Violation of: if $this.layout = DESCENDING then"
+                            + " [$this.heap[0, $this.heapSize) is in"
+                            + " non-increasing order]";
+        } else {
+            assert this.lazyStack[0] == -1 : ""
+                    + "Violation of: $this.lazyStack[0] = -1";
+            for (int k = 1; k <= this.lazyTop; k++) {
+                assert this.lazyStack[k - 1] < this.lazyStack[k] : ""
+                        + "Violation of: [$this.lazyStack[0, $this.lazyTop]"
+                        + " is strictly increasing]";
+            }
+            assert this.lazyStack[this.lazyTop] < this.heapSize : ""
+                    + "Violation of: $this.lazyStack[$this.lazyTop]"
+                    + " < $this.heapSize";
+            assert isSplitBy(this.heap, this.heapSize, this.lazyStack,
+                    this.lazyTop, this.machineOrder) : ""
+                            + "Violation of: [every pivot position splits"
+                            + " $this.heap[0, $this.heapSize)]";
+        }
+        return true;
+    }
+
+    /**
+     * Creator of initial representation.
+     *
+     * @param order
+     *            total preorder for sorting
+     * @param capacity
+     *            initial length of the array
+     * @requires <pre>
+     * IS_TOTAL_PREORDER([relation computed by order.compare method]  and
+     * capacity >= 0
+     * </pre>
+     * @ensures <pre>
+     * $this.insertionMode = true  and
+     * $this.machineOrder = order  and
+     * |$this.heap| = capacity  and
+     * $this.heapSize = 0  and
+     * $this.layout = HEAP
+     * </pre>
+     */
+    @SuppressWarnings("unchecked")
+    private void createNewRep(Comparator<T> order, int capacity) {
+
+        this.insertionMode = true;
+        this.machineOrder = order;
+        /*
+         * With "new T[...]" in place of "new Object[...]" it does not compile;
+         * as shown, it results in a warning about an unchecked cast, though it
+         * cannot fail.
+         */
+        this.heap = (T[]) (new Object[capacity]);
+        this.heapSize = 0;
+        this.layout = Layout.HEAP;
+        this.lazyStack = null;
+        this.lazyTop = 0;
+        this.kernel = HeapSiftKernels.forOrder(order, null);
+        this.buildCursor = -1;
+    }
+
+    /**
+     * Replaces the value of {@code this} by a copy of the value of
+     * {@code source}, for a {@code source} of another implementation.
+     *
+     * @param source
+     *            the {@code SortingMachine} whose value is copied
+     * @replaces this
+     * @requires source /= this
+     * @ensures this = source
+     */
+    @SuppressWarnings("unchecked")
+    private void copyFrom(SortingMachine<T> source) {
+        int n = source.size();
+        if (this.retainStorage) {
+            this.beginWrite();
+            Arrays.fill(this.heap, 0, this.heapSize, null);
+            this.heap = ensureCapacity(this.heap, n);
+        } else {
+            this.beginReplace();
+            this.heap = (T[]) (new Object[Math.max(n, DEFAULT_CAPACITY)]);
+        }
+        this.machineOrder = source.order();
+        this.insertionMode = source.isInInsertionMode();
+        this.heapSize = n;
+        this.layout = Layout.HEAP;
+        this.lazyStack = null;
+        this.lazyTop = 0;
+        this.kernel = HeapSiftKernels.forOrder(this.machineOrder, null);
+        this.buildCursor = -1;
+        /*
+         * Fill from the end, so that a source that iterates in sorted order
+         * leaves the array in the non-increasing order of the DESCENDING
+         * layout.
+         */
+        int index = n;
+        for (T x : source) {
+            index--;
+            this.heap[index] = x;
+        }
+        if (!this.insertionMode) {
+            if (isNonIncreasing(this.heap, n - 1, this.machineOrder)) {
+                this.layout = Layout.DESCENDING;
+            } else {
+                this.buildHeap();
+            }
+        }
+        this.endWrite();
+    }
+
+    /*
+     * Constructors -----------------------------------------------------------
+     */
+
+    /**
+     * Constructor from order.
+     *
+     * @param order
+     *            total preorder for sorting
+     */
+    public SortingMachine5a(Comparator<T> order) {
+        this.retainStorage = false;
+        this.createNewRep(order, DEFAULT_CAPACITY);
+        assert this.conventionHolds();
+    }
+
+    /**
+     * Constructor from order and capacity. The machine starts with room for
+     * {@code capacity} entries and keeps its storage across {@code clear}.
+     *
+     * @param order
+     *            total preorder for sorting
+     * @param capacity
+     *            number of entries to allocate room for
+     * @requires capacity >= 0
+     */
+    public SortingMachine5a(Comparator<T> order, int capacity) {
+        assert capacity >= 0 : "Violation of: capacity >= 0";
+
+        this.retainStorage = true;
+        this.createNewRep(order, capacity);
+        assert this.conventionHolds();
+    }
+
+    /*
      * Standard methods -------------------------------------------------------
      */
 
     @SuppressWarnings("unchecked")
     @Override
     public final SortingMachine<T> newInstance() {
+        if (this.getClass() == SortingMachine5a.class) {
+            /*
+             * No need for reflection when this is not a subclass.
+             */
+            return new SortingMachine5a<T>(this.machineOrder);
+        }
         try {
             return this.getClass().getConstructor(Comparator.class)
                     .newInstance(this.machineOrder);
@@ -429,31 +1085,425 @@ public class SortingMachine5a<T> extends SortingMachineSecondary<T> {
 
     @Override
     public final void clear() {
-        this.createNewRep(this.machineOrder);
+        if (this.retainStorage) {
+            this.beginWrite();
+            Arrays.fill(this.heap, 0, this.heapSize, null);
+            this.insertionMode = true;
+            this.heapSize = 0;
+            this.layout = Layout.HEAP;
+            this.lazyTop = 0;
+            this.kernel = HeapSiftKernels.forOrder(this.machineOrder, null);
+            this.buildCursor = -1;
+        } else {
+            this.beginReplace();
+            this.createNewRep(this.machineOrder, DEFAULT_CAPACITY);
+        }
+        this.endWrite();
         assert this.conventionHolds();
     }
 
+    /**
+     * Unlike the other implementations, {@code source} may be of any dynamic
+     * type. A {@code SortingMachine5a}'s array is adopted as is; any other
+     * machine's entries are copied in one pass over its iterator and it is
+     * then cleared. A source in extraction mode stays in extraction mode:
+     * entries it iterates in sorted order are kept in that order, otherwise
+     * they are heapified in linear time.
+     *
+     * @param source
+     *            the {@code SortingMachine} whose value is transferred
+     * @replaces this
+     * @clears source
+     * @requires source /= this
+     * @ensures this = #source
+     */
     @Override
     public final void transferFrom(SortingMachine<T> source) {
         assert source != null : "Violation of: source is not null";
         assert source != this : "Violation of: source is not this";
-        assert source instanceof SortingMachine5a<?> : ""
-                + "Violation of: source is of dynamic type SortingMachine5a<?>";
+
+        if (source instanceof SortingMachine5a<?>) {
+            /*
+             * This cast cannot fail since source is of dynamic type
+             * SortingMachine5a<?>, and the ? must be T or the call would not
+             * have compiled.
+             */
+            SortingMachine5a<T> localSource = (SortingMachine5a<T>) source;
+            /*
+             * The array of this is dropped, so its snapshots can keep reading
+             * it; the array of source is adopted and later changed by this,
+             * so it is copied if a snapshot of source is still reading it.
+             */
+            this.beginReplace();
+            localSource.beginWrite();
+            this.insertionMode = localSource.insertionMode;
+            this.machineOrder = localSource.machineOrder;
+            this.heap = localSource.heap;
+            this.heapSize = localSource.heapSize;
+            this.layout = localSource.layout;
+            this.lazyStack = localSource.lazyStack;
+            this.lazyTop = localSource.lazyTop;
+            this.kernel = localSource.kernel;
+            this.buildCursor = localSource.buildCursor;
+            this.buildBudget = localSource.buildBudget;
+            localSource.createNewRep(localSource.machineOrder,
+                    DEFAULT_CAPACITY);
+            localSource.endWrite();
+            this.endWrite();
+            assert localSource.conventionHolds();
+        } else {
+            this.copyFrom(source);
+            source.clear();
+        }
+        assert this.conventionHolds();
+    }
+
+    /*
+     * Other methods ----------------------------------------------------------
+     */
+
+    /**
+     * Reports the number of entries {@code this} can hold without growing its
+     * array.
+     *
+     * @return the capacity of the array
+     */
+    final int capacity() {
+        return this.heap.length;
+    }
+
+    /**
+     * Adds the entries {@code entries[start, stop)} to {@code this} with a
+     * single capacity check and array copy, for producers that parse records
+     * in batches.
+     *
+     * @param entries
+     *            the array holding the entries to add
+     * @param start
+     *            the index of the first entry to add
+     * @param stop
+     *            the index after the last entry to add
+     * @updates this.contents
+     * @requires <pre>
+     * this.insertion_mode  and  0 <= start <= stop <= |entries|  and
+     * [entries[start, stop) are not null]
+     * </pre>
+     * @ensures <pre>
+     * this.contents = #this.contents union [multiset of entries[start, stop)]
+     * </pre>
+     */
+    public final void addAll(T[] entries, int start, int stop) {
+        assert entries != null : "Violation of: entries is not null";
+        assert this.isInInsertionMode() : "Violation of: this.insertion_mode";
+        assert 0 <= start : "Violation of: 0 <= start";
+        assert start <= stop : "Violation of: start <= stop";
+        assert stop <= entries.length : "Violation of: stop <= |entries|";
+
+        int n = stop - start;
+        this.beginWrite();
+        this.heap = ensureCapacity(this.heap, this.heapSize + n);
+        System.arraycopy(entries, start, this.heap, this.heapSize, n);
+        this.heapSize += n;
+        this.endWrite();
+
+        assert this.conventionHolds();
+    }
+
+    /**
+     * Merges the entries of {@code other} into {@code this}. The entries of
+     * {@code other} are appended to the array of {@code this}; in extraction
+     * mode the result is then re-heapified, so the cost is linear in the
+     * combined size rather than a drain and re-add of every entry.
+     *
+     * @param other
+     *            the {@code SortingMachine} whose entries are merged into
+     *            {@code this}
+     * @updates this.contents
+     * @clears other
+     * @requires <pre>
+     * other /= this  and
+     * other.insertion_mode = this.insertion_mode  and
+     * [other.ordering and this.ordering are the same relation]
+     * </pre>
+     * @ensures <pre>
+     * this = (#this.insertion_mode, #this.ordering,
+     *         #this.contents union #other.contents)
+     * </pre>
+     */
+    @SuppressWarnings("unchecked")
+    public final void merge(SortingMachine<T> other) {
+        assert other != null : "Violation of: other is not null";
+        assert other != this : "Violation of: other is not this";
+        assert other.isInInsertionMode() == this
+                .isInInsertionMode() : ""
+                        + "Violation of: other.insertion_mode = this.insertion_mode";
+
+        int n = this.heapSize + other.size();
+        this.beginWrite();
+        this.heap = ensureCapacity(this.heap, n);
+        if (other instanceof SortingMachine5a<?>) {
+            /*
+             * Same representation: copy the other machine's array directly.
+             */
+            SortingMachine5a<T> localOther = (SortingMachine5a<T>) other;
+            System.arraycopy(localOther.heap, 0, this.heap, this.heapSize,
+                    localOther.heapSize);
+        } else {
+            /*
+             * Foreign representation: one pass over its contents.
+             */
+            int index = this.heapSize;
+            for (T x : other) {
+                this.heap[index] = x;
+                index++;
+            }
+        }
+        this.heapSize = n;
+        if (!this.insertionMode) {
+            this.buildHeap();
+            this.layout = Layout.HEAP;
+            this.lazyTop = 0;
+        }
+        this.endWrite();
+        other.clear();
+
+        assert this.conventionHolds();
+    }
+
+    /**
+     * Changes the mode of {@code this} from insertion to extraction, building
+     * the extraction order in parallel: splitters are sampled from the staged
+     * entries, the entries are classified and scattered into up to
+     * {@code partitions} buckets, and the buckets are sorted. The
+     * classification and the bucket sorts run as parallel streams on the
+     * common {@code ForkJoinPool}, so the number of threads is bounded by that
+     * pool's parallelism (plus the caller), not by {@code partitions}.
+     * Afterwards {@code removeFirst} drains the buckets in order in O(1) per
+     * entry. Machines too small to benefit are built as usual.
+     *
+     * @param partitions
+     *            the maximum number of buckets (e.g., the number of cores)
+     * @updates this.insertion_mode
+     * @requires <pre>
+     * this.insertion_mode  and  partitions > 0  and
+     * [this.order().compare may be called concurrently]
+     * </pre>
+     * @ensures not this.insertion_mode
+     */
+    public final void changeToExtractionMode(int partitions) {
+        assert this.isInInsertionMode() : "Violation of: this.insertion_mode";
+        assert partitions > 0 : "Violation of: partitions > 0";
+
+        int usable = Math.min(partitions, this.heapSize / MIN_PARTITION_SIZE);
+        if (usable > 1) {
+            this.insertionMode = false;
+            this.beginWrite();
+            partitionedSort(this.heap, this.heapSize, usable,
+                    this.machineOrder);
+            this.endWrite();
+            this.layout = Layout.DESCENDING;
+            assert this.conventionHolds();
+        } else {
+            this.changeToExtractionMode();
+        }
+    }
+
+    /**
+     * Changes the mode of {@code this} from insertion to extraction in
+     * constant time. Instead of building a heap up front, each subsequent
+     * {@code removeFirst} partitions just enough of the staged entries to
+     * find the smallest one, so a caller that stops after {@code k} of
+     * {@code n} entries pays expected O(n + k log k) comparisons in all.
+     *
+     * @updates this.insertion_mode
+     * @requires this.insertion_mode
+     * @ensures not this.insertion_mode
+     */
+    public final void changeToLazyExtractionMode() {
+        assert this.isInInsertionMode() : "Violation of: this.insertion_mode";
+
+        this.insertionMode = false;
+        this.layout = Layout.LAZY;
+        if (this.lazyStack == null) {
+            this.lazyStack = new int[LAZY_STACK_CAPACITY];
+        }
+        this.lazyStack[0] = -1;
+        this.lazyTop = 0;
+
+        assert this.conventionHolds();
+    }
+
+    /**
+     * Changes the mode of {@code this} from insertion to extraction, doing at
+     * most {@code workBudget} sift-downs of the heap construction now. Each
+     * later call of {@code size} or {@code continueHeapConstruction} does at
+     * most {@code workBudget} more, and {@code removeFirst} does whatever
+     * remains.
+     *
+     * @param workBudget
+     *            the maximum number of sift-downs per call
+     * @updates this.insertion_mode
+     * @requires this.insertion_mode  and  workBudget > 0
+     * @ensures not this.insertion_mode
+     */
+    public final void changeToIncrementalExtractionMode(int workBudget) {
+        assert this.isInInsertionMode() : "Violation of: this.insertion_mode";
+        assert workBudget > 0 : "Violation of: workBudget > 0";
+
+        this.insertionMode = false;
+        this.selectKernel();
+        this.buildBudget = workBudget;
+        this.buildCursor = this.heapSize / 2 - 1;
+        this.beginWrite();
+        this.buildSlice(workBudget);
+        this.endWrite();
+
+        assert this.conventionHolds();
+    }
+
+    /**
+     * Does at most the work budget given to
+     * {@code changeToIncrementalExtractionMode} of the heap construction that
+     * remains, if any.
+     *
+     * @requires not this.insertion_mode
+     */
+    public final void continueHeapConstruction() {
+        assert !this
+                .isInInsertionMode() : "Violation of: not this.insertion_mode";
+
+        if (this.buildCursor >= 0) {
+            this.beginWrite();
+            this.buildSlice(this.buildBudget);
+            this.endWrite();
+        }
+
+        assert this.conventionHolds();
+    }
+
+    /**
+     * Reports whether no heap construction remains, so that the next
+     * {@code removeFirst} only pays for its own sift-down.
+     *
+     * @return true iff no heap construction remains
+     */
+    public final boolean isHeapConstructionComplete() {
+        assert this.conventionHolds();
+        return this.buildCursor < 0;
+    }
+
+    /**
+     * Reports a smallest entry of {@code this}, without removing it.
+     *
+     * @return a smallest entry
+     * @requires |this.contents| > 0
+     * @ensures <pre>
+     * peek is in this.contents  and
+     * for all x: T where (x is in this.contents)
+     *   ([relation computed by this.order().compare method](peek, x))
+     * </pre>
+     */
+    public final T peek() {
+        assert this.size() > 0 : "Violation of: this.contents /= {}";
+
+        T first;
+        if (this.insertionMode) {
+            first = this.heap[0];
+            for (int i = 1; i < this.heapSize; i++) {
+                if (this.machineOrder.compare(this.heap[i], first) < 0) {
+                    first = this.heap[i];
+                }
+            }
+        } else if (this.layout == Layout.LAZY) {
+            this.beginWrite();
+            this.partitionToLast();
+            this.endWrite();
+            first = this.heap[this.heapSize - 1];
+        } else if (this.layout == Layout.DESCENDING) {
+            first = this.heap[this.heapSize - 1];
+        } else {
+            if (this.buildCursor >= 0) {
+                this.beginWrite();
+                this.buildSlice(this.buildCursor + 1);
+                this.endWrite();
+            }
+            first = this.heap[0];
+        }
+
+        assert this.conventionHolds();
+
+        return first;
+    }
+
+    /**
+     * Reports the entry that would be returned by the {@code (k+1)}-st call
+     * of {@code removeFirst}, without removing anything. In extraction mode
+     * with a heap and small {@code k} this takes O(k log k) comparisons;
+     * otherwise the entries are copied and selected from in expected O(n).
+     *
+     * @param k
+     *            the 0-based rank of the entry
+     * @return the entry of rank {@code k}
+     * @requires 0 <= k < |this.contents|
+     * @ensures <pre>
+     * [kth is the entry at index k of this.contents sorted according to the
+     *  relation computed by this.order().compare method]
+     * </pre>
+     */
+    public final T kth(int k) {
+        assert 0 <= k : "Violation of: 0 <= k";
+        assert k < this.size() : "Violation of: k < |this.contents|";
+
+        T entry;
+        int logK = Integer.SIZE - Integer.numberOfLeadingZeros(k + 1);
+        if (!this.insertionMode && this.layout == Layout.DESCENDING) {
+            entry = this.heap[this.heapSize - 1 - k];
+        } else if (!this.insertionMode && this.layout == Layout.HEAP
+                && (long) k * logK < this.heapSize) {
+            if (this.buildCursor >= 0) {
+                this.beginWrite();
+                this.buildSlice(this.buildCursor + 1);
+                this.endWrite();
+            }
+            entry = this.kthOfHeap(k);
+        } else {
+            T[] copy = Arrays.copyOf(this.heap, this.heapSize);
+            entry = select(copy, this.heapSize, k, this.machineOrder);
+        }
+
+        assert this.conventionHolds();
+
+        return entry;
+    }
+
+    /**
+     * Reports the entry at percentile {@code p} of {@code this} by the
+     * nearest-rank method: the entry of 1-based rank ceil(p/100 * n), or the
+     * smallest entry if {@code p} is 0.
+     *
+     * @param p
+     *            the percentile
+     * @return the entry at percentile {@code p}
+     * @requires 0 <= p <= 100  and  |this.contents| > 0
+     * @ensures <pre>
+     * percentile = [entry at index max(ceil(p/100 * |this.contents|), 1) - 1
+     *   of this.contents sorted according to the relation computed by
+     *   this.order().compare method]
+     * </pre>
+     */
+    public final T percentile(double p) {
+        assert 0 <= p && p <= 100 : "Violation of: 0 <= p <= 100";
+        assert this.size() > 0 : "Violation of: this.contents /= {}";
+
         /*
-         * This cast cannot fail since the assert above would have stopped
-         * execution in that case: source must be of dynamic type
-         * SortingMachine5a<?>, and the ? must be T or the call would not have
-         * compiled.
+         * Multiply before dividing: p * n is exact for whole p, so the rank is
+         * exact whenever p/100 * n is an integer, while p / 100 * n can land
+         * just above it and be rounded up to the next rank (e.g., p = 14 and
+         * n = 50).
          */
-        SortingMachine5a<T> localSource = (SortingMachine5a<T>) source;
-        this.insertionMode = localSource.insertionMode;
-        this.machineOrder = localSource.machineOrder;
-        this.entries = localSource.entries;
-        this.heap = localSource.heap;
-        this.heapSize = localSource.heapSize;
-        localSource.createNewRep(localSource.machineOrder);
-        assert this.conventionHolds();
-        assert localSource.conventionHolds();
+        long rank = (long) Math.ceil(p * this.heapSize / 100);
+        int k = (int) Math.min(Math.max(rank, 1), this.heapSize) - 1;
+        return this.kth(k);
     }
 
     /*
@@ -465,7 +1515,11 @@ public class SortingMachine5a<T> extends SortingMachineSecondary<T> {
         assert x != null : "Violation of: x is not null";
         assert this.isInInsertionMode() : "Violation of: this.insertion_mode";
 
-        this.entries.enqueue(x);
+        this.beginWrite();
+        this.heap = ensureCapacity(this.heap, this.heapSize + 1);
+        this.heap[this.heapSize] = x;
+        this.heapSize++;
+        this.endWrite();
 
         assert this.conventionHolds();
     }
@@ -475,8 +1529,9 @@ public class SortingMachine5a<T> extends SortingMachineSecondary<T> {
         assert this.isInInsertionMode() : "Violation of: this.insertion_mode";
 
         this.insertionMode = false;
-        this.heap = buildHeap(this.entries, this.machineOrder);
-        this.heapSize = this.heap.length;
+        this.beginWrite();
+        this.buildHeap();
+        this.endWrite();
 
         assert this.conventionHolds();
     }
@@ -487,10 +1542,32 @@ public class SortingMachine5a<T> extends SortingMachineSecondary<T> {
                 .isInInsertionMode() : "Violation of: not this.insertion_mode";
         assert this.size() > 0 : "Violation of: this.contents /= {}";
 
-        T firstEntry = this.heap[0];
-        this.heap[0] = this.heap[this.heapSize - 1];
-        this.heapSize--;
-        siftDown(this.heap, 0, this.heapSize - 1, this.machineOrder);
+        T firstEntry;
+        this.beginWrite();
+        if (this.layout == Layout.LAZY) {
+            this.partitionToLast();
+            firstEntry = this.heap[this.heapSize - 1];
+            this.heap[this.heapSize - 1] = null;
+            this.heapSize--;
+            if (this.lazyStack[this.lazyTop] == this.heapSize) {
+                this.lazyTop--;
+            }
+        } else if (this.layout == Layout.DESCENDING) {
+            firstEntry = this.heap[this.heapSize - 1];
+            this.heap[this.heapSize - 1] = null;
+            this.heapSize--;
+        } else {
+            if (this.buildCursor >= 0) {
+                this.buildSlice(this.buildCursor + 1);
+            }
+            firstEntry = this.heap[0];
+            this.heap[0] = this.heap[this.heapSize - 1];
+            this.heap[this.heapSize - 1] = null;
+            this.heapSize--;
+            this.kernel.siftDown(this.heap, 0, this.heapSize - 1,
+                    this.machineOrder);
+        }
+        this.endWrite();
 
         assert this.conventionHolds();
 
@@ -511,16 +1588,19 @@ public class SortingMachine5a<T> extends SortingMachineSecondary<T> {
 
     @Override
     public final int size() {
+        if (this.buildCursor >= 0) {
+            /*
+             * Callers poll size between removals, so it is where the remaining
+             * heap construction is spread out.
+             */
+            this.beginWrite();
+            this.buildSlice(this.buildBudget);
+            this.endWrite();
+        }
 
         assert this.conventionHolds();
 
-        int size = this.entries.length();
-
-        if (!this.insertionMode) {
-            size = this.heapSize;
-        }
-
-        return size;
+        return this.heapSize;
     }
 
     @Override
@@ -528,19 +1608,156 @@ public class SortingMachine5a<T> extends SortingMachineSecondary<T> {
         return new SortingMachine5aIterator();
     }
 
+    /*
+     * Snapshot methods -------------------------------------------------------
+     */
+
     /**
-     * Implementation of {@code Iterator} interface for
-     * {@code SortingMachine5a}.
+     * Enables {@code snapshotIterator}. Until then, changes of {@code this}
+     * skip the bookkeeping that snapshots need.
+     *
+     * @requires <pre>
+     * [this is not yet visible to the threads that will call
+     *  snapshotIterator, or is published to them safely afterwards]
+     * </pre>
      */
-    private final class SortingMachine5aIterator implements Iterator<T> {
+    public final void enableSnapshots() {
+        if (this.snapshots == null) {
+            this.snapshots = new Snapshots();
+        }
+    }
+
+    /**
+     * Returns an iterator over the contents of {@code this} at one point in
+     * time. Unlike {@code iterator}, it may be called from any thread while
+     * another thread uses {@code this}: it neither blocks nor is blocked by
+     * that thread (beyond retrying while a single change is in progress), and
+     * the entries it returns are not affected by later changes. Until the
+     * iterator is exhausted, the next change of {@code this} copies the array;
+     * an iterator abandoned early thus costs one copy.
+     *
+     * @return an iterator over a snapshot of this.contents
+     * @requires [enableSnapshots has been called]
+     * @ensures <pre>
+     * [snapshotIterator returns the entries of this.contents at some instant
+     *  during the call, each once, in no particular order]
+     * </pre>
+     */
+    public final Iterator<T> snapshotIterator() {
+        Snapshots s = this.snapshots;
+        assert s != null : "Violation of: [enableSnapshots has been called]";
+
+        T[] array;
+        int n;
+        AtomicInteger readers;
+        boolean consistent;
+        do {
+            int before = s.version;
+            while ((before & 1) != 0) {
+                Thread.onSpinWait();
+                before = s.version;
+            }
+            readers = s.readers;
+            readers.incrementAndGet();
+            array = this.heap;
+            n = this.heapSize;
+            /*
+             * Keep the reads above from being reordered after the check below.
+             */
+            VarHandle.acquireFence();
+            consistent = s.version == before;
+            if (!consistent) {
+                readers.decrementAndGet();
+            }
+        } while (!consistent);
+        return new SnapshotIterator<>(array, n, readers);
+    }
+
+    /**
+     * Iterator over the entries of an array that is no longer changed.
+     *
+     * @param <T>
+     *            type of entries
+     */
+    private static final class SnapshotIterator<T> implements Iterator<T> {
 
         /**
-         * Representation iterator when in insertion mode.
+         * The array.
          */
-        private Iterator<T> queueIterator;
+        private final T[] array;
 
         /**
-         * Representation iterator count when in extraction mode.
+         * Number of entries of {@code array} to iterate over.
+         */
+        private final int length;
+
+        /**
+         * Index of the next entry.
+         */
+        private int next;
+
+        /**
+         * Counter of the readers of {@code array}, or null once this iterator
+         * is exhausted and no longer counted.
+         */
+        private AtomicInteger readers;
+
+        /**
+         * Constructor from array, length, and reader counter.
+         *
+         * @param array
+         *            the array
+         * @param length
+         *            the number of entries to iterate over
+         * @param readers
+         *            the counter of the readers of {@code array}, already
+         *            counting this iterator
+         */
+        private SnapshotIterator(T[] array, int length,
+                AtomicInteger readers) {
+            this.array = array;
+            this.length = length;
+            this.next = 0;
+            this.readers = readers;
+        }
+
+        @Override
+        public boolean hasNext() {
+            boolean hasNext = this.next < this.length;
+            if (!hasNext && this.readers != null) {
+                this.readers.decrementAndGet();
+                this.readers = null;
+            }
+            return hasNext;
+        }
+
+        @Override
+        public T next() {
+            assert this.hasNext() : "Violation of: ~this.unseen /= <>";
+            if (!this.hasNext()) {
+                throw new NoSuchElementException();
+            }
+            T x = this.array[this.next];
+            this.next++;
+            return x;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException(
+                    "remove operation not supported");
+        }
+
+    }
+
+    /**
+     * Implementation of {@code Iterator} interface for
+     * {@code SortingMachine5a}.
+     */
+    private final class SortingMachine5aIterator implements Iterator<T> {
+
+        /**
+         * Representation iterator count.
          */
         private int arrayCurrentIndex;
 
@@ -548,22 +1765,13 @@ public class SortingMachine5a<T> extends SortingMachineSecondary<T> {
          * No-argument constructor.
          */
         private SortingMachine5aIterator() {
-            if (SortingMachine5a.this.insertionMode) {
-                this.queueIterator = SortingMachine5a.this.entries.iterator();
-            } else {
-                this.arrayCurrentIndex = 0;
-            }
+            this.arrayCurrentIndex = 0;
             assert SortingMachine5a.this.conventionHolds();
         }
 
         @Override
         public boolean hasNext() {
-            boolean hasNext;
-            if (SortingMachine5a.this.insertionMode) {
-                hasNext = this.queueIterator.hasNext();
-            } else {
-                hasNext = this.arrayCurrentIndex < SortingMachine5a.this.heapSize;
-            }
+            boolean hasNext = this.arrayCurrentIndex < SortingMachine5a.this.heapSize;
             assert SortingMachine5a.this.conventionHolds();
             return hasNext;
         }
@@ -579,13 +1787,8 @@ public class SortingMachine5a<T> extends SortingMachineSecondary<T> {
                  */
                 throw new NoSuchElementException();
             }
-            T next;
-            if (SortingMachine5a.this.insertionMode) {
-                next = this.queueIterator.next();
-            } else {
-                next = SortingMachine5a.this.heap[this.arrayCurrentIndex];
-                this.arrayCurrentIndex++;
-            }
+            T next = SortingMachine5a.this.heap[this.arrayCurrentIndex];
+            this.arrayCurrentIndex++;
             assert SortingMachine5a.this.conventionHolds();
             return next;
         }
@@ -0,0 +1,174 @@
+import java.util.ArrayDeque;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Pool of pre-sized {@code SortingMachine5a}s sharing one order. Machines built
+ * with a capacity keep their array across {@code clear}, so a machine released
+ * to the pool and acquired again sorts its next batch without allocating,
+ * which keeps short-lived per-request sorts off the allocation path. A
+ * machine whose array grew beyond {@code maxCapacity} is dropped on release
+ * instead of kept, so one unusually large sort does not pin its memory for
+ * the life of the pool. The pool may be used from several threads; each
+ * acquired machine is owned by one thread until it is released.
+ *
+ * @param <T>
+ *            type of {@code SortingMachine} entries
+ */
+public class SortingMachine5aPool<T> {
+
+    /*
+     * Private members --------------------------------------------------------
+     */
+
+    /**
+     * Guards {@code idle}.
+     */
+    private final ReentrantLock lock;
+
+    /**
+     * Order of every machine in the pool.
+     */
+    private final Comparator<T> order;
+
+    /**
+     * Capacity each new machine is allocated with.
+     */
+    private final int capacity;
+
+    /**
+     * Largest capacity of a machine kept for reuse.
+     */
+    private final int maxCapacity;
+
+    /**
+     * Maximum number of idle machines kept.
+     */
+    private final int maxPooled;
+
+    /**
+     * Idle machines, all empty and in insertion mode.
+     */
+    private final Deque<SortingMachine5a<T>> idle;
+
+    /*
+     * Constructors -----------------------------------------------------------
+     */
+
+    /**
+     * Constructor from order, capacity, and pool size. Machines whose array
+     * grew beyond {@code capacity} are not kept for reuse.
+     *
+     * @param order
+     *            total preorder for sorting
+     * @param capacity
+     *            number of entries each machine is allocated room for
+     * @param maxPooled
+     *            maximum number of idle machines kept
+     * @requires capacity >= 0  and  maxPooled >= 0
+     */
+    public SortingMachine5aPool(Comparator<T> order, int capacity,
+            int maxPooled) {
+        this(order, capacity, maxPooled, capacity);
+    }
+
+    /**
+     * Constructor from order, capacity, pool size, and maximum capacity kept.
+     *
+     * @param order
+     *            total preorder for sorting
+     * @param capacity
+     *            number of entries each machine is allocated room for
+     * @param maxPooled
+     *            maximum number of idle machines kept
+     * @param maxCapacity
+     *            largest array capacity of a machine kept for reuse
+     * @requires capacity >= 0  and  maxPooled >= 0  and
+     *           maxCapacity >= capacity
+     */
+    public SortingMachine5aPool(Comparator<T> order, int capacity,
+            int maxPooled, int maxCapacity) {
+        assert order != null : "Violation of: order is not null";
+        assert capacity >= 0 : "Violation of: capacity >= 0";
+        assert maxPooled >= 0 : "Violation of: maxPooled >= 0";
+        assert maxCapacity >= capacity : ""
+                + "Violation of: maxCapacity >= capacity";
+
+        this.lock = new ReentrantLock();
+        this.order = order;
+        this.capacity = capacity;
+        this.maxCapacity = maxCapacity;
+        this.maxPooled = maxPooled;
+        this.idle = new ArrayDeque<>();
+    }
+
+    /*
+     * Pool methods -----------------------------------------------------------
+     */
+
+    /**
+     * Returns an empty machine in insertion mode, reusing an idle one if
+     * available.
+     *
+     * @return the machine
+     * @ensures acquire = ({@code true}, this.order, {})
+     */
+    public final SortingMachine5a<T> acquire() {
+        SortingMachine5a<T> m;
+        this.lock.lock();
+        try {
+            m = this.idle.pollFirst();
+        } finally {
+            this.lock.unlock();
+        }
+        if (m == null) {
+            m = new SortingMachine5a<>(this.order, this.capacity);
+        }
+        return m;
+    }
+
+    /**
+     * Returns {@code m} to the pool. It is cleared, and kept for reuse unless
+     * its array grew beyond {@code maxCapacity} or the pool already holds
+     * {@code maxPooled} idle machines.
+     *
+     * @param m
+     *            the machine to release
+     * @clears m
+     * @requires <pre>
+     * [m was returned by this.acquire and has not been released since]  and
+     * [m is not used by the caller afterwards]
+     * </pre>
+     */
+    public final void release(SortingMachine5a<T> m) {
+        assert m != null : "Violation of: m is not null";
+
+        m.clear();
+        if (m.capacity() <= this.maxCapacity) {
+            this.lock.lock();
+            try {
+                if (this.idle.size() < this.maxPooled) {
+                    this.idle.addFirst(m);
+                }
+            } finally {
+                this.lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Reports the number of idle machines.
+     *
+     * @return the number of idle machines
+     */
+    public final int idleCount() {
+        this.lock.lock();
+        try {
+            return this.idle.size();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+}
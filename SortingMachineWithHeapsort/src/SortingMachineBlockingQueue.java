@@ -0,0 +1,601 @@
+import java.util.AbstractQueue;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import components.sortingmachine.SortingMachine;
+
+/**
+ * {@code BlockingQueue} adapter over a pair of {@code SortingMachine}s: one
+ * stages the entries offered by producers, the other is drained by consumers.
+ * When a consumer finds the draining machine empty and the staged entries
+ * make a batch, everything staged so far is switched to extraction mode as
+ * one batch, so entries come out in sorted order within each batch. The
+ * staging and draining machines then swap roles, and the emptied machine is
+ * reused for the next batch.
+ *
+ * <p>
+ * The staged entries make a batch once {@code batchSize} of them are staged
+ * (which includes a full queue, since {@code batchSize <= capacity}), or once
+ * the oldest of them has been staged for the {@code linger} time. Until then
+ * {@code poll} and {@code peek} find nothing, and {@code take} waits; larger
+ * batches sort more entries together at the cost of latency. With a
+ * {@code batchSize} of 1, a batch is sealed whenever a consumer finds the
+ * draining machine empty, which keeps latency lowest but, with consumers
+ * that keep up, sorts little. {@code drainTo} and {@code clear} take or
+ * discard every buffered entry, batch or not.
+ *
+ * <p>
+ * The order is therefore only within a batch, not across the queue: an entry
+ * offered after the current batch was sealed comes out after every entry of
+ * that batch, even if it is smaller. This is not a priority queue; use
+ * {@code PriorityBlockingQueue} when every take must return the smallest
+ * buffered entry.
+ *
+ * <p>
+ * Blocking uses a {@code ReentrantLock} and its {@code Condition}s rather than
+ * monitors, so waiting threads (including virtual threads) park instead of
+ * pinning their carrier. Producers block when {@code capacity} entries are
+ * buffered, which is the backpressure signal.
+ *
+ * @param <T>
+ *            type of queue entries
+ */
+public class SortingMachineBlockingQueue<T> extends AbstractQueue<T>
+        implements BlockingQueue<T> {
+
+    /*
+     * Private members --------------------------------------------------------
+     */
+
+    /**
+     * Guards every field below.
+     */
+    private final ReentrantLock lock;
+
+    /**
+     * Signaled when an entry becomes available.
+     */
+    private final Condition notEmpty;
+
+    /**
+     * Signaled when space becomes available.
+     */
+    private final Condition notFull;
+
+    /**
+     * Maximum number of buffered entries.
+     */
+    private final int capacity;
+
+    /**
+     * Number of staged entries that make a batch.
+     */
+    private final int batchSize;
+
+    /**
+     * Time, in nanoseconds, after which the staged entries make a batch
+     * whatever their number.
+     */
+    private final long lingerNanos;
+
+    /**
+     * Value of {@code System.nanoTime()} when the oldest staged entry was
+     * staged.
+     */
+    private long stagedSince;
+
+    /**
+     * Machine (in insertion mode) receiving offered entries.
+     */
+    private SortingMachine<T> staging;
+
+    /**
+     * Machine (in extraction mode) serving the current batch.
+     */
+    private SortingMachine<T> draining;
+
+    /**
+     * Smallest entry of the current batch once it has been peeked at, or
+     * {@code null}.
+     */
+    private T head;
+
+    /**
+     * Number of buffered entries.
+     */
+    private int count;
+
+    /**
+     * Reports the time left before the staged entries make a batch by
+     * lingering.
+     *
+     * @return the time left, in nanoseconds, or 0 if it has passed
+     * @requires [lock is held by the current thread]  and  staging /= {}
+     */
+    private long lingerLeft() {
+        long staged = System.nanoTime() - this.stagedSince;
+        return Math.max(0, this.lingerNanos - staged);
+    }
+
+    /**
+     * Makes the next entry available in {@code head}, sealing the staged
+     * entries as a new batch if the current one is exhausted and they make a
+     * batch (or {@code force} is set).
+     *
+     * @param force
+     *            whether to seal the staged entries even if they do not make
+     *            a batch yet
+     * @return true iff an entry is available
+     * @requires [lock is held by the current thread]
+     */
+    private boolean fillHead(boolean force) {
+        if (this.head == null) {
+            if (this.draining.size() == 0 && this.staging.size() > 0
+                    && (force || this.staging.size() >= this.batchSize
+                            || this.lingerLeft() == 0)) {
+                SortingMachine<T> emptied = this.draining;
+                this.draining = this.staging;
+                this.draining.changeToExtractionMode();
+                emptied.clear();
+                this.staging = emptied;
+            }
+            if (this.draining.size() > 0) {
+                this.head = this.draining.removeFirst();
+            }
+        }
+        return this.head != null;
+    }
+
+    /**
+     * Removes and returns {@code head}.
+     *
+     * @return the former {@code head}
+     * @requires [lock is held by the current thread]  and  head is not null
+     */
+    private T takeHead() {
+        T x = this.head;
+        this.head = null;
+        this.count--;
+        this.notFull.signal();
+        return x;
+    }
+
+    /**
+     * Waits until signaled, or until the staged entries make a batch by
+     * lingering, or for at most {@code nanos}.
+     *
+     * @param nanos
+     *            the longest time to wait, in nanoseconds
+     * @return {@code nanos} less the time waited
+     * @throws InterruptedException
+     *             if the current thread is interrupted while waiting
+     * @requires [lock is held by the current thread]  and  nanos > 0
+     */
+    private long awaitBatch(long nanos) throws InterruptedException {
+        long wait = nanos;
+        if (this.staging.size() > 0) {
+            wait = Math.min(wait, Math.max(1, this.lingerLeft()));
+        }
+        long left = this.notEmpty.awaitNanos(wait);
+        return nanos - (wait - left);
+    }
+
+    /**
+     * Stages {@code x}. Waiting consumers are woken when the first entry is
+     * staged, so that they wait for its linger time, and when the staged
+     * entries reach {@code batchSize}.
+     *
+     * @param x
+     *            the entry to stage
+     * @requires [lock is held by the current thread]  and  count < capacity
+     */
+    private void stage(T x) {
+        this.staging.add(x);
+        this.count++;
+        int staged = this.staging.size();
+        if (staged == 1) {
+            this.stagedSince = System.nanoTime();
+        }
+        if (staged == 1 || staged == this.batchSize) {
+            this.notEmpty.signalAll();
+        }
+    }
+
+    /**
+     * Removes an entry equal to {@code o} from {@code m}, if any, by
+     * rebuilding it.
+     *
+     * @param m
+     *            the machine
+     * @param o
+     *            the entry to remove
+     * @return the rebuilt machine, in the same mode as {@code m}, or
+     *         {@code null} if {@code m} has no entry equal to {@code o}
+     */
+    private static <T> SortingMachine<T> without(SortingMachine<T> m,
+            Object o) {
+        SortingMachine<T> rest = null;
+        boolean found = false;
+        for (T x : m) {
+            found = found || o.equals(x);
+        }
+        if (found) {
+            rest = m.newInstance();
+            boolean removed = false;
+            for (T x : m) {
+                if (!removed && o.equals(x)) {
+                    removed = true;
+                } else {
+                    rest.add(x);
+                }
+            }
+            if (!m.isInInsertionMode()) {
+                rest.changeToExtractionMode();
+            }
+        }
+        return rest;
+    }
+
+    /*
+     * Constructors -----------------------------------------------------------
+     */
+
+    /**
+     * Constructor from an empty machine, a capacity, a batch size, and a
+     * linger time. The queue takes ownership of {@code machine}, and uses its
+     * order.
+     *
+     * @param machine
+     *            empty {@code SortingMachine} in insertion mode
+     * @param capacity
+     *            maximum number of buffered entries
+     * @param batchSize
+     *            number of staged entries that make a batch
+     * @param linger
+     *            time after which the staged entries make a batch whatever
+     *            their number, in {@code unit}s
+     * @param unit
+     *            the unit of {@code linger}
+     * @requires <pre>
+     * machine.insertion_mode  and  machine.contents = {}  and
+     * 0 < batchSize <= capacity  and  linger >= 0
+     * </pre>
+     */
+    public SortingMachineBlockingQueue(SortingMachine<T> machine, int capacity,
+            int batchSize, long linger, TimeUnit unit) {
+        assert machine != null : "Violation of: machine is not null";
+        assert machine.isInInsertionMode() : ""
+                + "Violation of: machine.insertion_mode";
+        assert machine.size() == 0 : "Violation of: machine.contents = {}";
+        assert batchSize > 0 : "Violation of: batchSize > 0";
+        assert batchSize <= capacity : "Violation of: batchSize <= capacity";
+        assert linger >= 0 : "Violation of: linger >= 0";
+        assert unit != null : "Violation of: unit is not null";
+
+        this.lock = new ReentrantLock();
+        this.notEmpty = this.lock.newCondition();
+        this.notFull = this.lock.newCondition();
+        this.capacity = capacity;
+        this.batchSize = batchSize;
+        this.lingerNanos = unit.toNanos(linger);
+        this.stagedSince = 0;
+        this.staging = machine;
+        this.draining = machine.newInstance();
+        this.draining.changeToExtractionMode();
+        this.head = null;
+        this.count = 0;
+    }
+
+    /**
+     * Constructor from an empty machine and a capacity, sealing a batch
+     * whenever a consumer finds the draining machine empty. The queue takes
+     * ownership of {@code machine}, and uses its order.
+     *
+     * @param machine
+     *            empty {@code SortingMachine} in insertion mode
+     * @param capacity
+     *            maximum number of buffered entries
+     * @requires <pre>
+     * machine.insertion_mode  and  machine.contents = {}  and  capacity > 0
+     * </pre>
+     */
+    public SortingMachineBlockingQueue(SortingMachine<T> machine,
+            int capacity) {
+        this(machine, capacity, 1, 0, TimeUnit.NANOSECONDS);
+    }
+
+    /*
+     * Queue methods ----------------------------------------------------------
+     */
+
+    @Override
+    public final boolean offer(T x) {
+        if (x == null) {
+            throw new NullPointerException();
+        }
+        this.lock.lock();
+        try {
+            boolean accepted = this.count < this.capacity;
+            if (accepted) {
+                this.stage(x);
+            }
+            return accepted;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    @Override
+    public final boolean offer(T x, long timeout, TimeUnit unit)
+            throws InterruptedException {
+        if (x == null) {
+            throw new NullPointerException();
+        }
+        long nanos = unit.toNanos(timeout);
+        this.lock.lockInterruptibly();
+        try {
+            while (this.count == this.capacity) {
+                if (nanos <= 0) {
+                    return false;
+                }
+                nanos = this.notFull.awaitNanos(nanos);
+            }
+            this.stage(x);
+            return true;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    @Override
+    public final void put(T x) throws InterruptedException {
+        if (x == null) {
+            throw new NullPointerException();
+        }
+        this.lock.lockInterruptibly();
+        try {
+            while (this.count == this.capacity) {
+                this.notFull.await();
+            }
+            this.stage(x);
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    @Override
+    public final T poll() {
+        this.lock.lock();
+        try {
+            T x = null;
+            if (this.fillHead(false)) {
+                x = this.takeHead();
+            }
+            return x;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    @Override
+    public final T poll(long timeout, TimeUnit unit)
+            throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        this.lock.lockInterruptibly();
+        try {
+            while (!this.fillHead(false)) {
+                if (nanos <= 0) {
+                    return null;
+                }
+                nanos = this.awaitBatch(nanos);
+            }
+            return this.takeHead();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    @Override
+    public final T take() throws InterruptedException {
+        this.lock.lockInterruptibly();
+        try {
+            while (!this.fillHead(false)) {
+                if (this.staging.size() > 0) {
+                    this.awaitBatch(Long.MAX_VALUE);
+                } else {
+                    this.notEmpty.await();
+                }
+            }
+            return this.takeHead();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    @Override
+    public final T peek() {
+        this.lock.lock();
+        try {
+            this.fillHead(false);
+            return this.head;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    @Override
+    public final int drainTo(Collection<? super T> c) {
+        return this.drainTo(c, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public final int drainTo(Collection<? super T> c, int maxElements) {
+        if (c == null) {
+            throw new NullPointerException();
+        }
+        if (c == this) {
+            throw new IllegalArgumentException();
+        }
+        this.lock.lock();
+        try {
+            int n = 0;
+            while (n < maxElements && this.fillHead(true)) {
+                c.add(this.takeHead());
+                n++;
+            }
+            return n;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    @Override
+    public final boolean remove(Object o) {
+        boolean removed = false;
+        if (o != null) {
+            this.lock.lock();
+            try {
+                if (o.equals(this.head)) {
+                    this.head = null;
+                    removed = true;
+                } else {
+                    SortingMachine<T> rest = without(this.draining, o);
+                    if (rest != null) {
+                        this.draining = rest;
+                        removed = true;
+                    } else {
+                        rest = without(this.staging, o);
+                        if (rest != null) {
+                            this.staging = rest;
+                            removed = true;
+                        }
+                    }
+                }
+                if (removed) {
+                    this.count--;
+                    this.notFull.signal();
+                }
+            } finally {
+                this.lock.unlock();
+            }
+        }
+        return removed;
+    }
+
+    @Override
+    public final void clear() {
+        this.lock.lock();
+        try {
+            this.head = null;
+            this.staging.clear();
+            this.draining.clear();
+            this.draining.changeToExtractionMode();
+            this.count = 0;
+            this.notFull.signalAll();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    @Override
+    public final int size() {
+        this.lock.lock();
+        try {
+            return this.count;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    @Override
+    public final int remainingCapacity() {
+        this.lock.lock();
+        try {
+            return this.capacity - this.count;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Returns an iterator over a point-in-time copy of the buffered entries,
+     * in no particular order. Its {@code remove} removes an entry equal to
+     * the last one returned from the queue, if there still is one.
+     *
+     * @return the iterator
+     */
+    @Override
+    public final Iterator<T> iterator() {
+        this.lock.lock();
+        try {
+            List<T> copy = new ArrayList<>(this.count);
+            if (this.head != null) {
+                copy.add(this.head);
+            }
+            for (T x : this.draining) {
+                copy.add(x);
+            }
+            for (T x : this.staging) {
+                copy.add(x);
+            }
+            return new SnapshotIterator(copy.iterator());
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Iterator over a copy of the buffered entries, removing from the queue.
+     */
+    private final class SnapshotIterator implements Iterator<T> {
+
+        /**
+         * Iterator over the copy.
+         */
+        private final Iterator<T> copy;
+
+        /**
+         * The entry last returned by {@code next}, or {@code null}.
+         */
+        private T last;
+
+        /**
+         * Constructor from the iterator over the copy.
+         *
+         * @param copy
+         *            iterator over the copy
+         */
+        private SnapshotIterator(Iterator<T> copy) {
+            this.copy = copy;
+            this.last = null;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return this.copy.hasNext();
+        }
+
+        @Override
+        public T next() {
+            this.last = this.copy.next();
+            return this.last;
+        }
+
+        @Override
+        public void remove() {
+            if (this.last == null) {
+                throw new IllegalStateException();
+            }
+            SortingMachineBlockingQueue.this.remove(this.last);
+            this.last = null;
+        }
+
+    }
+
+}
@@ -0,0 +1,695 @@
+import java.io.FileNotFoundException;
+import java.io.PrintStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import javax.management.openmbean.CompositeData;
+
+import com.sun.management.GarbageCollectionNotificationInfo;
+
+/**
+ * Soak-test driver for {@code SortingMachine5a}. Each thread runs cycles on
+ * its own machine: {@code batch} adds, one mode switch (picked by weight among
+ * the heap, partitioned, and lazy builds), {@code removeFirst} on a fraction
+ * of the entries, and {@code clear}. Every operation is timed into a
+ * per-thread {@code LatencyHistogram}; garbage collections are timed from the
+ * collectors' notifications, split into stop-the-world pauses and concurrent
+ * cycles (which run alongside the application and do not stall it), and
+ * allocation is read from the per-thread allocation counters. Entries are
+ * boxed into a pool before the counters are first read, so the allocation
+ * reported is the machine's own rather than the driver's.
+ *
+ * <p>
+ * With a target rate, operations are scheduled at fixed intervals and each
+ * latency is measured from the operation's scheduled start rather than its
+ * actual start, so a stall also counts against the operations that queued up
+ * behind it instead of hiding them (coordinated omission).
+ *
+ * <p>
+ * Arguments, each {@code name=value}, all optional:
+ * <ul>
+ * <li>{@code duration}: run time in seconds (default 60)</li>
+ * <li>{@code threads}: number of driver threads (default 1)</li>
+ * <li>{@code rate}: target operations per second over all threads, or 0 for
+ * as fast as possible (default 0)</li>
+ * <li>{@code batch}: entries added per cycle (default 10000)</li>
+ * <li>{@code mix}: weights of the heap, partitioned, and lazy builds, as
+ * {@code heap:partitioned:lazy} (default {@code 1:0:0})</li>
+ * <li>{@code drain}: fraction of each batch removed before {@code clear}
+ * (default 1.0)</li>
+ * <li>{@code partitions}: buckets for the partitioned build (default the
+ * number of processors)</li>
+ * <li>{@code report}: seconds between progress lines (default 10)</li>
+ * <li>{@code out}: prefix of the output files (default
+ * {@code sortingmachine-load})</li>
+ * </ul>
+ * Results go to {@code out.csv} (one row of percentiles per operation, in
+ * microseconds), {@code out-run.csv} (configuration, garbage collection, and
+ * allocation totals), and {@code out-<operation>.hgrm} (percentile
+ * distributions that HdrHistogram's plotter reads).
+ */
+public final class SortingMachineLoadGenerator {
+
+    /**
+     * Operations timed separately.
+     */
+    private enum Op {
+        /**
+         * {@code add}.
+         */
+        ADD("add"),
+
+        /**
+         * {@code changeToExtractionMode()}.
+         */
+        HEAP_BUILD("changeToExtractionMode"),
+
+        /**
+         * {@code changeToExtractionMode(int)}.
+         */
+        PARTITIONED_BUILD("changeToExtractionModePartitioned"),
+
+        /**
+         * {@code changeToLazyExtractionMode()}.
+         */
+        LAZY_BUILD("changeToLazyExtractionMode"),
+
+        /**
+         * {@code removeFirst}.
+         */
+        REMOVE_FIRST("removeFirst"),
+
+        /**
+         * {@code clear}.
+         */
+        CLEAR("clear");
+
+        /**
+         * Name used in the output.
+         */
+        private final String label;
+
+        /**
+         * Constructor from label.
+         *
+         * @param label
+         *            name used in the output
+         */
+        Op(String label) {
+            this.label = label;
+        }
+
+    }
+
+    /**
+     * Nanoseconds per microsecond, the unit of the output.
+     */
+    private static final double NANOS_PER_MICRO = 1000.0;
+
+    /**
+     * Percentiles reported in the summary.
+     */
+    private static final double[] PERCENTILES = { 50, 90, 99, 99.9, 99.99 };
+
+    /**
+     * Minimum number of entries each worker boxes before measuring starts.
+     */
+    private static final int ENTRY_POOL_SIZE = 1 << 16;
+
+    /**
+     * Private constructor so this utility class cannot be instantiated.
+     */
+    private SortingMachineLoadGenerator() {
+    }
+
+    /**
+     * Run configuration.
+     */
+    private static final class Config {
+
+        /**
+         * Run time in seconds.
+         */
+        private long duration = 60;
+
+        /**
+         * Number of driver threads.
+         */
+        private int threads = 1;
+
+        /**
+         * Target operations per second over all threads, or 0.
+         */
+        private long rate = 0;
+
+        /**
+         * Entries added per cycle.
+         */
+        private int batch = 10000;
+
+        /**
+         * Weights of the heap, partitioned, and lazy builds.
+         */
+        private int[] mix = { 1, 0, 0 };
+
+        /**
+         * Fraction of each batch removed before {@code clear}.
+         */
+        private double drain = 1.0;
+
+        /**
+         * Buckets for the partitioned build.
+         */
+        private int partitions = Runtime.getRuntime().availableProcessors();
+
+        /**
+         * Seconds between progress lines.
+         */
+        private long report = 10;
+
+        /**
+         * Prefix of the output files.
+         */
+        private String out = "sortingmachine-load";
+
+        /**
+         * Constructor from command line arguments.
+         *
+         * @param args
+         *            the arguments, each {@code name=value}
+         * @throws IllegalArgumentException
+         *             if an argument is malformed
+         */
+        private Config(String[] args) {
+            for (String arg : args) {
+                int eq = arg.indexOf('=');
+                if (eq < 0) {
+                    throw new IllegalArgumentException(
+                            "expected name=value: " + arg);
+                }
+                String name = arg.substring(0, eq);
+                String value = arg.substring(eq + 1);
+                switch (name) {
+                    case "duration":
+                        this.duration = Long.parseLong(value);
+                        break;
+                    case "threads":
+                        this.threads = Integer.parseInt(value);
+                        break;
+                    case "rate":
+                        this.rate = Long.parseLong(value);
+                        break;
+                    case "batch":
+                        this.batch = Integer.parseInt(value);
+                        break;
+                    case "mix":
+                        String[] weights = value.split(":");
+                        if (weights.length != this.mix.length) {
+                            throw new IllegalArgumentException(
+                                    "expected heap:partitioned:lazy: " + value);
+                        }
+                        for (int i = 0; i < weights.length; i++) {
+                            this.mix[i] = Integer.parseInt(weights[i]);
+                        }
+                        break;
+                    case "drain":
+                        this.drain = Double.parseDouble(value);
+                        break;
+                    case "partitions":
+                        this.partitions = Integer.parseInt(value);
+                        break;
+                    case "report":
+                        this.report = Long.parseLong(value);
+                        break;
+                    case "out":
+                        this.out = value;
+                        break;
+                    default:
+                        throw new IllegalArgumentException(
+                                "unknown argument: " + name);
+                }
+            }
+            if (this.duration <= 0 || this.threads <= 0 || this.rate < 0
+                    || this.batch <= 0 || this.drain < 0 || this.drain > 1
+                    || this.partitions <= 0 || this.report <= 0
+                    || this.mix[0] + this.mix[1] + this.mix[2] <= 0) {
+                throw new IllegalArgumentException("argument out of range");
+            }
+        }
+
+    }
+
+    /**
+     * Driver thread body: runs cycles on its own machine until stopped.
+     */
+    private static final class Worker implements Runnable {
+
+        /**
+         * Run configuration.
+         */
+        private final Config config;
+
+        /**
+         * Seed of the entry generator.
+         */
+        private final long seed;
+
+        /**
+         * Total count of operations over all workers.
+         */
+        private final LongAdder operations;
+
+        /**
+         * Latencies, indexed by {@code Op} ordinal.
+         */
+        private final LatencyHistogram[] latencies;
+
+        /**
+         * Bytes allocated by this worker's thread, once it has finished.
+         */
+        private long allocatedBytes;
+
+        /**
+         * Set to stop the worker.
+         */
+        private volatile boolean stopped;
+
+        /**
+         * Interval between scheduled operations, or 0 if unpaced.
+         */
+        private final long intervalNanos;
+
+        /**
+         * Scheduled start of the next operation, if paced.
+         */
+        private long nextStart;
+
+        /**
+         * Constructor from configuration, seed, and operation counter.
+         *
+         * @param config
+         *            run configuration
+         * @param seed
+         *            seed of the entry generator
+         * @param operations
+         *            total count of operations over all workers
+         */
+        private Worker(Config config, long seed, LongAdder operations) {
+            this.config = config;
+            this.seed = seed;
+            this.operations = operations;
+            this.latencies = new LatencyHistogram[Op.values().length];
+            for (int i = 0; i < this.latencies.length; i++) {
+                this.latencies[i] = new LatencyHistogram();
+            }
+            this.stopped = false;
+            if (config.rate > 0) {
+                this.intervalNanos = TimeUnit.SECONDS.toNanos(config.threads)
+                        / config.rate;
+            } else {
+                this.intervalNanos = 0;
+            }
+        }
+
+        /**
+         * Waits for the scheduled start of the next operation, if paced.
+         *
+         * @return the time the operation's latency is measured from
+         */
+        private long begin() {
+            long start;
+            if (this.intervalNanos > 0) {
+                start = this.nextStart;
+                this.nextStart += this.intervalNanos;
+                long wait = start - System.nanoTime();
+                while (wait > 0) {
+                    LockSupport.parkNanos(wait);
+                    wait = start - System.nanoTime();
+                }
+            } else {
+                start = System.nanoTime();
+            }
+            return start;
+        }
+
+        /**
+         * Records the latency of {@code op} begun at {@code start}.
+         *
+         * @param op
+         *            the operation
+         * @param start
+         *            the value returned by {@code begin}
+         */
+        private void end(Op op, long start) {
+            this.latencies[op.ordinal()].record(System.nanoTime() - start);
+        }
+
+        @Override
+        public void run() {
+            Config c = this.config;
+            int mixTotal = c.mix[0] + c.mix[1] + c.mix[2];
+            int drainCount = (int) Math.round(c.drain * c.batch);
+            SplittableRandom random = new SplittableRandom(this.seed);
+            /*
+             * Box the entries up front: a Long per add inside the measured
+             * window would be counted as the machine's allocation.
+             */
+            Long[] pool = new Long[Math.max(c.batch, ENTRY_POOL_SIZE)];
+            for (int i = 0; i < pool.length; i++) {
+                pool[i] = random.nextLong();
+            }
+            int next = 0;
+
+            ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+            com.sun.management.ThreadMXBean allocation = null;
+            long allocatedBefore = 0;
+            if (threads instanceof com.sun.management.ThreadMXBean) {
+                allocation = (com.sun.management.ThreadMXBean) threads;
+                allocatedBefore = allocation.getCurrentThreadAllocatedBytes();
+            }
+
+            SortingMachine5a<Long> m = new SortingMachine5a<>(
+                    Comparator.<Long>naturalOrder(), c.batch);
+            this.nextStart = System.nanoTime();
+            while (!this.stopped) {
+                long ops = 0;
+                for (int i = 0; i < c.batch && !this.stopped; i++) {
+                    Long x = pool[next];
+                    next = (next + 1) % pool.length;
+                    long start = this.begin();
+                    m.add(x);
+                    this.end(Op.ADD, start);
+                    ops++;
+                }
+
+                int pick = random.nextInt(mixTotal);
+                long start = this.begin();
+                Op build;
+                if (pick < c.mix[0]) {
+                    m.changeToExtractionMode();
+                    build = Op.HEAP_BUILD;
+                } else if (pick < c.mix[0] + c.mix[1]) {
+                    m.changeToExtractionMode(c.partitions);
+                    build = Op.PARTITIONED_BUILD;
+                } else {
+                    m.changeToLazyExtractionMode();
+                    build = Op.LAZY_BUILD;
+                }
+                this.end(build, start);
+                ops++;
+
+                for (int i = 0; i < drainCount && m.size() > 0
+                        && !this.stopped; i++) {
+                    start = this.begin();
+                    m.removeFirst();
+                    this.end(Op.REMOVE_FIRST, start);
+                    ops++;
+                }
+
+                start = this.begin();
+                m.clear();
+                this.end(Op.CLEAR, start);
+                ops++;
+                this.operations.add(ops);
+            }
+
+            if (allocation != null) {
+                this.allocatedBytes = allocation
+                        .getCurrentThreadAllocatedBytes() - allocatedBefore;
+            }
+        }
+
+    }
+
+    /**
+     * Listener timing each garbage collection into one of two histograms:
+     * stop-the-world pauses, or concurrent cycles. Durations come from the
+     * notifications, which report whole milliseconds.
+     */
+    private static final class GcListener implements NotificationListener {
+
+        /**
+         * Durations of the stop-the-world pauses, in nanoseconds.
+         */
+        private final LatencyHistogram pauses = new LatencyHistogram();
+
+        /**
+         * Durations of the concurrent cycles, in nanoseconds.
+         */
+        private final LatencyHistogram cycles = new LatencyHistogram();
+
+        /**
+         * Reports whether the collection described by {@code info} is a
+         * concurrent cycle rather than a pause. Concurrent collectors report
+         * cycles and pauses through separate collectors (e.g., "ZGC Cycles"
+         * and "ZGC Pauses", "Shenandoah Cycles" and "Shenandoah Pauses",
+         * "G1 Concurrent GC" next to "G1 Young Generation").
+         *
+         * @param info
+         *            the notification's information
+         * @return true iff the collection is a concurrent cycle
+         */
+        private static boolean isConcurrentCycle(
+                GarbageCollectionNotificationInfo info) {
+            String name = info.getGcName();
+            return name.endsWith("Cycles") || name.contains("Concurrent")
+                    || info.getGcAction().equals("end of GC cycle");
+        }
+
+        @Override
+        public synchronized void handleNotification(Notification notification,
+                Object handback) {
+            if (GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION
+                    .equals(notification.getType())) {
+                GarbageCollectionNotificationInfo info = GarbageCollectionNotificationInfo
+                        .from((CompositeData) notification.getUserData());
+                long duration = TimeUnit.MILLISECONDS
+                        .toNanos(info.getGcInfo().getDuration());
+                if (isConcurrentCycle(info)) {
+                    this.cycles.record(duration);
+                } else {
+                    this.pauses.record(duration);
+                }
+            }
+        }
+
+        /**
+         * Returns a copy of the pause durations recorded so far.
+         *
+         * @return the pause durations
+         */
+        private synchronized LatencyHistogram pauses() {
+            LatencyHistogram copy = new LatencyHistogram();
+            copy.add(this.pauses);
+            return copy;
+        }
+
+        /**
+         * Returns a copy of the concurrent cycle durations recorded so far.
+         *
+         * @return the cycle durations
+         */
+        private synchronized LatencyHistogram cycles() {
+            LatencyHistogram copy = new LatencyHistogram();
+            copy.add(this.cycles);
+            return copy;
+        }
+
+    }
+
+    /**
+     * Writes the summary row of {@code h} under {@code name} to {@code csv}.
+     *
+     * @param csv
+     *            the summary file
+     * @param name
+     *            the operation name
+     * @param h
+     *            the latencies of the operation
+     */
+    private static void writeRow(PrintStream csv, String name,
+            LatencyHistogram h) {
+        StringBuilder row = new StringBuilder(name);
+        row.append(',').append(h.totalCount());
+        row.append(String.format(Locale.ROOT, ",%.3f",
+                h.mean() / NANOS_PER_MICRO));
+        for (double p : PERCENTILES) {
+            row.append(String.format(Locale.ROOT, ",%.3f",
+                    h.valueAtPercentile(p) / NANOS_PER_MICRO));
+        }
+        row.append(String.format(Locale.ROOT, ",%.3f",
+                h.max() / NANOS_PER_MICRO));
+        csv.println(row);
+    }
+
+    /**
+     * Writes the percentile distribution of {@code h} to
+     * {@code prefix-name.hgrm}.
+     *
+     * @param prefix
+     *            prefix of the output files
+     * @param name
+     *            the operation name
+     * @param h
+     *            the latencies of the operation
+     * @throws FileNotFoundException
+     *             if the file cannot be created
+     */
+    private static void writeDistribution(String prefix, String name,
+            LatencyHistogram h) throws FileNotFoundException {
+        try (PrintStream out = new PrintStream(prefix + "-" + name + ".hgrm")) {
+            h.outputPercentileDistribution(out, NANOS_PER_MICRO);
+        }
+    }
+
+    /**
+     * Main method.
+     *
+     * @param args
+     *            the command line arguments, each {@code name=value}
+     * @throws InterruptedException
+     *             if interrupted while waiting for the workers
+     * @throws FileNotFoundException
+     *             if an output file cannot be created
+     */
+    public static void main(String[] args)
+            throws InterruptedException, FileNotFoundException {
+        Config config = new Config(args);
+
+        GcListener gc = new GcListener();
+        List<GarbageCollectorMXBean> collectors = ManagementFactory
+                .getGarbageCollectorMXBeans();
+        Map<String, long[]> gcBefore = new HashMap<>();
+        for (GarbageCollectorMXBean bean : collectors) {
+            gcBefore.put(bean.getName(), new long[] {
+                    bean.getCollectionCount(), bean.getCollectionTime() });
+            if (bean instanceof NotificationEmitter) {
+                ((NotificationEmitter) bean).addNotificationListener(gc, null,
+                        null);
+            }
+        }
+
+        LongAdder operations = new LongAdder();
+        List<Worker> workers = new ArrayList<>();
+        List<Thread> threads = new ArrayList<>();
+        SplittableRandom seeds = new SplittableRandom();
+        for (int i = 0; i < config.threads; i++) {
+            Worker w = new Worker(config, seeds.nextLong(), operations);
+            Thread t = new Thread(w, "SortingMachineLoadGenerator-" + i);
+            workers.add(w);
+            threads.add(t);
+        }
+
+        long begin = System.nanoTime();
+        long end = begin + TimeUnit.SECONDS.toNanos(config.duration);
+        for (Thread t : threads) {
+            t.start();
+        }
+        long lastOps = 0;
+        long lastTime = begin;
+        long now = System.nanoTime();
+        while (now < end) {
+            long sleep = Math.min(TimeUnit.SECONDS.toNanos(config.report),
+                    end - now);
+            TimeUnit.NANOSECONDS.sleep(sleep);
+            now = System.nanoTime();
+            long ops = operations.sum();
+            System.err.println(String.format(Locale.ROOT,
+                    "%8.1f s  %14d ops  %12.0f ops/s",
+                    (now - begin) / 1e9, ops,
+                    (ops - lastOps) * 1e9 / Math.max(1, now - lastTime)));
+            lastOps = ops;
+            lastTime = now;
+        }
+        for (Worker w : workers) {
+            w.stopped = true;
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+        double seconds = (System.nanoTime() - begin) / 1e9;
+
+        LatencyHistogram[] totals = new LatencyHistogram[Op.values().length];
+        long allocated = 0;
+        for (int i = 0; i < totals.length; i++) {
+            totals[i] = new LatencyHistogram();
+        }
+        for (Worker w : workers) {
+            for (int i = 0; i < totals.length; i++) {
+                totals[i].add(w.latencies[i]);
+            }
+            allocated += w.allocatedBytes;
+        }
+        LatencyHistogram gcPauses = gc.pauses();
+        LatencyHistogram gcCycles = gc.cycles();
+
+        try (PrintStream csv = new PrintStream(config.out + ".csv")) {
+            StringBuilder header = new StringBuilder("operation,count,mean_us");
+            for (double p : PERCENTILES) {
+                header.append(",p");
+                if (p == Math.rint(p)) {
+                    header.append((long) p);
+                } else {
+                    header.append(p);
+                }
+                header.append("_us");
+            }
+            header.append(",max_us");
+            csv.println(header);
+            for (Op op : Op.values()) {
+                if (totals[op.ordinal()].totalCount() > 0) {
+                    writeRow(csv, op.label, totals[op.ordinal()]);
+                    writeDistribution(config.out, op.label,
+                            totals[op.ordinal()]);
+                }
+            }
+            writeRow(csv, "gc_pause", gcPauses);
+            writeDistribution(config.out, "gc_pause", gcPauses);
+            if (gcCycles.totalCount() > 0) {
+                writeRow(csv, "gc_concurrent_cycle", gcCycles);
+                writeDistribution(config.out, "gc_concurrent_cycle", gcCycles);
+            }
+        }
+
+        try (PrintStream run = new PrintStream(config.out + "-run.csv")) {
+            run.println("key,value");
+            run.println("duration_s," + config.duration);
+            run.println("threads," + config.threads);
+            run.println("rate," + config.rate);
+            run.println("batch," + config.batch);
+            run.println("mix," + config.mix[0] + ":" + config.mix[1] + ":"
+                    + config.mix[2]);
+            run.println("drain," + config.drain);
+            run.println("partitions," + config.partitions);
+            run.println("operations," + operations.sum());
+            run.println(String.format(Locale.ROOT, "ops_per_s,%.1f",
+                    operations.sum() / seconds));
+            run.println("allocated_bytes," + allocated);
+            run.println(String.format(Locale.ROOT, "allocation_mb_per_s,%.3f",
+                    allocated / seconds / (1 << 20)));
+            for (GarbageCollectorMXBean bean : collectors) {
+                long[] before = gcBefore.get(bean.getName());
+                String name = bean.getName().replace(' ', '_');
+                run.println("gc_count_" + name + ","
+                        + (bean.getCollectionCount() - before[0]));
+                run.println("gc_time_ms_" + name + ","
+                        + (bean.getCollectionTime() - before[1]));
+            }
+        }
+    }
+
+}
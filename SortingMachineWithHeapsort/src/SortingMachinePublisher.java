@@ -0,0 +1,245 @@
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import components.sortingmachine.SortingMachine;
+
+/**
+ * {@code Flow.Publisher} that emits the entries of a {@code SortingMachine} in
+ * sorted order to a single subscriber, honoring the subscriber's demand.
+ * Delivery runs on the given {@code Executor}, at most {@code batchSize}
+ * entries per task before the task yields the executor thread, so many
+ * publishers can share a pool (or a virtual-thread-per-task executor) without
+ * any one of them monopolizing it. No thread ever blocks waiting for demand.
+ * A subscriber whose {@code onNext} throws is sent {@code onError} with the
+ * exception, and receives nothing more.
+ *
+ * @param <T>
+ *            type of published entries
+ */
+public class SortingMachinePublisher<T> implements Flow.Publisher<T> {
+
+    /*
+     * Private members --------------------------------------------------------
+     */
+
+    /**
+     * Machine (in extraction mode) whose entries are published.
+     */
+    private final SortingMachine<T> machine;
+
+    /**
+     * Executor running the delivery tasks.
+     */
+    private final Executor executor;
+
+    /**
+     * Maximum number of entries delivered per task.
+     */
+    private final int batchSize;
+
+    /**
+     * Whether a subscriber has already been accepted.
+     */
+    private final AtomicBoolean subscribed;
+
+    /*
+     * Constructors -----------------------------------------------------------
+     */
+
+    /**
+     * Constructor from machine, executor, and batch size. The publisher takes
+     * ownership of {@code machine}, switching it to extraction mode if needed.
+     *
+     * @param machine
+     *            the {@code SortingMachine} whose entries are published
+     * @param executor
+     *            executor running the delivery tasks
+     * @param batchSize
+     *            maximum number of entries delivered per task
+     * @requires batchSize > 0
+     */
+    public SortingMachinePublisher(SortingMachine<T> machine,
+            Executor executor, int batchSize) {
+        assert machine != null : "Violation of: machine is not null";
+        assert executor != null : "Violation of: executor is not null";
+        assert batchSize > 0 : "Violation of: batchSize > 0";
+
+        if (machine.isInInsertionMode()) {
+            machine.changeToExtractionMode();
+        }
+        this.machine = machine;
+        this.executor = executor;
+        this.batchSize = batchSize;
+        this.subscribed = new AtomicBoolean(false);
+    }
+
+    /*
+     * Publisher methods ------------------------------------------------------
+     */
+
+    @Override
+    public final void subscribe(Flow.Subscriber<? super T> subscriber) {
+        if (subscriber == null) {
+            throw new NullPointerException();
+        }
+        if (this.subscribed.compareAndSet(false, true)) {
+            subscriber.onSubscribe(new SortedSubscription(subscriber));
+        } else {
+            subscriber.onSubscribe(new Flow.Subscription() {
+                @Override
+                public void request(long n) {
+                    // Nothing will ever be delivered.
+                }
+
+                @Override
+                public void cancel() {
+                    // Nothing to cancel.
+                }
+            });
+            subscriber.onError(new IllegalStateException(
+                    "SortingMachinePublisher supports a single subscriber"));
+        }
+    }
+
+    /**
+     * Subscription delivering the machine's entries. Delivery is serialized
+     * by {@code pending}: only the task that moves it off zero runs, and it
+     * keeps draining until it has accounted for every signal it missed.
+     */
+    private final class SortedSubscription
+            implements Flow.Subscription, Runnable {
+
+        /**
+         * The subscriber.
+         */
+        private final Flow.Subscriber<? super T> subscriber;
+
+        /**
+         * Outstanding demand.
+         */
+        private final AtomicLong demand;
+
+        /**
+         * Number of signals not yet handled by the delivery task.
+         */
+        private final AtomicInteger pending;
+
+        /**
+         * Whether the subscription has been cancelled or terminated.
+         */
+        private volatile boolean done;
+
+        /**
+         * Error to deliver, if the subscriber violated the protocol.
+         */
+        private volatile Throwable error;
+
+        /**
+         * Constructor from subscriber.
+         *
+         * @param subscriber
+         *            the subscriber
+         */
+        private SortedSubscription(Flow.Subscriber<? super T> subscriber) {
+            this.subscriber = subscriber;
+            this.demand = new AtomicLong(0);
+            this.pending = new AtomicInteger(0);
+            this.done = false;
+            this.error = null;
+        }
+
+        /**
+         * Schedules the delivery task unless it is already running.
+         */
+        private void signal() {
+            if (this.pending.getAndIncrement() == 0) {
+                SortingMachinePublisher.this.executor.execute(this);
+            }
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                this.error = new IllegalArgumentException(
+                        "non-positive subscription request: " + n);
+            } else {
+                long current;
+                long next;
+                do {
+                    current = this.demand.get();
+                    next = current + n;
+                    if (next < 0) {
+                        next = Long.MAX_VALUE;
+                    }
+                } while (!this.demand.compareAndSet(current, next));
+            }
+            this.signal();
+        }
+
+        @Override
+        public void cancel() {
+            this.done = true;
+        }
+
+        @Override
+        public void run() {
+            SortingMachine<T> m = SortingMachinePublisher.this.machine;
+            int missed = 1;
+            int emitted = 0;
+            while (true) {
+                if (this.done) {
+                    return;
+                }
+                Throwable e = this.error;
+                if (e != null) {
+                    this.done = true;
+                    this.subscriber.onError(e);
+                    return;
+                }
+                while (!this.done && m.size() > 0 && this.demand.get() > 0
+                        && emitted < SortingMachinePublisher.this.batchSize) {
+                    T x = m.removeFirst();
+                    this.demand.decrementAndGet();
+                    emitted++;
+                    try {
+                        this.subscriber.onNext(x);
+                    } catch (RuntimeException thrown) {
+                        /*
+                         * A subscriber must not throw from onNext; treat the
+                         * subscription as cancelled and report why.
+                         */
+                        this.done = true;
+                        this.subscriber.onError(thrown);
+                        return;
+                    }
+                }
+                if (this.done) {
+                    return;
+                }
+                if (m.size() == 0) {
+                    this.done = true;
+                    this.subscriber.onComplete();
+                    return;
+                }
+                if (emitted == SortingMachinePublisher.this.batchSize
+                        && this.demand.get() > 0) {
+                    /*
+                     * Yield the thread; the rescheduled task still owns the
+                     * pending count, so no concurrent task can start.
+                     */
+                    SortingMachinePublisher.this.executor.execute(this);
+                    return;
+                }
+                missed = this.pending.addAndGet(-missed);
+                if (missed == 0) {
+                    return;
+                }
+            }
+        }
+
+    }
+
+}
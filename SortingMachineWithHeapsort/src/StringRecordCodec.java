@@ -0,0 +1,37 @@
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * {@code RecordCodec} for {@code String}s: a length prefix followed by the
+ * UTF-8 bytes, with no 64K limit.
+ */
+public final class StringRecordCodec implements RecordCodec<String> {
+
+    /**
+     * Serialization version, since codecs are sent to workers serialized.
+     */
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * No-argument constructor.
+     */
+    public StringRecordCodec() {
+    }
+
+    @Override
+    public void write(String x, DataOutput out) throws IOException {
+        byte[] bytes = x.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    @Override
+    public String read(DataInput in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+}
@@ -0,0 +1,399 @@
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.function.ToLongFunction;
+
+import components.sortingmachine.SortingMachine;
+import components.sortingmachine.SortingMachineSecondary;
+
+/**
+ * {@code SortingMachine} for entries with {@code long} priorities, represented
+ * as a scalar 8-ary heap whose keys are cached in a primitive array. The
+ * smallest of each group of 8 siblings is found by comparing them pairwise in
+ * three rounds, and the key array is padded with {@code Long.MAX_VALUE} so that
+ * every group can be scanned at full width, even the last partial one.
+ *
+ * @param <T>
+ *            type of {@code SortingMachine} entries
+ * @convention <pre>
+ * 0 <= $this.size  and
+ * |$this.keys| = |$this.entries| + ARITY  and  $this.size <= |$this.entries|  and
+ * for all i: integer
+ *     where (0 <= i  and  i < $this.size)
+ *   ($this.entries[i] is not null  and
+ *    $this.keys[i] = $this.key.applyAsLong($this.entries[i]))  and
+ * for all i: integer
+ *     where ($this.size <= i  and  i < |$this.keys|)
+ *   ($this.keys[i] = Long.MAX_VALUE)  and
+ * if not $this.insertionMode then
+ *   for all i: integer
+ *       where (0 < i  and  i < $this.size)
+ *     ($this.keys[(i - 1) / ARITY] <= $this.keys[i])
+ * </pre>
+ * @correspondence <pre>
+ * this = ($this.insertionMode, [relation comparing $this.key values],
+ *         [multiset of $this.entries[0, $this.size)])
+ * </pre>
+ */
+public class WideHeapSortingMachine<T> extends SortingMachineSecondary<T> {
+
+    /*
+     * Private members --------------------------------------------------------
+     */
+
+    /**
+     * Number of children of each heap node.
+     */
+    private static final int ARITY = 8;
+
+    /**
+     * Initial capacity of the entry array.
+     */
+    private static final int INITIAL_CAPACITY = 16;
+
+    /**
+     * Priority of each entry.
+     */
+    private ToLongFunction<T> key;
+
+    /**
+     * Order induced by {@code key}.
+     */
+    private Comparator<T> machineOrder;
+
+    /**
+     * Insertion mode.
+     */
+    private boolean insertionMode;
+
+    /**
+     * Entries.
+     */
+    private Object[] entries;
+
+    /**
+     * Priorities, parallel to {@code entries} and padded with
+     * {@code Long.MAX_VALUE}.
+     */
+    private long[] keys;
+
+    /**
+     * Number of entries.
+     */
+    private int size;
+
+    /**
+     * Returns the index of the smallest of the {@code ARITY} keys starting at
+     * {@code first}, preferring the lower index on ties.
+     *
+     * @param keys
+     *            the keys
+     * @param first
+     *            index of the first key of the group
+     * @return the index of the smallest key in the group
+     * @requires 0 <= first  and  first + ARITY <= |keys|
+     * @ensures <pre>
+     * first <= minOfGroup < first + ARITY  and
+     * [keys[minOfGroup] is the smallest of keys[first, first + ARITY)]
+     * </pre>
+     */
+    private static int minOfGroup(long[] keys, int first) {
+        /*
+         * Pairwise tournament: each round halves the candidates, keeping the
+         * lower index on ties.
+         */
+        long k0 = keys[first];
+        long k1 = keys[first + 1];
+        long k2 = keys[first + 2];
+        long k3 = keys[first + 3];
+        long k4 = keys[first + 4];
+        long k5 = keys[first + 5];
+        long k6 = keys[first + 6];
+        long k7 = keys[first + 7];
+
+        int i01 = k1 < k0 ? 1 : 0;
+        long m01 = Math.min(k0, k1);
+        int i23 = k3 < k2 ? 3 : 2;
+        long m23 = Math.min(k2, k3);
+        int i45 = k5 < k4 ? 5 : 4;
+        long m45 = Math.min(k4, k5);
+        int i67 = k7 < k6 ? 7 : 6;
+        long m67 = Math.min(k6, k7);
+
+        int i03 = m23 < m01 ? i23 : i01;
+        long m03 = Math.min(m01, m23);
+        int i47 = m67 < m45 ? i67 : i45;
+        long m47 = Math.min(m45, m67);
+
+        return first + (m47 < m03 ? i47 : i03);
+    }
+
+    /**
+     * Moves entry {@code x} with key {@code k} down from position {@code i}
+     * until no child has a smaller key.
+     *
+     * @param i
+     *            the heap position of the hole
+     * @param x
+     *            the entry to place
+     * @param k
+     *            the key of {@code x}
+     * @updates $this.entries, $this.keys
+     * @requires [the subtrees rooted at the children of i are heaps]
+     * @ensures [the subtree rooted at i is a heap containing x]
+     */
+    private void siftDown(int i, Object x, long k) {
+        int first = ARITY * i + 1;
+        while (first < this.size) {
+            int c = minOfGroup(this.keys, first);
+            if (this.keys[c] >= k) {
+                break;
+            }
+            this.entries[i] = this.entries[c];
+            this.keys[i] = this.keys[c];
+            i = c;
+            first = ARITY * i + 1;
+        }
+        this.entries[i] = x;
+        this.keys[i] = k;
+    }
+
+    /**
+     * Checks that the part of the convention repeated below holds for the
+     * current representation.
+     *
+     * @return true if the convention holds (or if assertion checking is off);
+     *         otherwise reports a violated assertion
+     * @convention <pre>
+     * |$this.keys| = |$this.entries| + ARITY  and
+     * [$this.keys[$this.size, |$this.keys|) are all Long.MAX_VALUE]  and
+     * if not $this.insertionMode then
+     *   [$this.keys[0, $this.size) is an ARITY-ary heap]
+     * </pre>
+     */
+    private boolean conventionHolds() {
+        assert this.keys.length == this.entries.length + ARITY : ""
+                + "Violation of: |$this.keys| = |$this.entries| + ARITY";
+        for (int i = this.size; i < this.keys.length; i++) {
+            assert this.keys[i] == Long.MAX_VALUE : ""
+                    + "Violation of: [padding keys are Long.MAX_VALUE]";
+        }
+        if (!this.insertionMode) {
+            for (int i = 1; i < this.size; i++) {
+                assert this.keys[(i - 1) / ARITY] <= this.keys[i] : ""
+                        + "Violation of: [$this.keys[0, $this.size) is a heap]";
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Creator of initial representation.
+     *
+     * @param priority
+     *            priority of each entry
+     * @ensures <pre>
+     * $this.insertionMode = true  and
+     * $this.key = priority  and
+     * $this.size = 0
+     * </pre>
+     */
+    private void createNewRep(ToLongFunction<T> priority) {
+        this.key = priority;
+        this.machineOrder = Comparator.comparingLong(priority);
+        this.insertionMode = true;
+        this.entries = new Object[INITIAL_CAPACITY];
+        this.keys = new long[INITIAL_CAPACITY + ARITY];
+        Arrays.fill(this.keys, Long.MAX_VALUE);
+        this.size = 0;
+    }
+
+    /*
+     * Constructors -----------------------------------------------------------
+     */
+
+    /**
+     * Constructor from priority function.
+     *
+     * @param priority
+     *            priority of each entry; smaller priorities are removed first
+     */
+    public WideHeapSortingMachine(ToLongFunction<T> priority) {
+        this.createNewRep(priority);
+        assert this.conventionHolds();
+    }
+
+    /*
+     * Standard methods -------------------------------------------------------
+     */
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public final SortingMachine<T> newInstance() {
+        try {
+            return this.getClass().getConstructor(ToLongFunction.class)
+                    .newInstance(this.key);
+        } catch (ReflectiveOperationException e) {
+            throw new AssertionError(
+                    "Cannot construct object of type " + this.getClass());
+        }
+    }
+
+    @Override
+    public final void clear() {
+        this.createNewRep(this.key);
+        assert this.conventionHolds();
+    }
+
+    @Override
+    public final void transferFrom(SortingMachine<T> source) {
+        assert source != null : "Violation of: source is not null";
+        assert source != this : "Violation of: source is not this";
+        assert source instanceof WideHeapSortingMachine<?> : ""
+                + "Violation of: source is of dynamic type WideHeapSortingMachine<?>";
+        /*
+         * This cast cannot fail since the assert above would have stopped
+         * execution in that case.
+         */
+        WideHeapSortingMachine<T> localSource = (WideHeapSortingMachine<T>) source;
+        this.key = localSource.key;
+        this.machineOrder = localSource.machineOrder;
+        this.insertionMode = localSource.insertionMode;
+        this.entries = localSource.entries;
+        this.keys = localSource.keys;
+        this.size = localSource.size;
+        localSource.createNewRep(localSource.key);
+        assert this.conventionHolds();
+        assert localSource.conventionHolds();
+    }
+
+    /*
+     * Kernel methods ---------------------------------------------------------
+     */
+
+    @Override
+    public final void add(T x) {
+        assert x != null : "Violation of: x is not null";
+        assert this.isInInsertionMode() : "Violation of: this.insertion_mode";
+
+        if (this.size == this.entries.length) {
+            int capacity = 2 * this.entries.length;
+            this.entries = Arrays.copyOf(this.entries, capacity);
+            long[] newKeys = Arrays.copyOf(this.keys, capacity + ARITY);
+            Arrays.fill(newKeys, this.size, newKeys.length, Long.MAX_VALUE);
+            this.keys = newKeys;
+        }
+        this.entries[this.size] = x;
+        this.keys[this.size] = this.key.applyAsLong(x);
+        this.size++;
+
+        assert this.conventionHolds();
+    }
+
+    @Override
+    public final void changeToExtractionMode() {
+        assert this.isInInsertionMode() : "Violation of: this.insertion_mode";
+
+        this.insertionMode = false;
+        for (int i = (this.size - 2) / ARITY; i >= 0; i--) {
+            this.siftDown(i, this.entries[i], this.keys[i]);
+        }
+
+        assert this.conventionHolds();
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public final T removeFirst() {
+        assert !this
+                .isInInsertionMode() : "Violation of: not this.insertion_mode";
+        assert this.size() > 0 : "Violation of: this.contents /= {}";
+
+        T first = (T) this.entries[0];
+        this.size--;
+        Object x = this.entries[this.size];
+        long k = this.keys[this.size];
+        this.entries[this.size] = null;
+        this.keys[this.size] = Long.MAX_VALUE;
+        if (this.size > 0) {
+            this.siftDown(0, x, k);
+        }
+
+        assert this.conventionHolds();
+
+        return first;
+    }
+
+    @Override
+    public final boolean isInInsertionMode() {
+        assert this.conventionHolds();
+        return this.insertionMode;
+    }
+
+    @Override
+    public final Comparator<T> order() {
+        assert this.conventionHolds();
+        return this.machineOrder;
+    }
+
+    @Override
+    public final int size() {
+        assert this.conventionHolds();
+        return this.size;
+    }
+
+    @Override
+    public final Iterator<T> iterator() {
+        return new WideHeapSortingMachineIterator();
+    }
+
+    /**
+     * Implementation of {@code Iterator} interface for
+     * {@code WideHeapSortingMachine}.
+     */
+    private final class WideHeapSortingMachineIterator implements Iterator<T> {
+
+        /**
+         * Next position to visit.
+         */
+        private int currentIndex;
+
+        /**
+         * No-argument constructor.
+         */
+        private WideHeapSortingMachineIterator() {
+            this.currentIndex = 0;
+            assert WideHeapSortingMachine.this.conventionHolds();
+        }
+
+        @Override
+        public boolean hasNext() {
+            return this.currentIndex < WideHeapSortingMachine.this.size;
+        }
+
+        @SuppressWarnings("unchecked")
+        @Override
+        public T next() {
+            assert this.hasNext() : "Violation of: ~this.unseen /= <>";
+            if (!this.hasNext()) {
+                /*
+                 * Exception is supposed to be thrown in this case, but with
+                 * assertion-checking enabled it cannot happen because of assert
+                 * above.
+                 */
+                throw new NoSuchElementException();
+            }
+            T next = (T) WideHeapSortingMachine.this.entries[this.currentIndex];
+            this.currentIndex++;
+            return next;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException(
+                    "remove operation not supported");
+        }
+
+    }
+}
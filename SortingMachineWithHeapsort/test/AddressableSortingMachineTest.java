@@ -0,0 +1,74 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.util.Comparator;
+
+import org.junit.Test;
+
+import components.sortingmachine.SortingMachine;
+import components.sortingmachine.SortingMachine1L;
+
+/**
+ * Customized JUnit test fixture for {@code AddressableSortingMachine}.
+ */
+public final class AddressableSortingMachineTest extends SortingMachineTest {
+
+    @Override
+    protected SortingMachine<String> constructorTest(Comparator<String> order) {
+        return new AddressableSortingMachine<String>(order);
+    }
+
+    @Override
+    protected SortingMachine<String> constructorRef(Comparator<String> order) {
+        return new SortingMachine1L<String>(order);
+    }
+
+    /**
+     * updatePriority test after mutating an entry case.
+     */
+    @Test
+    public void testUpdatePriority() {
+        AddressableSortingMachine<int[]> m = new AddressableSortingMachine<>(
+                Comparator.comparingInt(a -> a[0]));
+        int[] a = { 5 };
+        int[] b = { 3 };
+        int[] c = { 8 };
+        m.add(a);
+        m.add(b);
+        int hc = m.addWithHandle(c);
+        m.changeToExtractionMode();
+
+        c[0] = 1;
+        m.updatePriority(hc);
+
+        assertEquals(c, m.removeFirst());
+        assertEquals(b, m.removeFirst());
+        assertEquals(a, m.removeFirst());
+        assertFalse(m.contains(hc));
+    }
+
+    /**
+     * remove test by handle in extraction mode case.
+     */
+    @Test
+    public void testRemoveByHandle() {
+        AddressableSortingMachine<String> m = new AddressableSortingMachine<>(
+                String.CASE_INSENSITIVE_ORDER);
+        m.add("green");
+        int hBlue = m.addWithHandle("blue");
+        m.add("red");
+        m.add("apple");
+        m.changeToExtractionMode();
+
+        assertEquals("blue", m.remove(hBlue));
+        int hBanana = m.addWithHandle("banana");
+        assertEquals("banana", m.get(hBanana));
+
+        assertEquals(4, m.size());
+        assertEquals("apple", m.removeFirst());
+        assertEquals("banana", m.removeFirst());
+        assertEquals("green", m.removeFirst());
+        assertEquals("red", m.removeFirst());
+    }
+
+}
@@ -0,0 +1,89 @@
+import static org.junit.Assert.assertEquals;
+
+import java.util.Comparator;
+
+import org.junit.Test;
+
+import components.sortingmachine.SortingMachine;
+import components.sortingmachine.SortingMachine1L;
+
+/**
+ * Customized JUnit test fixture for {@code CollapsingSortingMachine}.
+ */
+public final class CollapsingSortingMachineTest extends SortingMachineTest {
+
+    @Override
+    protected SortingMachine<String> constructorTest(Comparator<String> order) {
+        return new CollapsingSortingMachine<String>(order, false);
+    }
+
+    @Override
+    protected SortingMachine<String> constructorRef(Comparator<String> order) {
+        return new SortingMachine1L<String>(order);
+    }
+
+    /**
+     * removeFirst test heavy duplication case.
+     */
+    @Test
+    public void testRemoveFirstManyDuplicates() {
+        final int n = 1000;
+        final int keys = 7;
+        CollapsingSortingMachine<Integer> m = new CollapsingSortingMachine<>(
+                Comparator.<Integer>naturalOrder(), false);
+        for (int i = 0; i < n; i++) {
+            m.add((i * 3) % keys);
+        }
+        m.changeToExtractionMode();
+
+        assertEquals(n, m.size());
+        int previous = -1;
+        for (int i = 0; i < n; i++) {
+            int x = m.removeFirst();
+            assertEquals(true, previous <= x);
+            previous = x;
+        }
+        assertEquals(0, m.size());
+    }
+
+    /**
+     * removeFirst test representative case.
+     */
+    @Test
+    public void testRemoveFirstRepresentative() {
+        CollapsingSortingMachine<String> m = new CollapsingSortingMachine<>(
+                String.CASE_INSENSITIVE_ORDER, false);
+        m.add("Red");
+        m.add("blue");
+        m.add("RED");
+        m.add("red");
+        m.changeToExtractionMode();
+
+        assertEquals("blue", m.removeFirst());
+        assertEquals("Red", m.removeFirst());
+        assertEquals("Red", m.removeFirst());
+        assertEquals("Red", m.removeFirst());
+        assertEquals(0, m.size());
+    }
+
+    /**
+     * add test distinct-only case.
+     */
+    @Test
+    public void testAddDistinctOnly() {
+        final int n = 100;
+        CollapsingSortingMachine<Integer> m = new CollapsingSortingMachine<>(
+                Comparator.<Integer>naturalOrder(), true);
+        for (int i = 0; i < n; i++) {
+            m.add(i % 10);
+        }
+
+        assertEquals(10, m.size());
+        m.changeToExtractionMode();
+        for (int i = 0; i < 10; i++) {
+            assertEquals(Integer.valueOf(i), m.removeFirst());
+        }
+        assertEquals(0, m.size());
+    }
+
+}
@@ -0,0 +1,707 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.Serializable;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.function.Consumer;
+
+import org.junit.Test;
+
+/**
+ * JUnit test fixture for {@code DistributedSortingMachine}, with the workers
+ * running on threads of this JVM unless stated otherwise.
+ */
+public final class DistributedSortingMachineTest {
+
+    /**
+     * Comparator that can be serialized but not deserialized, so that the
+     * worker fails to decode it.
+     */
+    private static final class UndecodableOrder
+            implements Comparator<String>, Serializable {
+
+        /**
+         * Serialization version.
+         */
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        public int compare(String a, String b) {
+            return a.compareTo(b);
+        }
+
+        /**
+         * Fails to deserialize.
+         *
+         * @param in
+         *            the source
+         * @throws IOException
+         *             always
+         */
+        private void readObject(ObjectInputStream in) throws IOException {
+            throw new IOException("undecodable comparator");
+        }
+
+    }
+
+    /**
+     * Comparator with a field of a type the worker does not deserialize.
+     */
+    private static final class ListHoldingOrder
+            implements Comparator<String>, Serializable {
+
+        /**
+         * Serialization version.
+         */
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * Field of a type outside the worker's filter.
+         */
+        private final ArrayList<String> unused = new ArrayList<>();
+
+        @Override
+        public int compare(String a, String b) {
+            return a.compareTo(b) + this.unused.size();
+        }
+
+    }
+
+    /**
+     * Starts a thread running {@code worker} on each of {@code servers}.
+     *
+     * @param servers
+     *            the listening sockets
+     * @param worker
+     *            what to run on each
+     * @return the addresses of the servers
+     */
+    private static List<InetSocketAddress> start(List<ServerSocket> servers,
+            Consumer<ServerSocket> worker) {
+        List<InetSocketAddress> addresses = new ArrayList<>();
+        for (ServerSocket server : servers) {
+            addresses.add(new InetSocketAddress(
+                    InetAddress.getLoopbackAddress(), server.getLocalPort()));
+            Thread t = new Thread(() -> worker.accept(server));
+            t.setDaemon(true);
+            t.start();
+        }
+        return addresses;
+    }
+
+    /**
+     * Opens {@code count} listening sockets on the loopback interface.
+     *
+     * @param count
+     *            the number of sockets
+     * @return the sockets
+     * @throws IOException
+     *             if a socket cannot be opened
+     */
+    private static List<ServerSocket> open(int count) throws IOException {
+        List<ServerSocket> servers = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            servers.add(new ServerSocket(0, 0,
+                    InetAddress.getLoopbackAddress()));
+        }
+        return servers;
+    }
+
+    /**
+     * Closes every one of {@code servers}.
+     *
+     * @param servers
+     *            the listening sockets
+     * @throws IOException
+     *             if a socket cannot be closed
+     */
+    private static void close(List<ServerSocket> servers) throws IOException {
+        for (ServerSocket server : servers) {
+            server.close();
+        }
+    }
+
+    /**
+     * Natural order that fails if a copy of it is called from more than one
+     * thread.
+     */
+    private static final class OneThreadOrder
+            implements Comparator<String>, Serializable {
+
+        /**
+         * Serialization version.
+         */
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * The first thread to call this copy, or {@code null}.
+         */
+        private transient Thread caller;
+
+        @Override
+        public int compare(String a, String b) {
+            if (this.caller == null) {
+                this.caller = Thread.currentThread();
+            } else if (this.caller != Thread.currentThread()) {
+                throw new IllegalStateException("called from "
+                        + Thread.currentThread() + " and " + this.caller);
+            }
+            return a.compareTo(b);
+        }
+
+    }
+
+    /**
+     * {@code StringRecordCodec} that, once armed, fails to encode
+     * {@code POISON}.
+     */
+    private static final class PoisonCodec implements RecordCodec<String> {
+
+        /**
+         * Serialization version.
+         */
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * The entry that cannot be encoded once armed.
+         */
+        private static final String POISON = "050";
+
+        /**
+         * Whether encoding {@code POISON} fails; shared by every copy in
+         * this JVM, coordinator's and workers' alike.
+         */
+        private static volatile boolean armed = false;
+
+        /**
+         * The codec doing the work.
+         */
+        private final StringRecordCodec strings = new StringRecordCodec();
+
+        @Override
+        public void write(String x, DataOutput out) throws IOException {
+            if (armed && x.equals(POISON)) {
+                throw new IllegalStateException("cannot encode " + x);
+            }
+            this.strings.write(x, out);
+        }
+
+        @Override
+        public String read(DataInput in) throws IOException {
+            return this.strings.read(in);
+        }
+
+    }
+
+    /**
+     * Worker that follows the protocol until {@code SORT}, then announces
+     * every entry but sends only the first one and closes the connection,
+     * as a worker dying mid-stream would; if {@code garbled}, the first entry
+     * is followed by an error report that could be mistaken for entries.
+     *
+     * @param server
+     *            the listening socket
+     * @param garbled
+     *            whether to send an error report within the entries
+     */
+    private static void dyingWorker(ServerSocket server, boolean garbled) {
+        StringRecordCodec codec = new StringRecordCodec();
+        try (Socket s = server.accept();
+                DataInputStream in = new DataInputStream(s.getInputStream());
+                DataOutputStream out = new DataOutputStream(
+                        s.getOutputStream())) {
+            in.readFully(new byte[in.readInt()]);
+            in.readFully(new byte[in.readInt()]);
+            out.writeInt(0);
+            List<String> entries = new ArrayList<>();
+            while (in.readByte() == DistributedSortWorker.ENTRY) {
+                entries.add(codec.read(in));
+            }
+            Collections.sort(entries);
+            out.writeInt(entries.size());
+            codec.write(entries.get(0), out);
+            if (garbled) {
+                out.writeInt(DistributedSortWorker.FAILED);
+                out.writeUTF("failed");
+            }
+            out.flush();
+        } catch (IOException e) {
+            // The coordinator is expected to give up.
+        }
+    }
+
+    /**
+     * removeFirst test across several workers case.
+     */
+    @Test
+    public void testRemoveFirstAcrossWorkers() throws IOException {
+        final int workerCount = 3;
+        final int n = 5000;
+        List<ServerSocket> servers = open(workerCount);
+        try {
+            List<InetSocketAddress> addresses = start(servers,
+                    DistributedSortWorker::serve);
+
+            DistributedSortingMachine<String> m = new DistributedSortingMachine<>(
+                    Comparator.naturalOrder(), new StringRecordCodec(),
+                    addresses);
+            Random random = new Random(n);
+            String[] expected = new String[n];
+            for (int i = 0; i < n; i++) {
+                expected[i] = Integer.toString(random.nextInt(), 16);
+                m.add(expected[i]);
+            }
+            Arrays.sort(expected);
+            m.changeToExtractionMode();
+
+            assertEquals(n, m.size());
+            for (int i = 0; i < n; i++) {
+                assertEquals(expected[i], m.removeFirst());
+            }
+            assertEquals(0, m.size());
+        } finally {
+            close(servers);
+        }
+    }
+
+    /**
+     * removeFirst test with input already sorted and a reversed order case.
+     */
+    @Test(timeout = 30000)
+    public void testRemoveFirstSortedInputReverseOrder() throws IOException {
+        final int workerCount = 4;
+        final int n = 3000;
+        List<ServerSocket> servers = open(workerCount);
+        try {
+            DistributedSortingMachine<String> m = new DistributedSortingMachine<>(
+                    Comparator.reverseOrder(), new StringRecordCodec(),
+                    start(servers, DistributedSortWorker::serve));
+            for (int i = 0; i < n; i++) {
+                m.add(String.format("%05d", i));
+            }
+            m.changeToExtractionMode();
+
+            for (int i = n - 1; i >= 0; i--) {
+                assertEquals(String.format("%05d", i), m.removeFirst());
+            }
+            assertEquals(0, m.size());
+        } finally {
+            close(servers);
+        }
+    }
+
+    /**
+     * iterator test in both modes, after the entries reached the workers.
+     */
+    @Test(timeout = 30000)
+    public void testIteratorAfterRouting() throws IOException {
+        final int workerCount = 3;
+        final int n = 1000;
+        final int removed = 100;
+        List<ServerSocket> servers = open(workerCount);
+        try {
+            DistributedSortingMachine<String> m = new DistributedSortingMachine<>(
+                    Comparator.naturalOrder(), new StringRecordCodec(),
+                    start(servers, DistributedSortWorker::serve));
+            List<String> expected = new ArrayList<>();
+            for (int i = 0; i < n; i++) {
+                String x = Integer.toString((i * 7919) % n);
+                expected.add(x);
+                m.add(x);
+            }
+            List<String> seen = new ArrayList<>();
+            for (String x : m) {
+                seen.add(x);
+            }
+            Collections.sort(expected);
+            Collections.sort(seen);
+            assertEquals(expected, seen);
+
+            m.changeToExtractionMode();
+            for (int i = 0; i < removed; i++) {
+                assertEquals(expected.get(i), m.removeFirst());
+            }
+            seen.clear();
+            for (String x : m) {
+                seen.add(x);
+            }
+            Collections.sort(seen);
+            assertEquals(expected.subList(removed, n), seen);
+
+            for (int i = removed; i < n; i++) {
+                assertEquals(expected.get(i), m.removeFirst());
+            }
+            assertEquals(0, m.size());
+        } finally {
+            close(servers);
+        }
+    }
+
+    /**
+     * transferFrom test part way through extraction, with toString and
+     * equals on the result case.
+     */
+    @Test(timeout = 30000)
+    public void testTransferFromMidExtraction() throws IOException {
+        final int workerCount = 2;
+        final int n = 500;
+        final int removed = 50;
+        List<ServerSocket> servers = open(workerCount);
+        try {
+            List<InetSocketAddress> addresses = start(servers,
+                    DistributedSortWorker::serve);
+            DistributedSortingMachine<String> m = new DistributedSortingMachine<>(
+                    Comparator.naturalOrder(), new StringRecordCodec(),
+                    addresses);
+            for (int i = n - 1; i >= 0; i--) {
+                m.add(String.format("%03d", i));
+            }
+            m.changeToExtractionMode();
+            for (int i = 0; i < removed; i++) {
+                assertEquals(String.format("%03d", i), m.removeFirst());
+            }
+
+            DistributedSortingMachine<String> moved = new DistributedSortingMachine<>(
+                    Comparator.naturalOrder(), new StringRecordCodec(),
+                    addresses);
+            moved.transferFrom(m);
+            assertEquals(0, m.size());
+            assertTrue(moved.toString().contains("499"));
+            assertFalse(moved.equals(moved.newInstance()));
+            for (int i = removed; i < n; i++) {
+                assertEquals(String.format("%03d", i), moved.removeFirst());
+            }
+            assertEquals(0, moved.size());
+        } finally {
+            close(servers);
+        }
+    }
+
+    /**
+     * removeFirst test with workers in separate JVMs and a comparator that is
+     * not a class's natural order case.
+     */
+    @Test(timeout = 60000)
+    public void testRemoveFirstSeparateJvms() throws IOException {
+        final int n = 2000;
+        try (DistributedSortWorker.LocalProcess w1 = DistributedSortWorker
+                .startLocal();
+                DistributedSortWorker.LocalProcess w2 = DistributedSortWorker
+                        .startLocal()) {
+            DistributedSortingMachine<String> m = new DistributedSortingMachine<>(
+                    String.CASE_INSENSITIVE_ORDER, new StringRecordCodec(),
+                    List.of(w1.address(), w2.address()));
+            Random random = new Random(n);
+            String[] expected = new String[n];
+            for (int i = 0; i < n; i++) {
+                String x = Integer.toString(random.nextInt(), 36);
+                if (random.nextBoolean()) {
+                    x = x.toUpperCase();
+                }
+                expected[i] = x;
+                m.add(x);
+            }
+            Arrays.sort(expected, String.CASE_INSENSITIVE_ORDER);
+            m.changeToExtractionMode();
+
+            for (int i = 0; i < n; i++) {
+                assertEquals(0, String.CASE_INSENSITIVE_ORDER
+                        .compare(expected[i], m.removeFirst()));
+            }
+            assertEquals(0, m.size());
+        }
+    }
+
+    /**
+     * Sorts {@code n} entries with {@code m} and reports whether the
+     * failure of a worker is reported, with fewer than {@code n} entries
+     * returned before.
+     *
+     * @param m
+     *            the machine
+     * @param n
+     *            the number of entries
+     * @param arm
+     *            run before changing to extraction mode
+     * @return true iff an {@code UncheckedIOException} is thrown before all
+     *         {@code n} entries are returned
+     */
+    private static boolean failureReported(DistributedSortingMachine<String> m,
+            int n, Runnable arm) {
+        for (int i = 0; i < n; i++) {
+            m.add(String.format("%03d", i));
+        }
+        arm.run();
+        int returned = 0;
+        boolean reported = false;
+        try {
+            m.changeToExtractionMode();
+            while (m.size() > 0) {
+                m.removeFirst();
+                returned++;
+            }
+        } catch (UncheckedIOException e) {
+            reported = true;
+        }
+        return reported && returned < n;
+    }
+
+    /**
+     * removeFirst test with a worker dying mid-stream case.
+     */
+    @Test(timeout = 30000)
+    public void testWorkerDiesMidStream() throws IOException {
+        final int n = 100;
+        List<ServerSocket> healthy = open(1);
+        List<ServerSocket> dying = open(1);
+        try {
+            List<InetSocketAddress> addresses = new ArrayList<>();
+            addresses.addAll(start(healthy, DistributedSortWorker::serve));
+            addresses.addAll(start(dying, s -> dyingWorker(s, false)));
+            DistributedSortingMachine<String> m = new DistributedSortingMachine<>(
+                    Comparator.naturalOrder(), new StringRecordCodec(),
+                    addresses);
+
+            assertTrue(failureReported(m, n, () -> {
+            }));
+        } finally {
+            close(healthy);
+            close(dying);
+        }
+    }
+
+    /**
+     * removeFirst test with a worker sending bytes that do not decode as
+     * entries case.
+     */
+    @Test(timeout = 30000)
+    public void testWorkerGarblesStream() throws IOException {
+        final int n = 100;
+        List<ServerSocket> healthy = open(1);
+        List<ServerSocket> garbling = open(1);
+        try {
+            List<InetSocketAddress> addresses = new ArrayList<>();
+            addresses.addAll(start(healthy, DistributedSortWorker::serve));
+            addresses.addAll(start(garbling, s -> dyingWorker(s, true)));
+            DistributedSortingMachine<String> m = new DistributedSortingMachine<>(
+                    Comparator.naturalOrder(), new StringRecordCodec(),
+                    addresses);
+
+            assertTrue(failureReported(m, n, () -> {
+            }));
+        } finally {
+            close(healthy);
+            close(garbling);
+        }
+    }
+
+    /**
+     * removeFirst test with a worker failing part way through its reply case.
+     */
+    @Test(timeout = 30000)
+    public void testWorkerFailsMidReply() throws IOException {
+        final int n = 100;
+        List<ServerSocket> servers = open(2);
+        try {
+            DistributedSortingMachine<String> m = new DistributedSortingMachine<>(
+                    Comparator.naturalOrder(), new PoisonCodec(),
+                    start(servers, DistributedSortWorker::serve));
+
+            assertTrue(failureReported(m, n, () -> PoisonCodec.armed = true));
+        } finally {
+            PoisonCodec.armed = false;
+            close(servers);
+        }
+    }
+
+    /**
+     * add test with a worker refusing the connection case.
+     */
+    @Test(timeout = 30000)
+    public void testConnectionRefused() throws IOException {
+        List<ServerSocket> closed = open(1);
+        InetSocketAddress address = new InetSocketAddress(
+                InetAddress.getLoopbackAddress(),
+                closed.get(0).getLocalPort());
+        close(closed);
+        DistributedSortingMachine<String> m = new DistributedSortingMachine<>(
+                Comparator.naturalOrder(), new StringRecordCodec(),
+                List.of(address));
+
+        boolean reported = false;
+        try {
+            m.add("red");
+        } catch (UncheckedIOException e) {
+            reported = true;
+        }
+        assertTrue(reported);
+    }
+
+    /**
+     * add test with a worker unable to decode the comparator case.
+     */
+    @Test(timeout = 30000)
+    public void testWorkerCannotDecodeOrder() throws IOException {
+        List<ServerSocket> servers = open(1);
+        try {
+            DistributedSortingMachine<String> m = new DistributedSortingMachine<>(
+                    new UndecodableOrder(), new StringRecordCodec(),
+                    start(servers, DistributedSortWorker::serve));
+
+            String message = null;
+            try {
+                m.add("red");
+            } catch (UncheckedIOException e) {
+                message = e.getMessage();
+            }
+            assertTrue(message != null
+                    && message.contains("undecodable comparator"));
+        } finally {
+            close(servers);
+        }
+    }
+
+    /**
+     * removeFirst test with a share large enough for a parallel build and a
+     * comparator that may only be called from one thread, with the worker in
+     * a separate JVM case.
+     */
+    @Test(timeout = 60000)
+    public void testWorkerCallsOrderFromOneThread() throws IOException {
+        final int n = 20000;
+        try (DistributedSortWorker.LocalProcess w = DistributedSortWorker
+                .startLocal()) {
+            DistributedSortingMachine<String> m = new DistributedSortingMachine<>(
+                    new OneThreadOrder(), new StringRecordCodec(),
+                    List.of(w.address()));
+            for (int i = n - 1; i >= 0; i--) {
+                m.add(String.format("%05d", i));
+            }
+            m.changeToExtractionMode();
+
+            for (int i = 0; i < n; i++) {
+                assertEquals(String.format("%05d", i), m.removeFirst());
+            }
+        }
+    }
+
+    /**
+     * add test with a comparator holding a class outside the worker's filter
+     * case.
+     */
+    @Test(timeout = 30000)
+    public void testWorkerRejectsFilteredClass() throws IOException {
+        List<ServerSocket> servers = open(1);
+        try {
+            DistributedSortingMachine<String> m = new DistributedSortingMachine<>(
+                    new ListHoldingOrder(), new StringRecordCodec(),
+                    start(servers, DistributedSortWorker::serve));
+
+            String message = null;
+            try {
+                m.add("red");
+            } catch (UncheckedIOException e) {
+                message = e.getMessage();
+            }
+            assertTrue(message != null && message.contains("REJECTED"));
+        } finally {
+            close(servers);
+        }
+    }
+
+    /**
+     * Worker test with out-of-range serialized object lengths case.
+     */
+    @Test(timeout = 30000)
+    public void testWorkerRejectsObjectLength() throws IOException {
+        List<ServerSocket> servers = open(1);
+        try {
+            InetSocketAddress address = start(servers,
+                    DistributedSortWorker::serve).get(0);
+            int[] lengths = { -1, DistributedSortWorker.MAX_OBJECT_BYTES + 1,
+                Integer.MAX_VALUE };
+            for (int length : lengths) {
+                try (Socket s = new Socket(address.getAddress(),
+                        address.getPort());
+                        DataInputStream in = new DataInputStream(
+                                s.getInputStream());
+                        DataOutputStream out = new DataOutputStream(
+                                s.getOutputStream())) {
+                    out.writeInt(length);
+                    out.flush();
+                    assertEquals(DistributedSortWorker.FAILED, in.readInt());
+                    assertTrue(in.readUTF().contains(Integer.toString(length)));
+                }
+            }
+        } finally {
+            close(servers);
+        }
+    }
+
+    /**
+     * removeFirst test with a serializable lambda as the order case.
+     */
+    @Test(timeout = 30000)
+    public void testRemoveFirstSerializableLambda() throws IOException {
+        final int n = 500;
+        List<ServerSocket> servers = open(2);
+        try {
+            Comparator<String> byLengthThenReverse = (Comparator<String> & Serializable) (
+                    a, b) -> a.length() != b.length()
+                            ? Integer.compare(a.length(), b.length())
+                            : b.compareTo(a);
+            DistributedSortingMachine<String> m = new DistributedSortingMachine<>(
+                    byLengthThenReverse, new StringRecordCodec(),
+                    start(servers, DistributedSortWorker::serve));
+            List<String> expected = new ArrayList<>();
+            for (int i = 0; i < n; i++) {
+                String x = Integer.toString(i * 37 % n);
+                expected.add(x);
+                m.add(x);
+            }
+            expected.sort(byLengthThenReverse);
+            m.changeToExtractionMode();
+
+            for (int i = 0; i < n; i++) {
+                assertEquals(expected.get(i), m.removeFirst());
+            }
+        } finally {
+            close(servers);
+        }
+    }
+
+    /**
+     * Constructor test with a comparator that cannot be serialized case.
+     */
+    @Test
+    public void testConstructorRejectsNonSerializableOrder() {
+        Comparator<String> order = (a, b) -> b.compareTo(a);
+        boolean rejected = false;
+        try {
+            new DistributedSortingMachine<>(order, new StringRecordCodec(),
+                    List.of(new InetSocketAddress(
+                            InetAddress.getLoopbackAddress(), 1)));
+        } catch (IllegalArgumentException e) {
+            rejected = true;
+        }
+        assertTrue(rejected);
+    }
+
+}
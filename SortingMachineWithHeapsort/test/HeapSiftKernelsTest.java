@@ -0,0 +1,82 @@
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * JUnit test fixture for {@code HeapSiftKernels}.
+ */
+public final class HeapSiftKernelsTest {
+
+    /**
+     * Sorts {@code array} with {@code kernel} by repeatedly moving the root of
+     * the heap to the end, and returns the entries in increasing order.
+     *
+     * @param kernel
+     *            the kernel
+     * @param array
+     *            the entries
+     * @param order
+     *            the order
+     * @return the entries in increasing order
+     */
+    private static Integer[] drain(HeapSiftKernel kernel, Integer[] array,
+            Comparator<Integer> order) {
+        Integer[] sorted = new Integer[array.length];
+        kernel.heapify(array, array.length - 1, order);
+        for (int last = array.length - 1; last >= 0; last--) {
+            sorted[array.length - 1 - last] = array[0];
+            array[0] = array[last];
+            kernel.siftDown(array, 0, last - 1, order);
+        }
+        return sorted;
+    }
+
+    /**
+     * forOrder test one kernel per comparator class case.
+     */
+    @Test
+    public void testForOrderPerComparatorClass() {
+        Comparator<Integer> byValue = Integer::compare;
+        Comparator<Integer> byString = Comparator.comparing(String::valueOf);
+
+        HeapSiftKernel k1 = HeapSiftKernels.forOrder(byValue, null);
+        HeapSiftKernel k2 = HeapSiftKernels.forOrder(byString, null);
+
+        assertSame(k1, HeapSiftKernels.forOrder(byValue, null));
+        assertNotSame(k1, k2);
+        assertNotSame(k1.getClass(), k2.getClass());
+    }
+
+    /**
+     * heapify and siftDown test comparator and natural order case.
+     */
+    @Test
+    public void testHeapifySiftDown() {
+        final int n = 500;
+        Random random = new Random(n);
+        Integer[] array = new Integer[n];
+        for (int i = 0; i < n; i++) {
+            array[i] = random.nextInt(n);
+        }
+        Integer[] expected = array.clone();
+        Arrays.sort(expected);
+        Comparator<Integer> byValue = Integer::compare;
+        Comparator<Integer> natural = Comparator.naturalOrder();
+
+        Integer[] sorted1 = drain(HeapSiftKernels.forOrder(byValue, null),
+                array.clone(), byValue);
+        Integer[] sorted2 = drain(
+                HeapSiftKernels.forOrder(natural, Integer.class),
+                array.clone(), natural);
+
+        assertArrayEquals(expected, sorted1);
+        assertArrayEquals(expected, sorted2);
+    }
+
+}
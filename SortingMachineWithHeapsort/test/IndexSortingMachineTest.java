@@ -0,0 +1,74 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * JUnit test fixture for {@code IndexSortingMachine}.
+ */
+public final class IndexSortingMachineTest {
+
+    /**
+     * removeFirst test two orderings over one dataset case.
+     */
+    @Test
+    public void testTwoOrderings() {
+        final String[] names = { "carol", "alice", "dave", "bob" };
+        final int[] ages = { 41, 29, 35, 52 };
+        IndexSortingMachine byName = new IndexSortingMachine(
+                IndexOrder.over(i -> names[i], Comparator.naturalOrder()));
+        IndexSortingMachine byAge = new IndexSortingMachine(
+                (i, j) -> Integer.compare(ages[i], ages[j]));
+        byName.addRange(0, names.length);
+        byAge.addRange(0, ages.length);
+        byName.changeToExtractionMode();
+        byAge.changeToExtractionMode();
+
+        assertFalse(byName.isInInsertionMode());
+        assertEquals(1, byName.removeFirst());
+        assertEquals(3, byName.removeFirst());
+        assertEquals("carol", byName.removeFirstRecord(i -> names[i]));
+        assertEquals("dave", byName.removeFirstRecord(i -> names[i]));
+        assertEquals(0, byName.size());
+        assertEquals(1, byAge.removeFirst());
+        assertEquals(2, byAge.removeFirst());
+        assertEquals(0, byAge.removeFirst());
+        assertEquals(3, byAge.removeFirst());
+        assertEquals(0, byAge.size());
+        assertEquals("carol", names[0]);
+    }
+
+    /**
+     * removeFirst test random keys case.
+     */
+    @Test
+    public void testRandom() {
+        final int n = 5000;
+        Random random = new Random(n);
+        final double[] keys = new double[n];
+        for (int i = 0; i < n; i++) {
+            keys[i] = random.nextDouble();
+        }
+        IndexSortingMachine m = new IndexSortingMachine(
+                (i, j) -> Double.compare(keys[i], keys[j]));
+        for (int i = n - 1; i >= 0; i--) {
+            m.add(i);
+        }
+        m.changeToExtractionMode();
+        double[] sorted = keys.clone();
+        Arrays.sort(sorted);
+
+        for (int i = 0; i < n; i++) {
+            assertEquals(sorted[i], keys[m.removeFirst()], 0);
+        }
+        assertEquals(0, m.size());
+        m.clear();
+        assertTrue(m.isInInsertionMode());
+    }
+
+}
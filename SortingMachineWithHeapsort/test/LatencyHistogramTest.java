@@ -0,0 +1,109 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+
+import org.junit.Test;
+
+/**
+ * JUnit test fixture for {@code LatencyHistogram}.
+ */
+public final class LatencyHistogramTest {
+
+    /**
+     * valueAtPercentile test uniform values case.
+     */
+    @Test
+    public void testValueAtPercentileUniform() {
+        final int n = 100000;
+        LatencyHistogram h = new LatencyHistogram();
+        for (int i = 1; i <= n; i++) {
+            h.record(i);
+        }
+
+        assertEquals(n, h.totalCount());
+        assertEquals(1, h.min());
+        assertEquals(n, h.max());
+        assertEquals(n, h.valueAtPercentile(100));
+        long p50 = h.valueAtPercentile(50);
+        long p99 = h.valueAtPercentile(99);
+        assertTrue(Math.abs(p50 - n / 2) <= n / 2 / 100);
+        assertTrue(Math.abs(p99 - n * 99 / 100) <= n * 99 / 100 / 100);
+    }
+
+    /**
+     * valueAtPercentile test exact ranks case.
+     */
+    @Test
+    public void testValueAtPercentileExactRank() {
+        final int n = 50;
+        LatencyHistogram h = new LatencyHistogram();
+        for (int i = 1; i <= n; i++) {
+            h.record(i);
+        }
+
+        /*
+         * 14/100 * 50 is exactly 7, which a divide-first computation
+         * overshoots by one rank; likewise for 28 and 56.
+         */
+        assertEquals(7, h.valueAtPercentile(14));
+        assertEquals(14, h.valueAtPercentile(28));
+        assertEquals(28, h.valueAtPercentile(56));
+    }
+
+    /**
+     * valueAtPercentile test small values are exact case.
+     */
+    @Test
+    public void testValueAtPercentileExact() {
+        LatencyHistogram h = new LatencyHistogram();
+        h.record(3);
+        h.record(7);
+        h.record(7);
+        h.record(200);
+
+        assertEquals(3, h.valueAtPercentile(25));
+        assertEquals(7, h.valueAtPercentile(50));
+        assertEquals(7, h.valueAtPercentile(75));
+        assertEquals(200, h.valueAtPercentile(99.99));
+    }
+
+    /**
+     * add test case.
+     */
+    @Test
+    public void testAdd() {
+        LatencyHistogram h1 = new LatencyHistogram();
+        LatencyHistogram h2 = new LatencyHistogram();
+        h1.record(10);
+        h2.record(1000000);
+        h2.record(5);
+
+        h1.add(h2);
+
+        assertEquals(3, h1.totalCount());
+        assertEquals(5, h1.min());
+        assertEquals(1000000, h1.max());
+        assertEquals(10, h1.valueAtPercentile(50));
+    }
+
+    /**
+     * outputPercentileDistribution test case.
+     */
+    @Test
+    public void testOutputPercentileDistribution() {
+        LatencyHistogram h = new LatencyHistogram();
+        for (int i = 1; i <= 1000; i++) {
+            h.record(i * 1000L);
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+        h.outputPercentileDistribution(new PrintStream(bytes), 1000.0);
+
+        String text = bytes.toString();
+        assertTrue(text.contains("1000.000 1.000000000000       1000"));
+        assertTrue(text.contains("#[Max     =     1000.000, Total count    =         1000]"));
+    }
+
+}
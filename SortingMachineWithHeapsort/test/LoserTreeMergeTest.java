@@ -0,0 +1,92 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * JUnit test fixture for {@code LoserTreeMerge}.
+ */
+public final class LoserTreeMergeTest {
+
+    /**
+     * next test no sources case.
+     */
+    @Test
+    public void testNoSources() {
+        List<Iterator<Integer>> sources = new ArrayList<>();
+        LoserTreeMerge<Integer> merge = new LoserTreeMerge<>(sources,
+                Comparator.<Integer>naturalOrder());
+
+        assertFalse(merge.hasNext());
+    }
+
+    /**
+     * next test many sources case.
+     */
+    @Test
+    public void testManySources() {
+        final int k = 13;
+        final int n = 2000;
+        Random random = new Random(k);
+        List<List<Integer>> lists = new ArrayList<>();
+        for (int i = 0; i < k; i++) {
+            lists.add(new ArrayList<>());
+        }
+        List<Integer> expected = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            int x = random.nextInt(n / 4);
+            lists.get(random.nextInt(k)).add(x);
+            expected.add(x);
+        }
+        List<Iterator<Integer>> sources = new ArrayList<>();
+        for (List<Integer> list : lists) {
+            Collections.sort(list);
+            sources.add(list.iterator());
+        }
+        Collections.sort(expected);
+
+        LoserTreeMerge<Integer> merge = new LoserTreeMerge<>(sources,
+                Comparator.<Integer>naturalOrder());
+
+        List<Integer> merged = new ArrayList<>();
+        while (merge.hasNext()) {
+            merged.add(merge.next());
+        }
+        assertEquals(expected, merged);
+    }
+
+    /**
+     * next test ties in source order case.
+     */
+    @Test
+    public void testStable() {
+        String a1 = new String("a");
+        String a2 = new String("A");
+        String a3 = new String("a");
+        List<Iterator<String>> sources = Arrays.asList(
+                Arrays.asList(a1, "c").iterator(),
+                Collections.<String>emptyIterator(),
+                Arrays.asList(a2, "b").iterator(),
+                Arrays.asList(a3).iterator());
+
+        LoserTreeMerge<String> merge = new LoserTreeMerge<>(sources,
+                String.CASE_INSENSITIVE_ORDER);
+
+        assertSame(a1, merge.next());
+        assertSame(a2, merge.next());
+        assertSame(a3, merge.next());
+        assertEquals("b", merge.next());
+        assertEquals("c", merge.next());
+        assertFalse(merge.hasNext());
+    }
+
+}
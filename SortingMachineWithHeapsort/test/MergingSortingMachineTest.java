@@ -0,0 +1,59 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Comparator;
+
+import org.junit.Test;
+
+import components.sortingmachine.SortingMachine;
+import components.sortingmachine.SortingMachine1L;
+
+/**
+ * Customized JUnit test fixture for {@code MergingSortingMachine}.
+ */
+public final class MergingSortingMachineTest extends SortingMachineTest {
+
+    @Override
+    protected SortingMachine<String> constructorTest(Comparator<String> order) {
+        return new MergingSortingMachine<String>(order);
+    }
+
+    @Override
+    protected SortingMachine<String> constructorRef(Comparator<String> order) {
+        return new SortingMachine1L<String>(order);
+    }
+
+    /**
+     * addSorted test case.
+     */
+    @Test
+    public void testAddSorted() {
+        Comparator<String> order = String.CASE_INSENSITIVE_ORDER;
+        MergingSortingMachine<String> m = new MergingSortingMachine<>(order);
+        SortingMachine<String> s1 = new SortingMachine5a<>(order);
+        SortingMachine<String> s2 = new SortingMachine1L<>(order);
+        s1.add("red");
+        s1.add("blue");
+        s2.add("green");
+        s2.add("yellow");
+        s1.changeToExtractionMode();
+        s2.changeToExtractionMode();
+        m.add("orange");
+
+        m.addSorted(s1);
+        m.addSorted(s2);
+
+        assertEquals(0, s1.size());
+        assertTrue(s1.isInInsertionMode());
+        assertEquals(5, m.size());
+        m.changeToExtractionMode();
+        assertEquals("blue", m.removeFirst());
+        assertEquals(4, m.size());
+        assertEquals("green", m.removeFirst());
+        assertEquals("orange", m.removeFirst());
+        assertEquals("red", m.removeFirst());
+        assertEquals("yellow", m.removeFirst());
+        assertEquals(0, m.size());
+    }
+
+}
@@ -0,0 +1,56 @@
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+/**
+ * JUnit test fixture for {@code RadixHeapSortingMachine}.
+ */
+public final class RadixHeapSortingMachineTest {
+
+    /**
+     * removeFirst test mixed-sign priorities case.
+     */
+    @Test
+    public void testRemoveFirstMixedSigns() {
+        RadixHeapSortingMachine<Long> m = new RadixHeapSortingMachine<>(
+                Long::longValue);
+        long[] keys = { 7, -3, Long.MAX_VALUE, 0, Long.MIN_VALUE, 7, 42 };
+        for (long k : keys) {
+            m.add(k);
+        }
+        m.changeToExtractionMode();
+
+        assertEquals(keys.length, m.size());
+        assertEquals(Long.MIN_VALUE, m.removeFirst().longValue());
+        assertEquals(-3L, m.removeFirst().longValue());
+        assertEquals(0L, m.removeFirst().longValue());
+        assertEquals(7L, m.removeFirst().longValue());
+        assertEquals(7L, m.removeFirst().longValue());
+        assertEquals(42L, m.removeFirst().longValue());
+        assertEquals(Long.MAX_VALUE, m.removeFirst().longValue());
+        assertEquals(0, m.size());
+    }
+
+    /**
+     * insert test interleaved with removeFirst case.
+     */
+    @Test
+    public void testInsertInterleaved() {
+        RadixHeapSortingMachine<Long> m = new RadixHeapSortingMachine<>(
+                Long::longValue);
+        m.add(10L);
+        m.add(20L);
+        m.changeToExtractionMode();
+
+        assertEquals(10L, m.removeFirst().longValue());
+        m.insert(15L);
+        m.insert(10L);
+        assertEquals(10L, m.removeFirst().longValue());
+        assertEquals(15L, m.removeFirst().longValue());
+        m.insert(100L);
+        assertEquals(20L, m.removeFirst().longValue());
+        assertEquals(100L, m.removeFirst().longValue());
+        assertEquals(0, m.size());
+    }
+
+}
@@ -0,0 +1,65 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import components.queue.Queue;
+import components.queue.Queue2;
+
+/**
+ * JUnit test fixture for {@code ReorderBuffer}.
+ */
+public final class ReorderBufferTest {
+
+    /**
+     * pollUpTo test out-of-order events case.
+     */
+    @Test
+    public void testPollUpToOutOfOrder() {
+        ReorderBuffer<Long> buffer = new ReorderBuffer<>(Long::longValue, 8);
+        buffer.add(5L);
+        buffer.add(2L);
+        buffer.add(9L);
+        buffer.add(4L);
+        Queue<Long> released = new Queue2<>();
+
+        int count = buffer.pollUpTo(5L, released);
+
+        Queue<Long> expected = new Queue2<>();
+        expected.enqueue(2L);
+        expected.enqueue(4L);
+        expected.enqueue(5L);
+        assertEquals(3, count);
+        assertEquals(expected, released);
+        assertEquals(1, buffer.size());
+        assertEquals(5L, buffer.watermark());
+    }
+
+    /**
+     * isLate and pollAll test case.
+     */
+    @Test
+    public void testLateAndPollAll() {
+        ReorderBuffer<Long> buffer = new ReorderBuffer<>(Long::longValue, 2);
+        Queue<Long> released = new Queue2<>();
+        buffer.add(3L);
+        buffer.pollUpTo(3L, released);
+
+        assertTrue(buffer.isLate(3L));
+        assertFalse(buffer.isLate(4L));
+        buffer.add(7L);
+        buffer.add(6L);
+        assertEquals(0, buffer.remainingCapacity());
+
+        released.clear();
+        buffer.pollAll(released);
+
+        Queue<Long> expected = new Queue2<>();
+        expected.enqueue(6L);
+        expected.enqueue(7L);
+        assertEquals(expected, released);
+        assertEquals(0, buffer.size());
+    }
+
+}
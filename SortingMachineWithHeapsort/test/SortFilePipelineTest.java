@@ -0,0 +1,191 @@
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * JUnit test fixture for {@code SortFilePipeline}.
+ */
+public final class SortFilePipelineTest {
+
+    /**
+     * Sorts {@code text} with the given window size and returns the output.
+     *
+     * @param text
+     *            the input file contents
+     * @param windowSize
+     *            size of the input mapping window
+     * @param lines
+     *            the expected number of lines
+     * @return the output file contents
+     * @throws IOException
+     *             if a temporary file cannot be used
+     */
+    private static String sortText(String text, int windowSize, long lines)
+            throws IOException {
+        return new String(sortBytes(text.getBytes(StandardCharsets.UTF_8),
+                Comparator.<String>naturalOrder(), windowSize, lines),
+                StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Sorts {@code bytes} with the given order and window size and returns
+     * the output.
+     *
+     * @param bytes
+     *            the input file contents
+     * @param order
+     *            the order of the lines
+     * @param windowSize
+     *            size of the input mapping window
+     * @param lines
+     *            the expected number of lines
+     * @return the output file contents
+     * @throws IOException
+     *             if a temporary file cannot be used or the input is not
+     *             valid UTF-8
+     */
+    private static byte[] sortBytes(byte[] bytes, Comparator<String> order,
+            int windowSize, long lines) throws IOException {
+        Path input = Files.createTempFile("SortFilePipelineTest", ".in");
+        Path output = Files.createTempFile("SortFilePipelineTest", ".out");
+        try {
+            Files.write(input, bytes);
+            SortFilePipeline.Report report = SortFilePipeline.sort(input,
+                    output, order, windowSize);
+            assertEquals(lines, report.lines());
+            assertEquals(bytes.length, report.bytes());
+            return Files.readAllBytes(output);
+        } finally {
+            Files.deleteIfExists(input);
+            Files.deleteIfExists(output);
+        }
+    }
+
+    /**
+     * Returns a string of up to three code points drawn from {@code pool}.
+     *
+     * @param random
+     *            the source of randomness
+     * @param pool
+     *            the code points to draw from
+     * @return the string
+     */
+    private static String randomString(Random random, int[] pool) {
+        StringBuilder b = new StringBuilder();
+        int length = random.nextInt(4);
+        for (int i = 0; i < length; i++) {
+            b.appendCodePoint(pool[random.nextInt(pool.length)]);
+        }
+        return b.toString();
+    }
+
+    /**
+     * sort test small file case.
+     *
+     * @throws IOException
+     *             if a temporary file cannot be used
+     */
+    @Test
+    public void testSortSmall() throws IOException {
+        String sorted = sortText("red\ngreen\r\nblue\n\u00e9t\u00e9\nblue",
+                SortFilePipeline.DEFAULT_WINDOW_SIZE, 5);
+
+        assertEquals("blue\nblue\ngreen\nred\n\u00e9t\u00e9\n", sorted);
+    }
+
+    /**
+     * sort test lines across and longer than the window case.
+     *
+     * @throws IOException
+     *             if a temporary file cannot be used
+     */
+    @Test
+    public void testSortSmallWindow() throws IOException {
+        String sorted = sortText(
+                "pear\napple\na-line-much-longer-than-the-window\nfig\n\nkiwi\n",
+                8, 6);
+
+        assertEquals("\na-line-much-longer-than-the-window\napple\nfig\nkiwi"
+                + "\npear\n", sorted);
+    }
+
+    /**
+     * sort test input that is not UTF-8 case.
+     *
+     * @throws IOException
+     *             if a temporary file cannot be used
+     */
+    @Test
+    public void testSortRejectsMalformedInput() throws IOException {
+        byte[] latin1 = { 'r', 'e', 'd', '\n', (byte) 0xE9, '\n', 'b', '\n' };
+        String message = null;
+        try {
+            sortBytes(latin1, Comparator.<String>naturalOrder(),
+                    SortFilePipeline.DEFAULT_WINDOW_SIZE, 3);
+        } catch (IOException e) {
+            message = e.getMessage();
+        }
+
+        assertEquals("line 2 is not valid UTF-8", message);
+    }
+
+    /**
+     * sort test input containing U+FFFD itself case.
+     *
+     * @throws IOException
+     *             if a temporary file cannot be used
+     */
+    @Test
+    public void testSortReplacementCharacter() throws IOException {
+        String sorted = sortText("\ufffd\nb\na\n",
+                SortFilePipeline.DEFAULT_WINDOW_SIZE, 3);
+
+        assertEquals("a\nb\n\ufffd\n", sorted);
+    }
+
+    /**
+     * sort test supplementary characters in code point order case.
+     *
+     * @throws IOException
+     *             if a temporary file cannot be used
+     */
+    @Test
+    public void testSortCodePointOrder() throws IOException {
+        String text = "\ud83d\ude00\n\uff21\nA\n\ud83d\ude00a\n";
+        byte[] sorted = sortBytes(text.getBytes(StandardCharsets.UTF_8),
+                SortFilePipeline.CODE_POINT_ORDER,
+                SortFilePipeline.DEFAULT_WINDOW_SIZE, 4);
+
+        assertEquals("A\n\uff21\n\ud83d\ude00\n\ud83d\ude00a\n",
+                new String(sorted, StandardCharsets.UTF_8));
+    }
+
+    /**
+     * CODE_POINT_ORDER test against unsigned byte order of UTF-8 case.
+     */
+    @Test
+    public void testCodePointOrderMatchesUtf8Bytes() {
+        final int pairs = 10000;
+        final int[] pool = { 'a', 'z', 0x7FF, 0x800, 0xD7FF, 0xE000, 0xFFFF,
+            0x10000, 0x1F600, 0x10FFFF };
+        Random random = new Random(pairs);
+        for (int i = 0; i < pairs; i++) {
+            String a = randomString(random, pool);
+            String b = randomString(random, pool);
+            int bytes = Arrays.compareUnsigned(
+                    a.getBytes(StandardCharsets.UTF_8),
+                    b.getBytes(StandardCharsets.UTF_8));
+            int codePoints = SortFilePipeline.CODE_POINT_ORDER.compare(a, b);
+            assertEquals(Integer.signum(bytes), Integer.signum(codePoints));
+        }
+    }
+
+}
@@ -0,0 +1,98 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * JUnit test fixture for {@code SortingMachine5aPool}.
+ */
+public final class SortingMachine5aPoolTest {
+
+    /**
+     * acquire and release test reuse case.
+     */
+    @Test
+    public void testAcquireReleaseReuse() {
+        SortingMachine5aPool<String> pool = new SortingMachine5aPool<>(
+                String.CASE_INSENSITIVE_ORDER, 4, 1);
+        SortingMachine5a<String> m = pool.acquire();
+        m.add("red");
+        m.add("blue");
+        m.add("green");
+        m.changeToExtractionMode();
+        assertEquals("blue", m.removeFirst());
+
+        pool.release(m);
+        SortingMachine5a<String> reused = pool.acquire();
+
+        assertSame(m, reused);
+        assertTrue(reused.isInInsertionMode());
+        assertEquals(0, reused.size());
+        assertEquals(0, pool.idleCount());
+    }
+
+    /**
+     * release test full pool case.
+     */
+    @Test
+    public void testReleaseFullPool() {
+        SortingMachine5aPool<String> pool = new SortingMachine5aPool<>(
+                String.CASE_INSENSITIVE_ORDER, 4, 1);
+        SortingMachine5a<String> m1 = pool.acquire();
+        SortingMachine5a<String> m2 = pool.acquire();
+
+        pool.release(m1);
+        pool.release(m2);
+
+        assertEquals(1, pool.idleCount());
+    }
+
+    /**
+     * release test oversized machine case.
+     */
+    @Test
+    public void testReleaseOversized() {
+        SortingMachine5aPool<String> pool = new SortingMachine5aPool<>(
+                String.CASE_INSENSITIVE_ORDER, 4, 2, 8);
+        SortingMachine5a<String> small = pool.acquire();
+        SortingMachine5a<String> large = pool.acquire();
+        for (int i = 0; i < 100; i++) {
+            large.add(Integer.toString(i));
+        }
+
+        pool.release(large);
+        pool.release(small);
+
+        assertEquals(1, pool.idleCount());
+        assertSame(small, pool.acquire());
+    }
+
+    /**
+     * acquire and release test reuse across lazy builds case.
+     */
+    @Test
+    public void testReuseLazy() {
+        SortingMachine5aPool<String> pool = new SortingMachine5aPool<>(
+                String.CASE_INSENSITIVE_ORDER, 4, 1);
+        SortingMachine5a<String> m = pool.acquire();
+        m.add("red");
+        m.add("blue");
+        m.changeToLazyExtractionMode();
+        assertEquals("blue", m.removeFirst());
+        pool.release(m);
+
+        SortingMachine5a<String> reused = pool.acquire();
+        reused.add("green");
+        reused.add("orange");
+        reused.add("blue");
+        reused.changeToLazyExtractionMode();
+
+        assertSame(m, reused);
+        assertEquals("blue", reused.removeFirst());
+        assertEquals("green", reused.removeFirst());
+        assertEquals("orange", reused.removeFirst());
+        assertEquals(0, reused.size());
+    }
+
+}
@@ -1,4 +1,16 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Test;
 
 import components.sortingmachine.SortingMachine;
 import components.sortingmachine.SortingMachine1L;
@@ -18,4 +30,505 @@ public final class SortingMachine5aTest extends SortingMachineTest {
         return new SortingMachine1L<String>(order);
     }
 
+    /**
+     * Comparator instance to be used in the {@code SortingMachine5a}-specific
+     * test cases.
+     */
+    private static final Comparator<String> ORDER_5A = String.CASE_INSENSITIVE_ORDER;
+
+    /**
+     * merge test insertion mode case.
+     */
+    @Test
+    public void testMergeInsertionMode() {
+        SortingMachine5a<String> m = new SortingMachine5a<>(ORDER_5A);
+        SortingMachine5a<String> other = new SortingMachine5a<>(ORDER_5A);
+        SortingMachine<String> mExpected = new SortingMachine1L<>(ORDER_5A);
+        m.add("green");
+        m.add("blue");
+        other.add("red");
+        mExpected.add("green");
+        mExpected.add("blue");
+        mExpected.add("red");
+
+        m.merge(other);
+
+        assertEquals(mExpected, m);
+        assertEquals(new SortingMachine1L<>(ORDER_5A), other);
+    }
+
+    /**
+     * merge test extraction mode case.
+     */
+    @Test
+    public void testMergeExtractionMode() {
+        SortingMachine5a<String> m = new SortingMachine5a<>(ORDER_5A);
+        SortingMachine5a<String> other = new SortingMachine5a<>(ORDER_5A);
+        m.add("green");
+        m.add("blue");
+        m.add("zebra");
+        other.add("red");
+        other.add("apple");
+        m.changeToExtractionMode();
+        other.changeToExtractionMode();
+        m.removeFirst();
+
+        m.merge(other);
+
+        assertEquals(4, m.size());
+        assertEquals("apple", m.removeFirst());
+        assertEquals("green", m.removeFirst());
+        assertEquals("red", m.removeFirst());
+        assertEquals("zebra", m.removeFirst());
+        assertEquals(0, other.size());
+    }
+
+    /**
+     * merge test foreign implementation case.
+     */
+    @Test
+    public void testMergeFromReference() {
+        SortingMachine5a<String> m = new SortingMachine5a<>(ORDER_5A);
+        SortingMachine<String> other = new SortingMachine1L<>(ORDER_5A);
+        m.add("green");
+        other.add("blue");
+        other.add("red");
+        m.changeToExtractionMode();
+        other.changeToExtractionMode();
+
+        m.merge(other);
+
+        assertEquals("blue", m.removeFirst());
+        assertEquals("green", m.removeFirst());
+        assertEquals("red", m.removeFirst());
+        assertEquals(0, other.size());
+    }
+
+    /**
+     * changeToExtractionMode test partitioned build case.
+     */
+    @Test
+    public void testChangeToExtractionModePartitioned() {
+        final int n = 10000;
+        final int partitions = 4;
+        Random random = new Random(n);
+        String[] expected = new String[n];
+        SortingMachine5a<String> m = new SortingMachine5a<>(ORDER_5A);
+        for (int i = 0; i < n; i++) {
+            expected[i] = Integer.toString(random.nextInt(n), Character.MAX_RADIX);
+            m.add(expected[i]);
+        }
+        Arrays.sort(expected, ORDER_5A);
+
+        m.changeToExtractionMode(partitions);
+
+        assertEquals(n, m.size());
+        for (int i = 0; i < n; i++) {
+            assertEquals(expected[i], m.removeFirst());
+        }
+    }
+
+    /**
+     * clear test capacity constructor case: the machine is reusable.
+     */
+    @Test
+    public void testClearWithCapacity() {
+        SortingMachine5a<String> m = new SortingMachine5a<>(ORDER_5A, 2);
+        m.add("red");
+        m.add("blue");
+        m.add("green");
+        m.changeToExtractionMode();
+        m.removeFirst();
+
+        m.clear();
+        m.add("yellow");
+        m.add("orange");
+        m.changeToExtractionMode();
+
+        assertEquals(2, m.size());
+        assertEquals("orange", m.removeFirst());
+        assertEquals("yellow", m.removeFirst());
+    }
+
+    /**
+     * changeToLazyExtractionMode test with duplicates case.
+     */
+    @Test
+    public void testChangeToLazyExtractionMode() {
+        final int n = 2000;
+        Random random = new Random(n);
+        String[] expected = new String[n];
+        SortingMachine5a<String> m = new SortingMachine5a<>(ORDER_5A);
+        for (int i = 0; i < n; i++) {
+            expected[i] = Integer.toString(random.nextInt(n / 4),
+                    Character.MAX_RADIX);
+            m.add(expected[i]);
+        }
+        Arrays.sort(expected, ORDER_5A);
+
+        m.changeToLazyExtractionMode();
+
+        assertEquals(false, m.isInInsertionMode());
+        assertEquals(n, m.size());
+        for (int i = 0; i < n; i++) {
+            assertEquals(expected[i], m.removeFirst());
+        }
+    }
+
+    /**
+     * merge test lazy extraction mode case.
+     */
+    @Test
+    public void testMergeLazyExtractionMode() {
+        SortingMachine5a<String> m = new SortingMachine5a<>(ORDER_5A);
+        SortingMachine5a<String> other = new SortingMachine5a<>(ORDER_5A);
+        m.add("green");
+        m.add("yellow");
+        m.add("blue");
+        other.add("red");
+        m.changeToLazyExtractionMode();
+        other.changeToLazyExtractionMode();
+        assertEquals("blue", m.removeFirst());
+
+        m.merge(other);
+
+        assertEquals("green", m.removeFirst());
+        assertEquals("red", m.removeFirst());
+        assertEquals("yellow", m.removeFirst());
+    }
+
+    /**
+     * changeToIncrementalExtractionMode test case.
+     */
+    @Test
+    public void testChangeToIncrementalExtractionMode() {
+        final int n = 1000;
+        final int budget = 100;
+        Random random = new Random(n);
+        String[] expected = new String[n];
+        SortingMachine5a<String> m = new SortingMachine5a<>(ORDER_5A);
+        for (int i = 0; i < n; i++) {
+            expected[i] = Integer.toString(random.nextInt(n),
+                    Character.MAX_RADIX);
+            m.add(expected[i]);
+        }
+        Arrays.sort(expected, ORDER_5A);
+
+        m.changeToIncrementalExtractionMode(budget);
+
+        assertEquals(false, m.isInInsertionMode());
+        assertEquals(false, m.isHeapConstructionComplete());
+        m.continueHeapConstruction();
+        assertEquals(false, m.isHeapConstructionComplete());
+        for (int i = 0; i < n; i++) {
+            assertEquals(expected[i], m.removeFirst());
+            assertEquals(true, m.isHeapConstructionComplete());
+        }
+    }
+
+    /**
+     * continueHeapConstruction test until complete case.
+     */
+    @Test
+    public void testContinueHeapConstructionUntilComplete() {
+        SortingMachine5a<String> m = new SortingMachine5a<>(ORDER_5A);
+        m.add("green");
+        m.add("red");
+        m.add("blue");
+        m.add("yellow");
+        m.add("orange");
+        m.changeToIncrementalExtractionMode(1);
+
+        int slices = 1;
+        while (!m.isHeapConstructionComplete()) {
+            m.continueHeapConstruction();
+            slices++;
+        }
+
+        assertEquals(2, slices);
+        assertEquals("blue", m.removeFirst());
+        assertEquals("green", m.removeFirst());
+    }
+
+    /**
+     * Creates a machine holding {@code n} pseudo-random entries, and fills
+     * {@code expected} with the same entries in sorted order.
+     *
+     * @param n
+     *            the number of entries
+     * @param expected
+     *            array of length n to fill
+     * @return the machine, in insertion mode
+     */
+    private static SortingMachine5a<String> createRandom(int n,
+            String[] expected) {
+        Random random = new Random(n);
+        SortingMachine5a<String> m = new SortingMachine5a<>(ORDER_5A);
+        for (int i = 0; i < n; i++) {
+            expected[i] = Integer.toString(random.nextInt(n / 2),
+                    Character.MAX_RADIX);
+            m.add(expected[i]);
+        }
+        Arrays.sort(expected, ORDER_5A);
+        return m;
+    }
+
+    /**
+     * kth test every layout case.
+     */
+    @Test
+    public void testKth() {
+        final int n = 300;
+        String[] expected = new String[n];
+        SortingMachine5a<String> inserting = createRandom(n, expected);
+        SortingMachine5a<String> heap = createRandom(n, expected);
+        heap.changeToExtractionMode();
+        SortingMachine5a<String> lazy = createRandom(n, expected);
+        lazy.changeToLazyExtractionMode();
+        lazy.removeFirst();
+        SortingMachine5a<String> sliced = createRandom(n, expected);
+        sliced.changeToIncrementalExtractionMode(1);
+
+        for (int k = 0; k < n; k++) {
+            assertEquals(expected[k], inserting.kth(k));
+            assertEquals(expected[k], heap.kth(k));
+            assertEquals(expected[k], sliced.kth(k));
+            if (k > 0) {
+                assertEquals(expected[k], lazy.kth(k - 1));
+            }
+        }
+        assertEquals(n, inserting.size());
+        assertEquals(n, heap.size());
+        for (int k = 0; k < n; k++) {
+            assertEquals(expected[k], heap.removeFirst());
+        }
+    }
+
+    /**
+     * peek and percentile test case.
+     */
+    @Test
+    public void testPeekPercentile() {
+        final int n = 200;
+        String[] expected = new String[n];
+        SortingMachine5a<String> m = createRandom(n, expected);
+
+        assertEquals(expected[0], m.peek());
+        m.changeToExtractionMode();
+
+        assertEquals(expected[0], m.peek());
+        assertEquals(expected[0], m.percentile(0));
+        assertEquals(expected[n / 2 - 1], m.percentile(50));
+        assertEquals(expected[n * 99 / 100 - 1], m.percentile(99));
+        assertEquals(expected[n - 1], m.percentile(100));
+        assertEquals(n, m.size());
+        assertEquals(expected[0], m.removeFirst());
+    }
+
+    /**
+     * percentile test exact ranks case.
+     */
+    @Test
+    public void testPercentileExactRank() {
+        /*
+         * For these (p, n) pairs p/100 * n is an integer, which a
+         * divide-first computation overshoots by one rank.
+         */
+        final int[][] cases = { { 14, 50 }, { 28, 50 }, { 56, 50 },
+                { 28, 25 }, { 56, 25 } };
+        for (int[] c : cases) {
+            int p = c[0];
+            int n = c[1];
+            SortingMachine5a<String> m = new SortingMachine5a<>(ORDER_5A);
+            for (int i = n - 1; i >= 0; i--) {
+                m.add(String.format("%03d", i));
+            }
+            m.changeToExtractionMode();
+
+            assertEquals(String.format("%03d", p * n / 100 - 1),
+                    m.percentile(p));
+        }
+    }
+
+    /**
+     * addAll test case.
+     */
+    @Test
+    public void testAddAll() {
+        String[] batch = { "red", "green", "blue", "yellow" };
+        SortingMachine5a<String> m = new SortingMachine5a<>(ORDER_5A);
+        m.add("orange");
+
+        m.addAll(batch, 1, 4);
+
+        assertEquals(4, m.size());
+        m.changeToExtractionMode();
+        assertEquals("blue", m.removeFirst());
+        assertEquals("green", m.removeFirst());
+        assertEquals("orange", m.removeFirst());
+        assertEquals("yellow", m.removeFirst());
+    }
+
+    /**
+     * snapshotIterator test unaffected by later changes case.
+     */
+    @Test
+    public void testSnapshotIterator() {
+        SortingMachine5a<String> m = new SortingMachine5a<>(ORDER_5A);
+        m.enableSnapshots();
+        m.add("red");
+        m.add("green");
+        m.add("blue");
+        m.changeToExtractionMode();
+
+        Iterator<String> snapshot = m.snapshotIterator();
+        assertEquals("blue", m.removeFirst());
+        m.clear();
+        m.add("orange");
+
+        List<String> seen = new ArrayList<>();
+        while (snapshot.hasNext()) {
+            seen.add(snapshot.next());
+        }
+        seen.sort(ORDER_5A);
+        assertEquals(Arrays.asList("blue", "green", "red"), seen);
+        assertEquals(1, m.size());
+        assertEquals("orange", m.snapshotIterator().next());
+    }
+
+    /**
+     * snapshotIterator test source of transferFrom case.
+     */
+    @Test
+    public void testSnapshotIteratorTransferFrom() {
+        SortingMachine5a<String> source = new SortingMachine5a<>(ORDER_5A);
+        source.enableSnapshots();
+        source.add("red");
+        source.add("green");
+        SortingMachine5a<String> m = new SortingMachine5a<>(ORDER_5A);
+        m.enableSnapshots();
+        m.add("blue");
+        Iterator<String> ofSource = source.snapshotIterator();
+        Iterator<String> ofThis = m.snapshotIterator();
+
+        m.transferFrom(source);
+        m.add("orange");
+        m.changeToExtractionMode();
+        assertEquals("green", m.removeFirst());
+
+        assertEquals("red", ofSource.next());
+        assertEquals("green", ofSource.next());
+        assertFalse(ofSource.hasNext());
+        assertEquals("blue", ofThis.next());
+        assertFalse(ofThis.hasNext());
+        assertEquals(0, source.size());
+        assertEquals(2, m.size());
+    }
+
+    /**
+     * snapshotIterator test concurrent with removeFirst case.
+     */
+    @Test
+    public void testSnapshotIteratorConcurrent() throws InterruptedException {
+        final int n = 2000;
+        final String[] expected = new String[n];
+        SortingMachine5a<String> m = createRandom(n, expected);
+        m.enableSnapshots();
+        m.changeToExtractionMode();
+        final AtomicBoolean done = new AtomicBoolean(false);
+        final List<String> failures = new ArrayList<>();
+        Thread monitor = new Thread(() -> {
+            while (!done.get()) {
+                List<String> seen = new ArrayList<>();
+                Iterator<String> it = m.snapshotIterator();
+                while (it.hasNext()) {
+                    seen.add(it.next());
+                }
+                seen.sort(ORDER_5A);
+                /*
+                 * A consistent snapshot holds exactly the entries not yet
+                 * removed, i.e., the largest seen.size() ones.
+                 */
+                List<String> remaining = Arrays.asList(expected)
+                        .subList(n - seen.size(), n);
+                if (!seen.equals(remaining)) {
+                    failures.add("inconsistent snapshot of " + seen.size());
+                    break;
+                }
+            }
+        });
+        monitor.start();
+
+        for (int i = 0; i < n; i++) {
+            assertEquals(expected[i], m.removeFirst());
+        }
+        done.set(true);
+        monitor.join();
+
+        assertEquals(0, m.size());
+        assertEquals(new ArrayList<String>(), failures);
+    }
+
+    /**
+     * transferFrom test insertion-mode reference source case.
+     */
+    @Test
+    public void testTransferFromReferenceInsertionMode() {
+        SortingMachine<String> source = new SortingMachine1L<>(ORDER_5A);
+        source.add("red");
+        source.add("green");
+        source.add("blue");
+        SortingMachine5a<String> m = new SortingMachine5a<>(ORDER_5A, 1);
+        m.add("orange");
+
+        m.transferFrom(source);
+
+        assertEquals(0, source.size());
+        assertTrue(source.isInInsertionMode());
+        assertTrue(m.isInInsertionMode());
+        assertEquals(3, m.size());
+        m.add("yellow");
+        m.changeToExtractionMode();
+        assertEquals("blue", m.removeFirst());
+        assertEquals("green", m.removeFirst());
+        assertEquals("red", m.removeFirst());
+        assertEquals("yellow", m.removeFirst());
+    }
+
+    /**
+     * transferFrom test extraction-mode foreign sources case.
+     */
+    @Test
+    public void testTransferFromForeignExtractionMode() {
+        final int n = 500;
+        String[] expected = new String[n];
+        SortingMachine5a<String> staged = createRandom(n, expected);
+        SortingMachine<String> sorted = new SortingMachine1L<>(ORDER_5A);
+        SortingMachine<String> heap = new AddressableSortingMachine<>(ORDER_5A);
+        for (String x : staged) {
+            sorted.add(x);
+            heap.add(x);
+        }
+        sorted.changeToExtractionMode();
+        heap.changeToExtractionMode();
+        assertEquals(expected[0], sorted.removeFirst());
+        assertEquals(expected[0], heap.removeFirst());
+        SortingMachine5a<String> fromSorted = new SortingMachine5a<>(ORDER_5A);
+        SortingMachine5a<String> fromHeap = new SortingMachine5a<>(ORDER_5A);
+
+        fromSorted.transferFrom(sorted);
+        fromHeap.transferFrom(heap);
+
+        assertEquals(0, sorted.size());
+        assertEquals(0, heap.size());
+        assertFalse(fromSorted.isInInsertionMode());
+        assertFalse(fromHeap.isInInsertionMode());
+        assertEquals(n - 1, fromSorted.size());
+        assertEquals(n - 1, fromHeap.size());
+        for (int i = 1; i < n; i++) {
+            assertEquals(expected[i], fromSorted.removeFirst());
+            assertEquals(expected[i], fromHeap.removeFirst());
+        }
+    }
+
 }
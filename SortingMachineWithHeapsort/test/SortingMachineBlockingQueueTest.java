@@ -0,0 +1,328 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+/**
+ * JUnit test fixture for {@code SortingMachineBlockingQueue}.
+ */
+public final class SortingMachineBlockingQueueTest {
+
+    /**
+     * poll test sorted batch case.
+     */
+    @Test
+    public void testPollSortedBatch() {
+        SortingMachineBlockingQueue<String> q = new SortingMachineBlockingQueue<>(
+                new SortingMachine5a<>(String.CASE_INSENSITIVE_ORDER), 4);
+        q.offer("green");
+        q.offer("blue");
+        q.offer("red");
+
+        assertEquals("blue", q.peek());
+        assertEquals("blue", q.poll());
+        q.offer("apple");
+        assertEquals("green", q.poll());
+        assertEquals("red", q.poll());
+        assertEquals("apple", q.poll());
+        assertEquals(null, q.poll());
+    }
+
+    /**
+     * offer test full queue and drainTo case.
+     */
+    @Test
+    public void testOfferFullAndDrainTo() throws InterruptedException {
+        SortingMachineBlockingQueue<String> q = new SortingMachineBlockingQueue<>(
+                new SortingMachine5a<>(String.CASE_INSENSITIVE_ORDER), 2);
+        q.put("b");
+        q.put("a");
+
+        assertFalse(q.offer("c"));
+        assertEquals(0, q.remainingCapacity());
+
+        List<String> out = new ArrayList<>();
+        assertEquals(2, q.drainTo(out));
+        assertEquals(List.of("a", "b"), out);
+        assertEquals(0, q.size());
+    }
+
+    /**
+     * Waits until {@code t} is blocked waiting.
+     *
+     * @param t
+     *            the thread
+     */
+    private static void awaitBlocked(Thread t) throws InterruptedException {
+        Thread.State state = t.getState();
+        while (state != Thread.State.WAITING
+                && state != Thread.State.TIMED_WAITING) {
+            assertTrue(t.isAlive());
+            Thread.sleep(1);
+            state = t.getState();
+        }
+    }
+
+    /**
+     * take test waits for put case.
+     */
+    @Test(timeout = 10000)
+    public void testTakeWaitsForPut() throws InterruptedException {
+        SortingMachineBlockingQueue<String> q = new SortingMachineBlockingQueue<>(
+                new SortingMachine5a<>(String.CASE_INSENSITIVE_ORDER), 2);
+        AtomicReference<String> taken = new AtomicReference<>();
+        Thread consumer = new Thread(() -> {
+            try {
+                taken.set(q.take());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        consumer.start();
+
+        awaitBlocked(consumer);
+        assertEquals(null, taken.get());
+        q.put("red");
+        consumer.join();
+
+        assertEquals("red", taken.get());
+        assertEquals(0, q.size());
+    }
+
+    /**
+     * put test blocks when full and resumes case.
+     */
+    @Test(timeout = 10000)
+    public void testPutBlocksWhenFull() throws InterruptedException {
+        SortingMachineBlockingQueue<String> q = new SortingMachineBlockingQueue<>(
+                new SortingMachine5a<>(String.CASE_INSENSITIVE_ORDER), 1);
+        q.put("red");
+        Thread producer = new Thread(() -> {
+            try {
+                q.put("blue");
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        producer.start();
+
+        awaitBlocked(producer);
+        assertEquals(1, q.size());
+        assertEquals("red", q.take());
+        producer.join();
+
+        assertEquals(1, q.size());
+        assertEquals("blue", q.take());
+    }
+
+    /**
+     * poll test order within batches only case.
+     */
+    @Test
+    public void testOrderWithinBatch() {
+        SortingMachineBlockingQueue<String> q = new SortingMachineBlockingQueue<>(
+                new SortingMachine5a<>(String.CASE_INSENSITIVE_ORDER), 4);
+        q.offer("red");
+        q.offer("green");
+        assertEquals("green", q.poll());
+
+        q.offer("blue");
+
+        /*
+         * "blue" arrived after the batch {green, red} was sealed.
+         */
+        assertEquals("red", q.poll());
+        assertEquals("blue", q.poll());
+    }
+
+    /**
+     * poll test waits for a full batch case.
+     */
+    @Test
+    public void testPollWaitsForBatchSize() {
+        SortingMachineBlockingQueue<String> q = new SortingMachineBlockingQueue<>(
+                new SortingMachine5a<>(String.CASE_INSENSITIVE_ORDER), 8, 3, 1,
+                TimeUnit.HOURS);
+        q.offer("red");
+        q.offer("green");
+
+        assertEquals(null, q.poll());
+        assertEquals(null, q.peek());
+        assertEquals(2, q.size());
+        q.offer("blue");
+        assertEquals("blue", q.poll());
+        q.offer("apple");
+        assertEquals("green", q.poll());
+        assertEquals("red", q.poll());
+        assertEquals(null, q.poll());
+    }
+
+    /**
+     * take test seals a partial batch after the linger time case.
+     */
+    @Test(timeout = 10000)
+    public void testTakeAfterLinger() throws InterruptedException {
+        SortingMachineBlockingQueue<String> q = new SortingMachineBlockingQueue<>(
+                new SortingMachine5a<>(String.CASE_INSENSITIVE_ORDER), 8, 4, 50,
+                TimeUnit.MILLISECONDS);
+        q.put("red");
+        q.put("blue");
+
+        assertEquals("blue", q.take());
+        assertEquals("red", q.take());
+        assertEquals(0, q.size());
+    }
+
+    /**
+     * take test batches under concurrent consumers case.
+     */
+    @Test(timeout = 30000)
+    public void testBatchesWithConcurrentConsumers()
+            throws InterruptedException {
+        final int n = 2000;
+        final int batchSize = 100;
+        final int consumerCount = 4;
+        SortingMachineBlockingQueue<Integer> q = new SortingMachineBlockingQueue<>(
+                new SortingMachine5a<>(Comparator.<Integer>naturalOrder()),
+                4 * batchSize, batchSize, 1, TimeUnit.SECONDS);
+        AtomicInteger claimed = new AtomicInteger();
+        List<List<Integer>> taken = new ArrayList<>();
+        List<Thread> consumers = new ArrayList<>();
+        for (int c = 0; c < consumerCount; c++) {
+            List<Integer> mine = new ArrayList<>();
+            taken.add(mine);
+            Thread consumer = new Thread(() -> {
+                try {
+                    while (claimed.getAndIncrement() < n) {
+                        mine.add(q.take());
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            consumers.add(consumer);
+            consumer.start();
+        }
+        /*
+         * The producer pauses now and then so that the consumers keep up, as
+         * they do when batches would otherwise stay small.
+         */
+        final int burst = 10;
+        Random random = new Random(n);
+        for (int i = 0; i < n; i++) {
+            q.put(random.nextInt());
+            if (i % burst == 0) {
+                Thread.sleep(1);
+            }
+        }
+        for (Thread consumer : consumers) {
+            consumer.join();
+        }
+
+        /*
+         * Each consumer takes an increasing run from every batch, so its
+         * entries decrease at most once per batch after the first. Every
+         * batch has batchSize entries but the last, which may be sealed by
+         * lingering.
+         */
+        int total = 0;
+        for (List<Integer> mine : taken) {
+            int descents = 0;
+            for (int i = 1; i < mine.size(); i++) {
+                if (mine.get(i) < mine.get(i - 1)) {
+                    descents++;
+                }
+            }
+            assertTrue(descents <= n / batchSize);
+            total += mine.size();
+        }
+        assertEquals(n, total);
+        assertEquals(0, q.size());
+    }
+
+    /**
+     * remove test from each part of the queue case.
+     */
+    @Test
+    public void testRemoveObject() {
+        SortingMachineBlockingQueue<String> q = new SortingMachineBlockingQueue<>(
+                new SortingMachine5a<>(String.CASE_INSENSITIVE_ORDER), 8);
+        q.offer("red");
+        q.offer("green");
+        q.offer("blue");
+        assertEquals("blue", q.peek());
+        q.offer("apple");
+        q.offer("pear");
+
+        assertTrue(q.remove("blue"));
+        assertTrue(q.remove("red"));
+        assertTrue(q.remove("pear"));
+        assertFalse(q.remove("pear"));
+        assertFalse(q.remove("grape"));
+        assertEquals(2, q.size());
+        assertEquals(6, q.remainingCapacity());
+        assertEquals("green", q.poll());
+        assertEquals("apple", q.poll());
+        assertEquals(null, q.poll());
+    }
+
+    /**
+     * removeAll and retainAll test case.
+     */
+    @Test
+    public void testRemoveAllRetainAll() {
+        SortingMachineBlockingQueue<String> q = new SortingMachineBlockingQueue<>(
+                new SortingMachine5a<>(String.CASE_INSENSITIVE_ORDER), 8);
+        q.addAll(List.of("red", "green", "blue", "apple"));
+
+        assertTrue(q.removeAll(List.of("green", "grape")));
+        assertTrue(q.retainAll(List.of("red", "apple")));
+        assertEquals(2, q.size());
+        assertEquals("apple", q.poll());
+        assertEquals("red", q.poll());
+    }
+
+    /**
+     * clear test with a partial batch staged case.
+     */
+    @Test
+    public void testClearPartialBatch() {
+        SortingMachineBlockingQueue<String> q = new SortingMachineBlockingQueue<>(
+                new SortingMachine5a<>(String.CASE_INSENSITIVE_ORDER), 8, 4, 1,
+                TimeUnit.HOURS);
+        q.offer("red");
+        q.offer("green");
+        q.clear();
+
+        assertEquals(0, q.size());
+        assertEquals(8, q.remainingCapacity());
+        q.addAll(List.of("d", "c", "b", "a"));
+        assertEquals("a", q.poll());
+    }
+
+    /**
+     * drainTo test takes a partial batch case.
+     */
+    @Test
+    public void testDrainToPartialBatch() {
+        SortingMachineBlockingQueue<String> q = new SortingMachineBlockingQueue<>(
+                new SortingMachine5a<>(String.CASE_INSENSITIVE_ORDER), 8, 4, 1,
+                TimeUnit.HOURS);
+        q.offer("red");
+        q.offer("green");
+
+        List<String> out = new ArrayList<>();
+        assertEquals(2, q.drainTo(out));
+        assertEquals(List.of("green", "red"), out);
+    }
+
+}
@@ -0,0 +1,404 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Test;
+
+/**
+ * JUnit test fixture for {@code SortingMachinePublisher}.
+ */
+public final class SortingMachinePublisherTest {
+
+    /**
+     * Subscriber recording what it receives, requesting one entry at a time.
+     */
+    private static final class RecordingSubscriber
+            implements Flow.Subscriber<String> {
+
+        /**
+         * Entries received.
+         */
+        private final List<String> received = new ArrayList<>();
+
+        /**
+         * Whether onComplete was called.
+         */
+        private boolean completed = false;
+
+        /**
+         * The subscription.
+         */
+        private Flow.Subscription subscription;
+
+        @Override
+        public void onSubscribe(Flow.Subscription s) {
+            this.subscription = s;
+            s.request(1);
+        }
+
+        @Override
+        public void onNext(String item) {
+            this.received.add(item);
+            this.subscription.request(1);
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            throw new AssertionError(throwable);
+        }
+
+        @Override
+        public void onComplete() {
+            this.completed = true;
+        }
+
+    }
+
+    /**
+     * Subscriber recording every signal, safe to use from several threads:
+     * it requests {@code initial} entries on subscription and {@code perItem}
+     * more after each entry, and throws from {@code onNext} once it has
+     * received {@code failAfter} entries.
+     */
+    private static final class Probe implements Flow.Subscriber<String> {
+
+        /**
+         * Entries requested on subscription.
+         */
+        private final long initial;
+
+        /**
+         * Entries requested after each entry.
+         */
+        private final long perItem;
+
+        /**
+         * Number of entries after which onNext throws.
+         */
+        private final int failAfter;
+
+        /**
+         * Entries received.
+         */
+        private final List<String> received = Collections
+                .synchronizedList(new ArrayList<>());
+
+        /**
+         * Whether onNext is running, to detect overlapping calls.
+         */
+        private final AtomicBoolean inOnNext = new AtomicBoolean(false);
+
+        /**
+         * Whether onNext was ever called while already running.
+         */
+        private volatile boolean overlapped = false;
+
+        /**
+         * Counted down by onComplete or onError.
+         */
+        private final CountDownLatch terminated = new CountDownLatch(1);
+
+        /**
+         * Whether onComplete was called.
+         */
+        private volatile boolean completed = false;
+
+        /**
+         * The error passed to onError, or {@code null}.
+         */
+        private volatile Throwable error = null;
+
+        /**
+         * The subscription.
+         */
+        private volatile Flow.Subscription subscription;
+
+        /**
+         * Constructor from demand and failure point.
+         *
+         * @param initial
+         *            entries requested on subscription
+         * @param perItem
+         *            entries requested after each entry
+         * @param failAfter
+         *            number of entries after which onNext throws
+         */
+        private Probe(long initial, long perItem, int failAfter) {
+            this.initial = initial;
+            this.perItem = perItem;
+            this.failAfter = failAfter;
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription s) {
+            this.subscription = s;
+            if (this.initial != 0) {
+                s.request(this.initial);
+            }
+        }
+
+        @Override
+        public void onNext(String item) {
+            if (!this.inOnNext.compareAndSet(false, true)) {
+                this.overlapped = true;
+            }
+            this.received.add(item);
+            this.inOnNext.set(false);
+            if (this.received.size() == this.failAfter) {
+                throw new IllegalStateException("failing on " + item);
+            }
+            if (this.perItem > 0) {
+                this.subscription.request(this.perItem);
+            }
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            this.error = throwable;
+            this.terminated.countDown();
+        }
+
+        @Override
+        public void onComplete() {
+            this.completed = true;
+            this.terminated.countDown();
+        }
+
+    }
+
+    /**
+     * Executor queuing its tasks until they are run one at a time.
+     */
+    private static final class StepExecutor implements Executor {
+
+        /**
+         * Tasks not yet run.
+         */
+        private final Deque<Runnable> tasks = new ArrayDeque<>();
+
+        @Override
+        public void execute(Runnable task) {
+            this.tasks.add(task);
+        }
+
+        /**
+         * Runs the oldest queued task.
+         *
+         * @return true iff there was a task to run
+         */
+        private boolean step() {
+            Runnable task = this.tasks.poll();
+            if (task != null) {
+                task.run();
+            }
+            return task != null;
+        }
+
+    }
+
+    /**
+     * Returns a publisher of the given entries.
+     *
+     * @param executor
+     *            executor running the delivery tasks
+     * @param batchSize
+     *            maximum number of entries delivered per task
+     * @param entries
+     *            the entries
+     * @return the publisher
+     */
+    private static SortingMachinePublisher<String> publisher(Executor executor,
+            int batchSize, String... entries) {
+        SortingMachine5a<String> m = new SortingMachine5a<>(
+                String.CASE_INSENSITIVE_ORDER);
+        for (String x : entries) {
+            m.add(x);
+        }
+        return new SortingMachinePublisher<>(m, executor, batchSize);
+    }
+
+    /**
+     * subscribe test sorted emission case.
+     */
+    @Test
+    public void testSubscribeSortedEmission() {
+        SortingMachine5a<String> m = new SortingMachine5a<>(
+                String.CASE_INSENSITIVE_ORDER);
+        m.add("green");
+        m.add("blue");
+        m.add("red");
+        m.add("apple");
+        SortingMachinePublisher<String> p = new SortingMachinePublisher<>(m,
+                Runnable::run, 2);
+        RecordingSubscriber s = new RecordingSubscriber();
+
+        p.subscribe(s);
+
+        assertEquals(List.of("apple", "blue", "green", "red"), s.received);
+        assertTrue(s.completed);
+    }
+
+    /**
+     * subscribe test yields the executor after batchSize entries case.
+     */
+    @Test
+    public void testYieldsAfterBatchSize() {
+        StepExecutor executor = new StepExecutor();
+        SortingMachinePublisher<String> p = publisher(executor, 2, "e", "c",
+                "a", "d", "b");
+        Probe s = new Probe(Long.MAX_VALUE, 0, -1);
+        p.subscribe(s);
+
+        assertTrue(executor.step());
+        assertEquals(List.of("a", "b"), s.received);
+        assertTrue(executor.step());
+        assertEquals(List.of("a", "b", "c", "d"), s.received);
+        assertFalse(s.completed);
+        assertTrue(executor.step());
+        assertEquals(List.of("a", "b", "c", "d", "e"), s.received);
+        assertTrue(s.completed);
+        assertFalse(executor.step());
+    }
+
+    /**
+     * subscribe test bulk request case.
+     */
+    @Test
+    public void testBulkRequest() {
+        SortingMachinePublisher<String> p = publisher(Runnable::run, 3, "red",
+                "green", "blue", "apple", "pear");
+        Probe s = new Probe(Long.MAX_VALUE, 0, -1);
+        p.subscribe(s);
+
+        assertEquals(List.of("apple", "blue", "green", "pear", "red"),
+                s.received);
+        assertTrue(s.completed);
+        assertEquals(null, s.error);
+    }
+
+    /**
+     * cancel test stops delivery case.
+     */
+    @Test
+    public void testCancel() {
+        SortingMachinePublisher<String> p = publisher(Runnable::run, 8, "red",
+                "green", "blue");
+        Probe s = new Probe(1, 0, -1);
+        p.subscribe(s);
+        assertEquals(List.of("blue"), s.received);
+
+        s.subscription.cancel();
+        s.subscription.request(2);
+
+        assertEquals(List.of("blue"), s.received);
+        assertFalse(s.completed);
+        assertEquals(null, s.error);
+    }
+
+    /**
+     * request test non-positive demand signals onError case.
+     */
+    @Test
+    public void testNonPositiveRequest() {
+        SortingMachinePublisher<String> p = publisher(Runnable::run, 8, "red",
+                "green");
+        Probe s = new Probe(0, 0, -1);
+        p.subscribe(s);
+        s.subscription.request(0);
+
+        assertTrue(s.error instanceof IllegalArgumentException);
+        assertTrue(s.received.isEmpty());
+        s.subscription.request(1);
+        assertTrue(s.received.isEmpty());
+        assertFalse(s.completed);
+    }
+
+    /**
+     * subscribe test second subscriber rejected case.
+     */
+    @Test
+    public void testSecondSubscriberRejected() {
+        SortingMachinePublisher<String> p = publisher(Runnable::run, 8, "red");
+        Probe first = new Probe(0, 0, -1);
+        Probe second = new Probe(1, 0, -1);
+        p.subscribe(first);
+        p.subscribe(second);
+
+        assertTrue(second.error instanceof IllegalStateException);
+        assertTrue(second.received.isEmpty());
+        first.subscription.request(1);
+        assertEquals(List.of("red"), first.received);
+        assertTrue(first.completed);
+    }
+
+    /**
+     * onNext test throwing subscriber gets onError case.
+     */
+    @Test
+    public void testOnNextThrows() {
+        SortingMachinePublisher<String> p = publisher(Runnable::run, 8, "red",
+                "green", "blue");
+        Probe s = new Probe(1, 1, 2);
+        p.subscribe(s);
+
+        assertEquals(List.of("blue", "green"), s.received);
+        assertTrue(s.error instanceof IllegalStateException);
+        s.subscription.request(1);
+        assertEquals(List.of("blue", "green"), s.received);
+        assertFalse(s.completed);
+    }
+
+    /**
+     * request test concurrent requests on a thread pool case.
+     */
+    @Test(timeout = 30000)
+    public void testConcurrentRequests() throws InterruptedException {
+        final int n = 2000;
+        final int requesters = 4;
+        String[] entries = new String[n];
+        List<String> expected = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            entries[i] = String.format("%04d", (i * 7919) % n);
+            expected.add(String.format("%04d", i));
+        }
+        ExecutorService pool = Executors.newFixedThreadPool(requesters);
+        try {
+            SortingMachinePublisher<String> p = publisher(pool, 16, entries);
+            Probe s = new Probe(0, 0, -1);
+            p.subscribe(s);
+            List<Thread> threads = new ArrayList<>();
+            for (int t = 0; t < requesters; t++) {
+                Thread requester = new Thread(() -> {
+                    for (int i = 0; i < n / requesters; i++) {
+                        s.subscription.request(1);
+                    }
+                });
+                threads.add(requester);
+                requester.start();
+            }
+            for (Thread requester : threads) {
+                requester.join();
+            }
+            s.terminated.await();
+
+            assertEquals(expected, s.received);
+            assertTrue(s.completed);
+            assertFalse(s.overlapped);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+}
@@ -0,0 +1,210 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import components.sortingmachine.SortingMachine;
+
+/**
+ * JUnit test fixture for {@code WideHeapSortingMachine}.
+ */
+public final class WideHeapSortingMachineTest {
+
+    /**
+     * removeFirst test small case.
+     */
+    @Test
+    public void testRemoveFirstSmall() {
+        WideHeapSortingMachine<Long> m = new WideHeapSortingMachine<>(
+                Long::longValue);
+        m.add(3L);
+        m.add(Long.MAX_VALUE);
+        m.add(-1L);
+        m.add(3L);
+        m.changeToExtractionMode();
+
+        assertEquals(4, m.size());
+        assertEquals(-1L, m.removeFirst().longValue());
+        assertEquals(3L, m.removeFirst().longValue());
+        assertEquals(3L, m.removeFirst().longValue());
+        assertEquals(Long.MAX_VALUE, m.removeFirst().longValue());
+    }
+
+    /**
+     * removeFirst test several levels deep case.
+     */
+    @Test
+    public void testRemoveFirstDeep() {
+        final int n = 1000;
+        Random random = new Random(n);
+        long[] expected = new long[n];
+        WideHeapSortingMachine<Long> m = new WideHeapSortingMachine<>(
+                Long::longValue);
+        for (int i = 0; i < n; i++) {
+            expected[i] = random.nextInt(n / 2);
+            m.add(expected[i]);
+        }
+        m.changeToExtractionMode();
+        Arrays.sort(expected);
+
+        for (int i = 0; i < n; i++) {
+            assertEquals(expected[i], m.removeFirst().longValue());
+        }
+    }
+
+    /**
+     * Returns a machine holding the given entries, keyed by their value.
+     *
+     * @param insertionMode
+     *            the mode of the result
+     * @param args
+     *            the entries
+     * @return the machine
+     */
+    private static WideHeapSortingMachine<Long> createFromArgs(
+            boolean insertionMode, long... args) {
+        WideHeapSortingMachine<Long> m = new WideHeapSortingMachine<>(
+                Long::longValue);
+        for (long x : args) {
+            m.add(x);
+        }
+        if (!insertionMode) {
+            m.changeToExtractionMode();
+        }
+        return m;
+    }
+
+    /**
+     * Returns the entries of {@code m} in iteration order.
+     *
+     * @param m
+     *            the machine
+     * @return the entries of m
+     */
+    private static List<Long> entries(SortingMachine<Long> m) {
+        List<Long> result = new ArrayList<>();
+        for (Long x : m) {
+            result.add(x);
+        }
+        return result;
+    }
+
+    /**
+     * newInstance test case.
+     */
+    @Test
+    public void testNewInstance() {
+        WideHeapSortingMachine<Long> m = createFromArgs(false, 4L, 2L);
+
+        SortingMachine<Long> n = m.newInstance();
+
+        assertTrue(n instanceof WideHeapSortingMachine<?>);
+        assertTrue(n.isInInsertionMode());
+        assertEquals(0, n.size());
+        assertTrue(n.order().compare(1L, 2L) < 0);
+        n.add(7L);
+        n.add(5L);
+        n.changeToExtractionMode();
+        assertEquals(5L, n.removeFirst().longValue());
+        assertEquals(2, m.size());
+    }
+
+    /**
+     * clear test extraction mode case.
+     */
+    @Test
+    public void testClear() {
+        WideHeapSortingMachine<Long> m = createFromArgs(false, 9L, 1L, 5L);
+
+        m.clear();
+
+        assertTrue(m.isInInsertionMode());
+        assertEquals(0, m.size());
+        m.add(6L);
+        m.add(3L);
+        m.changeToExtractionMode();
+        assertEquals(3L, m.removeFirst().longValue());
+        assertEquals(6L, m.removeFirst().longValue());
+    }
+
+    /**
+     * transferFrom test extraction mode case.
+     */
+    @Test
+    public void testTransferFrom() {
+        final int n = 100;
+        WideHeapSortingMachine<Long> m = createFromArgs(true, 8L);
+        WideHeapSortingMachine<Long> source = createFromArgs(true);
+        for (long i = n; i > 0; i--) {
+            source.add(i);
+        }
+        source.changeToExtractionMode();
+
+        m.transferFrom(source);
+
+        assertTrue(source.isInInsertionMode());
+        assertEquals(0, source.size());
+        assertFalse(m.isInInsertionMode());
+        assertEquals(n, m.size());
+        for (long i = 1; i <= n; i++) {
+            assertEquals(i, m.removeFirst().longValue());
+        }
+        source.add(2L);
+        source.add(1L);
+        source.changeToExtractionMode();
+        assertEquals(1L, source.removeFirst().longValue());
+    }
+
+    /**
+     * iterator test case.
+     */
+    @Test
+    public void testIterator() {
+        WideHeapSortingMachine<Long> m = createFromArgs(true, 3L, 1L, 2L);
+        assertEquals(Arrays.asList(3L, 1L, 2L), entries(m));
+
+        m.changeToExtractionMode();
+        List<Long> seen = entries(m);
+        seen.sort(null);
+
+        assertEquals(Arrays.asList(1L, 2L, 3L), seen);
+        assertEquals(3, m.size());
+        Iterator<Long> it = m.iterator();
+        assertEquals(1L, it.next().longValue());
+        boolean unsupported = false;
+        try {
+            it.remove();
+        } catch (UnsupportedOperationException e) {
+            unsupported = true;
+        }
+        assertTrue(unsupported);
+    }
+
+    /**
+     * order test case.
+     */
+    @Test
+    public void testOrder() {
+        WideHeapSortingMachine<String> m = new WideHeapSortingMachine<>(
+                String::length);
+        m.add("green");
+        m.add("red");
+        m.add("blue");
+
+        assertTrue(m.order().compare("red", "blue") < 0);
+        assertEquals(0, m.order().compare("red", "red"));
+        assertTrue(m.order().compare("green", "blue") > 0);
+        m.changeToExtractionMode();
+        assertEquals("red", m.removeFirst());
+        assertEquals("blue", m.removeFirst());
+        assertEquals("green", m.removeFirst());
+    }
+
+}